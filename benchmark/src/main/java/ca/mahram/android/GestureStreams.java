@@ -0,0 +1,122 @@
+package ca.mahram.android;
+
+import java.util.Random;
+
+/**
+ Deterministic, realistic gesture input for the benchmarks: what a finger produces on a phone sized view.
+ */
+final class GestureStreams {
+
+    static final int VIEW_WIDTH      = 1080;
+    static final int VIEW_HEIGHT     = 1920;
+    static final int DRAWABLE_WIDTH  = 4032;
+    static final int DRAWABLE_HEIGHT = 3024;
+
+    // number of frames in a 500ms zoom animation at 60Hz
+    static final int ZOOM_FRAMES = 30;
+
+    private GestureStreams () {
+    }
+
+    /**
+     A model fitted to a portrait phone screen, showing a landscape camera image.
+
+     @return the fitted model
+     */
+    static ZoomPanModel fittedModel () {
+        final ZoomPanModel model = new ZoomPanModel (1f, 3f, .85f, 1.15f);
+        model.viewWidth = VIEW_WIDTH;
+        model.viewHeight = VIEW_HEIGHT;
+        model.drawableWidth = DRAWABLE_WIDTH;
+        model.drawableHeight = DRAWABLE_HEIGHT;
+        model.fit (true);
+        return model;
+    }
+
+    /**
+     ACTION_MOVE deltas of a few drags back and forth: each drag accelerates then slows down, with sensor jitter,
+     and some overshoot the image edges so that clamping is exercised. Deltas sum to (nearly) zero so replaying the
+     stream leaves the model where it started.
+
+     @param samples
+     number of move events (even)
+
+     @return interleaved x, y deltas
+     */
+    static float[] dragDeltas (final int samples) {
+        final Random random = new Random (42);
+        final float[] deltas = new float[samples * 2];
+        final int half = samples / 2;
+
+        for (int i = 0; i < half; i++) {
+            final float progress = (float) i / half;
+            final float speed = (float) Math.sin (progress * Math.PI) * 60f;
+            deltas[i * 2] = speed + (random.nextFloat () - .5f) * 2f;
+            deltas[i * 2 + 1] = speed * .3f + (random.nextFloat () - .5f) * 2f;
+        }
+
+        for (int i = 0; i < half; i++) {
+            deltas[(half + i) * 2] = -deltas[i * 2];
+            deltas[(half + i) * 2 + 1] = -deltas[i * 2 + 1];
+        }
+
+        return deltas;
+    }
+
+    /**
+     Scale factors reported by the scale detector for a pinch out past the maximum zoom followed by a pinch in past
+     the minimum zoom.
+
+     @param samples
+     number of scale events (even)
+
+     @return scale factors
+     */
+    static float[] pinchFactors (final int samples) {
+        final Random random = new Random (7);
+        final float[] factors = new float[samples];
+        final int half = samples / 2;
+
+        for (int i = 0; i < half; i++) {
+            factors[i] = 1.04f + random.nextFloat () * .01f;
+        }
+
+        for (int i = half; i < samples; i++) {
+            factors[i] = .955f - random.nextFloat () * .01f;
+        }
+
+        return factors;
+    }
+
+    /**
+     Touch points spread over the view.
+
+     @param count
+     number of points
+
+     @return interleaved x, y coordinates
+     */
+    static float[] touchPoints (final int count) {
+        final Random random = new Random (3);
+        final float[] points = new float[count * 2];
+
+        for (int i = 0; i < count; i++) {
+            points[i * 2] = random.nextFloat () * VIEW_WIDTH;
+            points[i * 2 + 1] = random.nextFloat () * VIEW_HEIGHT;
+        }
+
+        return points;
+    }
+
+    /**
+     AccelerateDecelerateInterpolator, as used by the zoom animation.
+
+     @param input
+     elapsed fraction
+
+     @return interpolated fraction
+     */
+    static float accelerateDecelerate (final float input) {
+        return (float) (Math.cos ((input + 1) * Math.PI) / 2.0f) + 0.5f;
+    }
+}
@@ -0,0 +1,155 @@
+package ca.mahram.android;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ <p>
+ Throughput of the transform math behind {@link TouchImageView}'s gestures, run on {@link ZoomPanModel}. Each
+ benchmark replays a whole gesture, so ops/s reads as gestures per second. Run with the gc profiler (the default
+ for the <code>jmh</code> task) to get the allocation rate, which should stay at zero.
+ </p>
+ */
+@State (Scope.Thread)
+@BenchmarkMode (Mode.Throughput)
+@OutputTimeUnit (TimeUnit.SECONDS)
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class ZoomPanModelBenchmark {
+
+    private static final int DRAG_SAMPLES  = 120;
+    private static final int PINCH_SAMPLES = 80;
+    private static final int TOUCH_POINTS  = 64;
+
+    private ZoomPanModel              model;
+    private ZoomPanModel.AnimatedZoom animatedZoom;
+    private float[]                   dragDeltas;
+    private float[]                   pinchFactors;
+    private float[]                   touchPoints;
+
+    @Setup
+    public void setUp () {
+        model = GestureStreams.fittedModel ();
+        animatedZoom = new ZoomPanModel.AnimatedZoom ();
+        dragDeltas = GestureStreams.dragDeltas (DRAG_SAMPLES);
+        pinchFactors = GestureStreams.pinchFactors (PINCH_SAMPLES);
+        touchPoints = GestureStreams.touchPoints (TOUCH_POINTS);
+    }
+
+    /**
+     A drag stream over an image zoomed to 2x: one drag (with boundary checking) per move event.
+     */
+    @Benchmark
+    public float dragStream () {
+        model.fit (true);
+        model.scaleImage (2f, GestureStreams.VIEW_WIDTH / 2, GestureStreams.VIEW_HEIGHT / 2, false);
+
+        for (int i = 0; i < dragDeltas.length; i += 2) {
+            model.drag (dragDeltas[i], dragDeltas[i + 1]);
+        }
+
+        return model.transX + model.transY;
+    }
+
+    /**
+     A pinch out past the maximum zoom and back in past the minimum, ending with the bounce back target.
+     */
+    @Benchmark
+    public float pinchSequence () {
+        model.fit (true);
+
+        for (int i = 0; i < pinchFactors.length; i++) {
+            model.scaleImage (pinchFactors[i], 400f + i, 900f - i, true);
+        }
+
+        return model.getBounceBackTarget ();
+    }
+
+    /**
+     Portrait to landscape and back while zoomed in: save the previous state and refit.
+     */
+    @Benchmark
+    public float rotationRefit () {
+        model.fit (true);
+        model.scaleImage (2.5f, 300f, 700f, false);
+
+        model.savePrevious ();
+        model.viewWidth = GestureStreams.VIEW_HEIGHT;
+        model.viewHeight = GestureStreams.VIEW_WIDTH;
+        model.fit (false);
+
+        model.savePrevious ();
+        model.viewWidth = GestureStreams.VIEW_WIDTH;
+        model.viewHeight = GestureStreams.VIEW_HEIGHT;
+        model.fit (false);
+
+        return model.transX + model.transY;
+    }
+
+    /**
+     Every frame of a double tap zoom animation from 1x to 3x, stepped by the same
+     {@link ZoomPanModel.AnimatedZoom} the view's DoubleTapZoom runs.
+     */
+    @Benchmark
+    public float doubleTapAnimation () {
+        model.fit (true);
+        animatedZoom.start (model, model.getDoubleTapTarget (), 270f, 800f, false);
+
+        for (int frame = 1; frame <= GestureStreams.ZOOM_FRAMES; frame++) {
+            animatedZoom.step (model,
+                               GestureStreams.accelerateDecelerate ((float) frame / GestureStreams.ZOOM_FRAMES));
+        }
+
+        return model.transX + model.transY;
+    }
+
+    /**
+     A full fit of the image to the view, as done on layout and whenever an image is set.
+     */
+    @Benchmark
+    public float fitImageToView () {
+        return model.fit (true);
+    }
+
+    /**
+     Boundary checking of arbitrary translations, on both axes.
+     */
+    @Benchmark
+    public float getFixTrans () {
+        final float imageWidth = GestureStreams.VIEW_WIDTH * 2.5f;
+        final float imageHeight = GestureStreams.VIEW_HEIGHT * .8f;
+        float sum = 0;
+
+        for (int i = 0; i < touchPoints.length; i += 2) {
+            sum += ZoomPanModel.getFixTrans (-touchPoints[i] * 2, GestureStreams.VIEW_WIDTH, imageWidth);
+            sum += ZoomPanModel.getFixTrans (touchPoints[i + 1] - 400, GestureStreams.VIEW_HEIGHT, imageHeight);
+        }
+
+        return sum;
+    }
+
+    /**
+     View to drawable and back for touch points spread over the view.
+     */
+    @Benchmark
+    public void coordinateTransforms (final Blackhole blackhole) {
+        for (int i = 0; i < touchPoints.length; i += 2) {
+            final float x = model.touchToDrawableX (touchPoints[i], true);
+            final float y = model.touchToDrawableY (touchPoints[i + 1], true);
+            blackhole.consume (model.drawableToTouchX (x));
+            blackhole.consume (model.drawableToTouchY (y));
+        }
+    }
+}
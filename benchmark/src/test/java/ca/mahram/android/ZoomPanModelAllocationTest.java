@@ -0,0 +1,126 @@
+package ca.mahram.android;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ Replays drag, pinch and double tap zoom streams through {@link ZoomPanModel} and checks that the gesture math does not
+ allocate: the view runs it on every touch event and every animation frame.
+ */
+public class ZoomPanModelAllocationTest {
+
+    private static final int DRAG_SAMPLES  = 120;
+    private static final int PINCH_SAMPLES = 80;
+
+    // replays before measuring, so that class loading and compilation are done with
+    private static final int WARMUP_REPLAYS = 2000;
+
+    // measurements taken, the smallest one counts: the JVM may allocate on the thread behind our back (ie, to deopt)
+    private static final int ATTEMPTS = 5;
+
+    private com.sun.management.ThreadMXBean threads;
+    private ZoomPanModel                    model;
+    private ZoomPanModel.AnimatedZoom       animatedZoom;
+    private float[]                         dragDeltas;
+    private float[]                         pinchFactors;
+
+    @Before
+    public void setUp () {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean ();
+        Assume.assumeTrue (bean instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue (threads.isThreadAllocatedMemorySupported ());
+        threads.setThreadAllocatedMemoryEnabled (true);
+
+        model = GestureStreams.fittedModel ();
+        animatedZoom = new ZoomPanModel.AnimatedZoom ();
+        dragDeltas = GestureStreams.dragDeltas (DRAG_SAMPLES);
+        pinchFactors = GestureStreams.pinchFactors (PINCH_SAMPLES);
+    }
+
+    @Test
+    public void dragDoesNotAllocate () {
+        final Runnable replay = new Runnable () {
+            @Override
+            public void run () {
+                model.fit (true);
+                model.scaleImage (2f, GestureStreams.VIEW_WIDTH / 2, GestureStreams.VIEW_HEIGHT / 2, false);
+                for (int i = 0; i < dragDeltas.length; i += 2) {
+                    model.drag (dragDeltas[i], dragDeltas[i + 1]);
+                }
+            }
+        };
+
+        assertEquals ("bytes allocated by a drag stream", 0L, allocatedBytes (replay));
+    }
+
+    @Test
+    public void pinchDoesNotAllocate () {
+        final Runnable replay = new Runnable () {
+            @Override
+            public void run () {
+                model.fit (true);
+                for (int i = 0; i < pinchFactors.length; i++) {
+                    model.scaleImage (pinchFactors[i], 400f + i, 900f - i, true);
+                }
+                model.getBounceBackTarget ();
+            }
+        };
+
+        assertEquals ("bytes allocated by a pinch stream", 0L, allocatedBytes (replay));
+    }
+
+    @Test
+    public void doubleTapZoomDoesNotAllocate () {
+        final Runnable replay = new Runnable () {
+            @Override
+            public void run () {
+                model.fit (true);
+                animatedZoom.start (model, model.getDoubleTapTarget (), 270f, 800f, false);
+                for (int frame = 1; frame <= GestureStreams.ZOOM_FRAMES; frame++) {
+                    final float t = GestureStreams.accelerateDecelerate ((float) frame / GestureStreams.ZOOM_FRAMES);
+                    animatedZoom.step (model, t);
+                }
+            }
+        };
+
+        assertEquals ("bytes allocated by a double tap zoom", 0L, allocatedBytes (replay));
+    }
+
+    /**
+     @param replay
+     gesture stream to replay
+
+     @return bytes allocated by the current thread while replaying the stream once warmed up, net of what reading the
+     allocation counter allocates
+     */
+    private long allocatedBytes (final Runnable replay) {
+        for (int i = 0; i < WARMUP_REPLAYS; i++) {
+            replay.run ();
+        }
+
+        final Runnable nothing = new Runnable () {
+            @Override
+            public void run () {
+            }
+        };
+
+        long allocated = Long.MAX_VALUE;
+        for (int i = 0; i < ATTEMPTS && allocated > 0; i++) {
+            allocated = Math.min (allocated, Math.max (0, measure (replay) - measure (nothing)));
+        }
+        return allocated;
+    }
+
+    private long measure (final Runnable replay) {
+        final long id = Thread.currentThread ().getId ();
+        final long before = threads.getThreadAllocatedBytes (id);
+        replay.run ();
+        return threads.getThreadAllocatedBytes (id) - before;
+    }
+}
@@ -0,0 +1,249 @@
+package ca.mahram.android;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ Transform math of {@link ZoomPanModel}, on the portrait phone screen and landscape camera image of
+ {@link GestureStreams}.
+ */
+public class ZoomPanModelTest {
+
+    // tolerance on positions, in view or drawable pixels
+    private static final float PIXELS = .05f;
+
+    // tolerance on scales
+    private static final float SCALE = 1e-5f;
+
+    private static final float FIT_SCALE = (float) GestureStreams.VIEW_WIDTH / GestureStreams.DRAWABLE_WIDTH;
+
+    private ZoomPanModel model;
+
+    @Before
+    public void setUp () {
+        model = GestureStreams.fittedModel ();
+    }
+
+    @Test
+    public void fitScalesAndCentersTheWholeImage () {
+        assertEquals (FIT_SCALE, model.fit (true), SCALE);
+        assertEquals (FIT_SCALE, model.scale, SCALE);
+        assertEquals (1f, model.normalizedScale, SCALE);
+        assertEquals (GestureStreams.VIEW_WIDTH, model.matchViewWidth, PIXELS);
+        assertEquals (FIT_SCALE * GestureStreams.DRAWABLE_HEIGHT, model.matchViewHeight, PIXELS);
+
+        //
+        // Letterboxed: the image fills the width and is centered vertically
+        //
+        assertEquals (0f, model.transX, PIXELS);
+        assertEquals ((GestureStreams.VIEW_HEIGHT - model.matchViewHeight) / 2, model.transY, PIXELS);
+    }
+
+    @Test
+    public void fitWithoutDrawableLeavesTheTransform () {
+        model.drawableWidth = 0;
+        model.transX = 12f;
+
+        assertEquals (0f, model.fit (true), SCALE);
+        assertEquals (12f, model.transX, PIXELS);
+    }
+
+    @Test
+    public void recenteringFitResetsTheZoom () {
+        model.scaleImage (2.5f, 300f, 700f, false);
+        model.fit (true);
+
+        assertEquals (1f, model.normalizedScale, SCALE);
+        assertEquals (FIT_SCALE, model.scale, SCALE);
+        assertEquals (0f, model.transX, PIXELS);
+    }
+
+    @Test
+    public void refitAfterRotationKeepsTheZoomAndTheCenteredPoint () {
+        model.scaleImage (3f, 300f, 700f, false);
+        final float centerX = model.touchToDrawableX (GestureStreams.VIEW_WIDTH / 2f, false);
+        final float centerY = model.touchToDrawableY (GestureStreams.VIEW_HEIGHT / 2f, false);
+
+        rotate ();
+
+        assertEquals (3f, model.normalizedScale, SCALE);
+        assertEquals (model.matchViewWidth / GestureStreams.DRAWABLE_WIDTH * 3f, model.scale, SCALE);
+        assertEquals (centerX, model.touchToDrawableX (GestureStreams.VIEW_HEIGHT / 2f, false), PIXELS);
+        assertEquals (centerY, model.touchToDrawableY (GestureStreams.VIEW_WIDTH / 2f, false), PIXELS);
+    }
+
+    @Test
+    public void refitAfterRotationCentersAnImageNarrowerThanTheView () {
+        model.scaleImage (1.2f, 300f, 700f, false);
+
+        rotate ();
+
+        //
+        // Taller than the landscape view, but narrower than it
+        //
+        assertEquals (1.2f, model.normalizedScale, SCALE);
+        assertTrue (model.getImageHeight () > model.viewHeight);
+        assertTrue (model.getImageWidth () < model.viewWidth);
+        assertEquals ((model.viewWidth - model.getImageWidth ()) / 2, model.transX, PIXELS);
+    }
+
+    @Test
+    public void refitAfterRotationAtFitZoomFitsTheNewView () {
+        rotate ();
+
+        final float landscapeFit = (float) GestureStreams.VIEW_WIDTH / GestureStreams.DRAWABLE_HEIGHT;
+        assertEquals (1f, model.normalizedScale, SCALE);
+        assertEquals (landscapeFit, model.scale, SCALE);
+        assertEquals ((GestureStreams.VIEW_HEIGHT - landscapeFit * GestureStreams.DRAWABLE_WIDTH) / 2,
+                      model.transX,
+                      PIXELS);
+        assertEquals (0f, model.transY, PIXELS);
+    }
+
+    @Test
+    public void fixTransPinsTheImageToTheViewEdges () {
+        model.scaleImage (2f, 540f, 960f, false);
+        final float imageWidth = model.getImageWidth ();
+
+        model.transX = 100f;
+        model.fixTrans ();
+        assertEquals ("left edge", 0f, model.transX, PIXELS);
+
+        model.transX = -10000f;
+        model.fixTrans ();
+        assertEquals ("right edge", GestureStreams.VIEW_WIDTH - imageWidth, model.transX, PIXELS);
+
+        model.transX = -100f;
+        model.fixTrans ();
+        assertEquals ("within bounds", -100f, model.transX, PIXELS);
+    }
+
+    @Test
+    public void fixTransKeepsAnImageSmallerThanTheViewInside () {
+        model.scaleImage (2f, 540f, 960f, false);
+        final float imageHeight = model.getImageHeight ();
+        assertTrue (imageHeight < GestureStreams.VIEW_HEIGHT);
+
+        model.transY = -50f;
+        model.fixTrans ();
+        assertEquals ("top edge", 0f, model.transY, PIXELS);
+
+        model.transY = 10000f;
+        model.fixTrans ();
+        assertEquals ("bottom edge", GestureStreams.VIEW_HEIGHT - imageHeight, model.transY, PIXELS);
+    }
+
+    @Test
+    public void getFixTrans () {
+        // content larger than the view: translations range from viewSize - contentSize to 0
+        assertEquals (-10f, ZoomPanModel.getFixTrans (10f, 100f, 300f), PIXELS);
+        assertEquals (20f, ZoomPanModel.getFixTrans (-220f, 100f, 300f), PIXELS);
+        assertEquals (0f, ZoomPanModel.getFixTrans (-200f, 100f, 300f), PIXELS);
+
+        // content smaller than the view: translations range from 0 to viewSize - contentSize
+        assertEquals (5f, ZoomPanModel.getFixTrans (-5f, 100f, 60f), PIXELS);
+        assertEquals (-10f, ZoomPanModel.getFixTrans (50f, 100f, 60f), PIXELS);
+        assertEquals (0f, ZoomPanModel.getFixTrans (40f, 100f, 60f), PIXELS);
+    }
+
+    @Test
+    public void dragIgnoresAxesInWhichTheImageFits () {
+        final float transX = model.transX;
+        final float transY = model.transY;
+
+        model.drag (50f, 50f);
+
+        assertEquals (transX, model.transX, PIXELS);
+        assertEquals (transY, model.transY, PIXELS);
+    }
+
+    @Test
+    public void scaleImageClampsToTheZoomBoundaries () {
+        model.scaleImage (10f, 540f, 960f, false);
+        assertEquals (model.getMaxScale (), model.normalizedScale, SCALE);
+        assertEquals (FIT_SCALE * model.getMaxScale (), model.scale, SCALE);
+
+        model.scaleImage (.01f, 540f, 960f, false);
+        assertEquals (model.getMinScale (), model.normalizedScale, SCALE);
+        assertEquals (FIT_SCALE * model.getMinScale (), model.scale, SCALE);
+    }
+
+    @Test
+    public void scaleImageStretchedClampsToTheBounceBackBoundaries () {
+        model.scaleImage (10f, 540f, 960f, true);
+        assertEquals (model.getMaxScale () * 1.15f, model.normalizedScale, SCALE);
+        assertEquals (model.getMaxScale (), model.getBounceBackTarget (), SCALE);
+
+        model.scaleImage (.01f, 540f, 960f, true);
+        assertEquals (model.getMinScale () * .85f, model.normalizedScale, SCALE);
+        assertEquals (model.getMinScale (), model.getBounceBackTarget (), SCALE);
+    }
+
+    @Test
+    public void scaleImageKeepsTheFocusPointInPlace () {
+        final float focusX = 540f;
+        final float focusY = 960f;
+        final float drawableX = model.touchToDrawableX (focusX, false);
+        final float drawableY = model.touchToDrawableY (focusY, false);
+
+        model.scaleImage (2f, focusX, focusY, false);
+
+        assertEquals (drawableX, model.touchToDrawableX (focusX, false), PIXELS);
+        assertEquals (drawableY, model.touchToDrawableY (focusY, false), PIXELS);
+    }
+
+    @Test
+    public void doubleTapTargetTogglesBetweenTheZoomBoundaries () {
+        assertEquals (model.getMaxScale (), model.getDoubleTapTarget (), SCALE);
+
+        model.scaleImage (1.5f, 540f, 960f, false);
+        assertEquals (model.getMinScale (), model.getDoubleTapTarget (), SCALE);
+    }
+
+    @Test
+    public void touchToDrawableRoundTrips () {
+        final float[] points = GestureStreams.touchPoints (64);
+        model.scaleImage (2.2f, 300f, 1200f, false);
+
+        for (int i = 0; i < points.length; i += 2) {
+            final float x = points[i];
+            final float y = points[i + 1];
+            assertEquals (x, model.drawableToTouchX (model.touchToDrawableX (x, false)), PIXELS);
+            assertEquals (y, model.drawableToTouchY (model.touchToDrawableY (y, false)), PIXELS);
+        }
+    }
+
+    @Test
+    public void drawableToTouchRoundTrips () {
+        model.scaleImage (1.7f, 800f, 400f, false);
+
+        for (int x = 0; x <= GestureStreams.DRAWABLE_WIDTH; x += 252) {
+            assertEquals (x, model.touchToDrawableX (model.drawableToTouchX (x), false), PIXELS);
+        }
+        for (int y = 0; y <= GestureStreams.DRAWABLE_HEIGHT; y += 189) {
+            assertEquals (y, model.touchToDrawableY (model.drawableToTouchY (y), false), PIXELS);
+        }
+    }
+
+    @Test
+    public void touchToDrawableClipsToTheDrawable () {
+        assertEquals (0f, model.touchToDrawableY (0f, true), PIXELS);
+        assertEquals (GestureStreams.DRAWABLE_HEIGHT,
+                      model.touchToDrawableY (GestureStreams.VIEW_HEIGHT, true),
+                      PIXELS);
+        assertTrue (model.touchToDrawableY (0f, false) < 0);
+    }
+
+    /**
+     Turn the view to landscape, keeping the zoom.
+     */
+    private void rotate () {
+        model.savePrevious ();
+        model.viewWidth = GestureStreams.VIEW_HEIGHT;
+        model.viewHeight = GestureStreams.VIEW_WIDTH;
+        model.fit (false);
+    }
+}
@@ -0,0 +1,260 @@
+package ca.mahram.android;
+
+import android.graphics.Bitmap;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.test.UiThreadTest;
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ <p>
+ Replays touch streams and animation frames through {@link TouchImageView} itself (touch listener, double tap zoom,
+ fling) and checks that its hot paths do not allocate.
+ </p>
+ <p>
+ Each gesture is replayed twice, once short and once long (more move events, or more frames), and the number of
+ objects allocated on the UI thread is compared with {@link Debug#getThreadAllocCount()}. What the framework
+ allocates once per gesture (setting the image, gesture detector bookkeeping) is the same in both replays, so any
+ difference is an allocation per event or per frame. Frames come from a manual {@link FrameClock}, so they run
+ synchronously and as many times as asked.
+ </p>
+ */
+public class TouchImageViewAllocationTest
+  extends InstrumentationTestCase {
+
+    private static final int VIEW_WIDTH  = 1080;
+    private static final int VIEW_HEIGHT = 1920;
+
+    // replays of each variant before counting, so that classes are loaded and object pools are filled
+    private static final int WARMUP_REPLAYS = 3;
+
+    private static final long ZOOM_DURATION = 500;
+
+    // frame periods, in nanoseconds
+    private static final long FRAME_60HZ  = 16666667L;
+    private static final long FRAME_240HZ = 4166667L;
+
+    // enough frames for any animation the tests start to end
+    private static final int MAX_FRAMES = 1000;
+
+    private TouchImageView  view;
+    private ManualFrameClock clock;
+    private Bitmap           bitmap;
+
+    @Override
+    protected void setUp () throws Exception {
+        super.setUp ();
+        bitmap = Bitmap.createBitmap (2016, 1512, Bitmap.Config.RGB_565);
+        clock = new ManualFrameClock ();
+        view = new TouchImageView (getInstrumentation ().getContext ());
+        view.setFrameClock (clock);
+        view.setZoomAnimationDuration (ZOOM_DURATION);
+    }
+
+    @Override
+    protected void tearDown () throws Exception {
+        bitmap.recycle ();
+        super.tearDown ();
+    }
+
+    @UiThreadTest
+    public void testDragDoesNotAllocatePerMoveEvent () {
+        assertEquals ("objects allocated by 10 and by 100 move events",
+                      allocations (new DragReplay (10)),
+                      allocations (new DragReplay (100)));
+    }
+
+    @UiThreadTest
+    public void testDoubleTapZoomDoesNotAllocatePerFrame () {
+        assertEquals ("objects allocated by a zoom animation at 60Hz and at 240Hz",
+                      allocations (new DoubleTapReplay (FRAME_60HZ)),
+                      allocations (new DoubleTapReplay (FRAME_240HZ)));
+    }
+
+    @UiThreadTest
+    public void testFlingDoesNotAllocatePerFrame () {
+        assertEquals ("objects allocated by 5 and by 50 fling frames",
+                      allocations (new FlingReplay (5)),
+                      allocations (new FlingReplay (50)));
+    }
+
+    /**
+     @return objects allocated on the current thread by the replay, once warmed up
+     */
+    @SuppressWarnings ("deprecation")
+    private int allocations (final Runnable replay) {
+        for (int i = 0; i < WARMUP_REPLAYS; i++) {
+            replay.run ();
+        }
+
+        Debug.resetThreadAllocCount ();
+        Debug.startAllocCounting ();
+        try {
+            replay.run ();
+        } finally {
+            Debug.stopAllocCounting ();
+        }
+        return Debug.getThreadAllocCount ();
+    }
+
+    /**
+     Set the image afresh, lay the view out, and zoom in with a double tap so that drags and flings move the image.
+     */
+    private long zoomedIn () {
+        view.setImageBitmap (bitmap);
+        view.measure (View.MeasureSpec.makeMeasureSpec (VIEW_WIDTH, View.MeasureSpec.EXACTLY),
+                      View.MeasureSpec.makeMeasureSpec (VIEW_HEIGHT, View.MeasureSpec.EXACTLY));
+        view.layout (0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+
+        final long time = doubleTap (SystemClock.uptimeMillis ());
+        clock.run (FRAME_60HZ, MAX_FRAMES);
+        return time;
+    }
+
+    /**
+     @return time of the last event
+     */
+    private long doubleTap (final long downTime) {
+        final float x = VIEW_WIDTH / 2;
+        final float y = VIEW_HEIGHT / 2;
+        touch (downTime, downTime, MotionEvent.ACTION_DOWN, x, y);
+        touch (downTime, downTime + 50, MotionEvent.ACTION_UP, x, y);
+        touch (downTime + 150, downTime + 150, MotionEvent.ACTION_DOWN, x, y);
+        touch (downTime + 150, downTime + 200, MotionEvent.ACTION_UP, x, y);
+        return downTime + 200;
+    }
+
+    private void touch (final long downTime, final long eventTime, final int action, final float x, final float y) {
+        final MotionEvent event = MotionEvent.obtain (downTime, eventTime, action, x, y, 0);
+        view.dispatchTouchEvent (event);
+        event.recycle ();
+    }
+
+    /**
+     A slow drag (too slow to fling) of the zoomed in image.
+     */
+    private final class DragReplay
+      implements Runnable {
+        private final int moves;
+
+        DragReplay (final int moves) {
+            this.moves = moves;
+        }
+
+        @Override
+        public void run () {
+            final long downTime = zoomedIn () + 500;
+            float x = VIEW_WIDTH / 2;
+            final float y = VIEW_HEIGHT / 2;
+            long time = downTime;
+
+            touch (downTime, time, MotionEvent.ACTION_DOWN, x, y);
+            for (int i = 0; i < moves; i++) {
+                x -= 2;
+                time += 100;
+                touch (downTime, time, MotionEvent.ACTION_MOVE, x, y);
+                clock.run (FRAME_60HZ, MAX_FRAMES);
+            }
+            touch (downTime, time, MotionEvent.ACTION_UP, x, y);
+            clock.run (FRAME_60HZ, MAX_FRAMES);
+        }
+    }
+
+    /**
+     A double tap zoom, from its first frame to its last.
+     */
+    private final class DoubleTapReplay
+      implements Runnable {
+        private final long framePeriod;
+
+        DoubleTapReplay (final long framePeriod) {
+            this.framePeriod = framePeriod;
+        }
+
+        @Override
+        public void run () {
+            view.setImageBitmap (bitmap);
+            view.measure (View.MeasureSpec.makeMeasureSpec (VIEW_WIDTH, View.MeasureSpec.EXACTLY),
+                          View.MeasureSpec.makeMeasureSpec (VIEW_HEIGHT, View.MeasureSpec.EXACTLY));
+            view.layout (0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+
+            doubleTap (SystemClock.uptimeMillis ());
+            clock.run (framePeriod, MAX_FRAMES);
+        }
+    }
+
+    /**
+     A fast drag of the zoomed in image, the given number of frames of the fling it ends with, then a touch that
+     stops the fling.
+     */
+    private final class FlingReplay
+      implements Runnable {
+        private final int frames;
+
+        FlingReplay (final int frames) {
+            this.frames = frames;
+        }
+
+        @Override
+        public void run () {
+            final long downTime = zoomedIn () + 500;
+            float x = VIEW_WIDTH / 2;
+            final float y = VIEW_HEIGHT / 2;
+            long time = downTime;
+
+            touch (downTime, time, MotionEvent.ACTION_DOWN, x, y);
+            for (int i = 0; i < 5; i++) {
+                x -= 60;
+                time += 10;
+                touch (downTime, time, MotionEvent.ACTION_MOVE, x, y);
+            }
+            touch (downTime, time, MotionEvent.ACTION_UP, x, y);
+            clock.run (FRAME_60HZ, frames);
+
+            time += 500;
+            touch (time, time, MotionEvent.ACTION_DOWN, x, y);
+            touch (time, time + 50, MotionEvent.ACTION_UP, x, y);
+            clock.run (FRAME_60HZ, MAX_FRAMES);
+        }
+    }
+
+    /**
+     Runs frames on demand, synchronously.
+     */
+    private static final class ManualFrameClock
+      implements FrameClock {
+        private FrameCallback callback;
+        private long          frameTime = System.nanoTime ();
+
+        @Override
+        public void postFrameCallback (final FrameCallback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void removeFrameCallback (final FrameCallback callback) {
+            if (this.callback == callback) {
+                this.callback = null;
+            }
+        }
+
+        /**
+         Run frames until no more are asked for, or up to a number of frames.
+
+         @param period
+         time between frames, in nanoseconds
+         @param maxFrames
+         most frames to run
+         */
+        void run (final long period, final int maxFrames) {
+            for (int i = 0; i < maxFrames && null != callback; i++) {
+                final FrameCallback due = callback;
+                callback = null;
+                frameTime += period;
+                due.doFrame (frameTime);
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package ca.mahram.android;
+
+/**
+ <p>
+ Frame statistics of one animation of a {@link TouchImageView} (an animated zoom or a fling), delivered to
+ {@link TouchImageView.AnimationStatsListener} when the animation ends.
+ </p>
+ <p>
+ A frame is late when it comes more than one and a half display refresh periods after the previous one, ie, at least
+ one vsync was missed in between. Durations are measured between the vsync timestamps of the animation's first and
+ last frames, the same time base the animation itself advances on.
+ </p>
+ <p>
+ Instances are reused by the view for every animation of the same type: copy the values to keep them.
+ </p>
+ */
+public final class AnimationFrameStats {
+
+    public enum Type {
+        /**
+         Animated zoom: double tap, or bounce back after a pinch
+         */
+        ZOOM,
+        /**
+         Scroll fling
+         */
+        FLING
+    }
+
+    private final Type type;
+
+    private long    firstFrameNanos;
+    private long    requestedNanos;
+    private long    framePeriodNanos;
+    private long    lastFrameNanos;
+    private int     frames;
+    private int     lateFrames;
+    private long    worstIntervalNanos;
+    private boolean running;
+    private boolean completed;
+
+    AnimationFrameStats (final Type type) {
+        this.type = type;
+    }
+
+    /**
+     Start collecting statistics of a new animation. Timing starts with its first frame.
+
+     @param requestedNanos
+     duration the animation was asked to last, or -1 if it is not known up front
+     @param framePeriodNanos
+     display refresh period
+     */
+    void start (final long requestedNanos, final long framePeriodNanos) {
+        this.requestedNanos = requestedNanos;
+        this.framePeriodNanos = framePeriodNanos;
+        firstFrameNanos = 0;
+        lastFrameNanos = 0;
+        frames = 0;
+        lateFrames = 0;
+        worstIntervalNanos = 0;
+        completed = false;
+        running = true;
+    }
+
+    /**
+     @param frameTimeNanos
+     timestamp of a frame the animation ran in
+     */
+    void frame (final long frameTimeNanos) {
+        if (0 == frames) {
+            firstFrameNanos = frameTimeNanos;
+        } else {
+            final long interval = frameTimeNanos - lastFrameNanos;
+            worstIntervalNanos = Math.max (worstIntervalNanos, interval);
+            if (2 * interval > 3 * framePeriodNanos) {
+                lateFrames++;
+            }
+        }
+
+        frames++;
+        lastFrameNanos = frameTimeNanos;
+    }
+
+    /**
+     Stop collecting.
+
+     @param completed
+     true if the animation ran its course, false if it was interrupted
+
+     @return true if an animation was running, ie, if there are statistics to deliver
+     */
+    boolean finish (final boolean completed) {
+        if (!running) {
+            return false;
+        }
+
+        running = false;
+        this.completed = completed;
+        return true;
+    }
+
+    /**
+     @return true between {@link #start(long, long)} and {@link #finish(boolean)}
+     */
+    boolean isRunning () {
+        return running;
+    }
+
+    /**
+     @return the kind of animation
+     */
+    public Type getType () {
+        return type;
+    }
+
+    /**
+     @return true if the animation ran its course, false if it was interrupted (ie, by a touch)
+     */
+    public boolean isCompleted () {
+        return completed;
+    }
+
+    /**
+     @return number of frames the animation ran in
+     */
+    public int getFrames () {
+        return frames;
+    }
+
+    /**
+     @return number of frames that came more than one and a half refresh periods after the previous frame
+     */
+    public int getLateFrames () {
+        return lateFrames;
+    }
+
+    /**
+     @return longest interval between two consecutive frames, in nanoseconds
+     */
+    public long getWorstFrameIntervalNanos () {
+        return worstIntervalNanos;
+    }
+
+    /**
+     @return display refresh period the frames were expected at, in nanoseconds
+     */
+    public long getFramePeriodNanos () {
+        return framePeriodNanos;
+    }
+
+    /**
+     @return time from the first frame of the animation to its last, in nanoseconds. 0 if it ran in less than two
+     frames.
+     */
+    public long getDurationNanos () {
+        return lastFrameNanos - firstFrameNanos;
+    }
+
+    /**
+     @return duration the animation was asked to last, in nanoseconds, or -1 if it is not known up front (flings
+     last as long as the scroller's physics and the edges of the image allow)
+     */
+    public long getRequestedDurationNanos () {
+        return requestedNanos;
+    }
+}
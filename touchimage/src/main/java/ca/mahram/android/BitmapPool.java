@@ -0,0 +1,229 @@
+package ca.mahram.android;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+
+import java.util.ArrayList;
+
+/**
+ <p>
+ Pool of bitmaps released by {@link TouchImageView}s, reused as the decode target of the next images they load
+ instead of allocating new ones. Swapping images of the same size and config (ie, photos in a swipe gallery) then
+ neither allocates nor leaves garbage behind.
+ </p>
+ <p>
+ Only bitmaps a view decoded itself are pooled ({@link TouchImageView#setImageURIAsync(android.net.Uri)}); bitmaps
+ passed to {@link TouchImageView#setImageBitmap(android.graphics.Bitmap)} belong to the caller and are left alone.
+ A pooled bitmap is reused for an image of the same dimensions and config. From API 19 on, a larger bitmap of the same
+ config can be reused as well. Bitmaps cannot be reused before API 11, where the pool stays empty.
+ </p>
+ <p>
+ The pool holds at most its byte budget; least recently released bitmaps are recycled first. An instance can be shared
+ by any number of views (see {@link TouchImageView#setBitmapPool(BitmapPool)}). All methods are thread safe.
+ </p>
+ */
+public final class BitmapPool {
+
+    private final ArrayList<Bitmap> bitmaps;
+    private final int               maxBytes;
+    private       int               size;
+
+    private long hits;
+    private long misses;
+    private long bytesSaved;
+
+    /**
+     @param maxBytes
+     maximum number of bytes of bitmaps held by the pool
+     */
+    public BitmapPool (final int maxBytes) {
+        this.maxBytes = maxBytes;
+        bitmaps = new ArrayList<Bitmap> ();
+    }
+
+    /**
+     @return maximum size of the pool in bytes
+     */
+    public int getMaxSize () {
+        return maxBytes;
+    }
+
+    /**
+     @return bytes of bitmaps currently held by the pool
+     */
+    public synchronized int getSize () {
+        return size;
+    }
+
+    /**
+     @return number of decodes that reused a pooled bitmap
+     */
+    public synchronized long getHitCount () {
+        return hits;
+    }
+
+    /**
+     @return number of decodes that had to allocate a new bitmap
+     */
+    public synchronized long getMissCount () {
+        return misses;
+    }
+
+    /**
+     @return fraction of decodes that reused a pooled bitmap, 0 if nothing has been decoded yet
+     */
+    public synchronized float getHitRate () {
+        final long total = hits + misses;
+        return 0 == total
+               ? 0f
+               : (float) hits / total;
+    }
+
+    /**
+     @return total size of the bitmaps that did not have to be allocated thanks to the pool
+     */
+    public synchronized long getBytesSaved () {
+        return bytesSaved;
+    }
+
+    /**
+     Recycle all pooled bitmaps.
+     */
+    public synchronized void clear () {
+        trimToSize (0);
+    }
+
+    /**
+     Take a bitmap to decode an image into.
+
+     @param width
+     width of the image
+     @param height
+     height of the image
+     @param config
+     config the image will be decoded to
+
+     @return a bitmap the image can be decoded into, removed from the pool, or null if there is none. Report the outcome
+     of the decode with {@link #reused(android.graphics.Bitmap)} or {@link #missed()}.
+     */
+    synchronized Bitmap get (final int width, final int height, final Bitmap.Config config) {
+        if (VERSION.SDK_INT < VERSION_CODES.HONEYCOMB) {
+            return null;
+        }
+
+        final boolean resizable = VERSION.SDK_INT >= VERSION_CODES.KITKAT;
+        final int needed = width * height * bytesPerPixel (config);
+        int best = -1;
+        int bestBytes = Integer.MAX_VALUE;
+
+        for (int i = 0; i < bitmaps.size (); i++) {
+            final Bitmap bitmap = bitmaps.get (i);
+            if (bitmap.getConfig () != config) {
+                continue;
+            }
+
+            if (bitmap.getWidth () == width && bitmap.getHeight () == height) {
+                best = i;
+                break;
+            }
+
+            //
+            // From KitKat on, any bitmap large enough can be reconfigured by the decoder: take the tightest fit
+            //
+            if (resizable) {
+                final int bytes = allocationByteCount (bitmap);
+                if (bytes >= needed && bytes < bestBytes) {
+                    best = i;
+                    bestBytes = bytes;
+                }
+            }
+        }
+
+        if (best < 0) {
+            return null;
+        }
+
+        final Bitmap bitmap = bitmaps.remove (best);
+        size -= allocationByteCount (bitmap);
+        return bitmap;
+    }
+
+    /**
+     Record a decode that reused a bitmap taken from the pool.
+
+     @param bitmap
+     the decoded image
+     */
+    synchronized void reused (final Bitmap bitmap) {
+        hits++;
+        bytesSaved += Decoding.byteCount (bitmap);
+    }
+
+    /**
+     Record a decode that could not reuse a pooled bitmap.
+     */
+    synchronized void missed () {
+        misses++;
+    }
+
+    /**
+     Give a bitmap that is no longer displayed to the pool. The caller must not use it anymore. Bitmaps that cannot be
+     reused (immutable, recycled, larger than the pool) are recycled.
+
+     @param bitmap
+     released bitmap
+     */
+    synchronized void put (final Bitmap bitmap) {
+        if (bitmap.isRecycled () || bitmaps.contains (bitmap)) {
+            return;
+        }
+
+        final int bytes = allocationByteCount (bitmap);
+        if (VERSION.SDK_INT < VERSION_CODES.HONEYCOMB || !bitmap.isMutable () || null == bitmap.getConfig ()
+            || bytes > maxBytes) {
+            bitmap.recycle ();
+            return;
+        }
+
+        trimToSize (maxBytes - bytes);
+        bitmaps.add (bitmap);
+        size += bytes;
+    }
+
+    /**
+     Recycle least recently released bitmaps until the pool holds at most the given number of bytes. Must hold the
+     lock.
+
+     @param bytes
+     target size
+     */
+    private void trimToSize (final int bytes) {
+        while (size > bytes && !bitmaps.isEmpty ()) {
+            final Bitmap bitmap = bitmaps.remove (0);
+            size -= allocationByteCount (bitmap);
+            bitmap.recycle ();
+        }
+    }
+
+    @TargetApi (Build.VERSION_CODES.KITKAT)
+    private static int allocationByteCount (final Bitmap bitmap) {
+        return VERSION.SDK_INT >= VERSION_CODES.KITKAT
+               ? bitmap.getAllocationByteCount ()
+               : Decoding.byteCount (bitmap);
+    }
+
+    private static int bytesPerPixel (final Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package ca.mahram.android;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ Reads the remaining bytes of a buffer. Supports mark and reset, so decoders do not wrap it in a buffered stream of
+ their own. The buffer's position is moved as bytes are read; pass a duplicate if the original must stay untouched.
+ */
+final class ByteBufferInputStream
+  extends InputStream {
+
+    private final ByteBuffer buffer;
+    private       int        mark;
+
+    ByteBufferInputStream (final ByteBuffer buffer) {
+        this.buffer = buffer;
+        mark = buffer.position ();
+    }
+
+    @Override
+    public int read () {
+        return buffer.hasRemaining ()
+               ? buffer.get () & 0xff
+               : -1;
+    }
+
+    @Override
+    public int read (final byte[] bytes, final int offset, final int length) {
+        if (0 == length) {
+            return 0;
+        }
+
+        if (!buffer.hasRemaining ()) {
+            return -1;
+        }
+
+        final int count = Math.min (length, buffer.remaining ());
+        buffer.get (bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public long skip (final long count) {
+        if (count <= 0) {
+            return 0;
+        }
+
+        final int skipped = (int) Math.min (count, buffer.remaining ());
+        buffer.position (buffer.position () + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available () {
+        return buffer.remaining ();
+    }
+
+    @Override
+    public boolean markSupported () {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark (final int readLimit) {
+        mark = buffer.position ();
+    }
+
+    @Override
+    public synchronized void reset () {
+        buffer.position (mark);
+    }
+}
@@ -0,0 +1,359 @@
+package ca.mahram.android;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Build;
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+import android.util.Log;
+
+/**
+ <p>
+ Drawable for a bitmap larger than what the renderer can upload as a single texture. Hardware accelerated canvases
+ get the bitmap in chunks that fit within the maximum texture size, copied from the bitmap the first time they
+ intersect the region being drawn (the canvas clip, which follows the view's matrix). Chunks far from that region
+ are recycled, so only those around the visible region are held on top of the bitmap itself. Software canvases,
+ and bitmaps small enough for the renderer, get the bitmap as is.
+ </p>
+ <p>
+ While the image is drawn smaller than its own resolution, chunks are downsampled copies: at the sample size the
+ view's scale calls for (see {@link Decoding#sampleSizeForScale(float)}), so a zoomed out image costs a fraction of
+ its full resolution and usually fits a single chunk. Full resolution chunks are only made when zoomed in, where the
+ visible region is small. When memory is too short for a chunk, the other chunks are dropped and, if that is not
+ enough, the bitmap is drawn at the next coarser sample size rather than with holes.
+ </p>
+ <p>
+ Chunks overlap their neighbours by one pixel so that filtering does not show seams between them.
+ </p>
+ */
+class ChunkedBitmapDrawable
+  extends DecodingDrawable {
+
+    private static final String LOGTAG = "ChunkedBitmapDrawable";
+
+    // bitmaps up to this size fit within the texture size limit of all devices
+    static final int MIN_TEXTURE_SIZE = 2048;
+
+    // chunk size when the renderer allows larger textures: smaller chunks mean less to copy and upload per pan
+    private static final int MAX_CHUNK_SIZE = 2048;
+
+    // overlap between chunks, in chunk pixels
+    private static final int BORDER = 1;
+
+    // chunks that are not drawn are kept while within this many chunks of the drawn region
+    private static final int KEEP_MARGIN = 1;
+
+    private final Bitmap bitmap;
+
+    // clip of the canvas in drawable coordinates, its counterpart in bitmap pixels, and scratch rects for drawing
+    private final Rect clip;
+    private final Rect region;
+    private final Rect source;
+    private final Rect destination;
+
+    // downsamples the bitmap into chunks
+    private final Matrix sampling;
+
+    // sample size the view's scale calls for, and the smallest one memory allowed since the scale last changed
+    private int viewSampleSize;
+    private int minSampleSize;
+
+    // chunk grid, created on the first hardware accelerated draw that needs it. Row major. Chunks are chunkSize
+    // sampled pixels wide (plus borders), and cover chunkSpan bitmap pixels.
+    private int      chunkSize;
+    private int      sampleSize;
+    private int      chunkSpan;
+    private int      columns;
+    private int      rows;
+    private Bitmap[] chunks;
+    private int      chunkBytes;
+
+    /**
+     @param bitmap
+     the bitmap. Still owned by the caller, and not recycled by the drawable.
+     @param width
+     intrinsic width, ie, the bitmap's width scaled to the display density
+     @param height
+     intrinsic height
+     */
+    ChunkedBitmapDrawable (final Bitmap bitmap, final int width, final int height) {
+        super (width, height, !bitmap.hasAlpha ());
+        this.bitmap = bitmap;
+        clip = new Rect ();
+        region = new Rect ();
+        source = new Rect ();
+        destination = new Rect ();
+        sampling = new Matrix ();
+        viewSampleSize = 1;
+        minSampleSize = 1;
+    }
+
+    /**
+     @param bitmap
+     a bitmap about to be displayed
+
+     @return true if the bitmap may be too large to be drawn as a single texture
+     */
+    static boolean needsChunks (final Bitmap bitmap) {
+        return VERSION.SDK_INT >= VERSION_CODES.ICE_CREAM_SANDWICH &&
+               (bitmap.getWidth () > MIN_TEXTURE_SIZE || bitmap.getHeight () > MIN_TEXTURE_SIZE);
+    }
+
+    @Override
+    public void onImageFitted (final float fitScale) {
+        setViewScale (fitScale);
+    }
+
+    @Override
+    public void onViewportChanged (final RectF visibleRect, final float scale) {
+        setViewScale (scale);
+    }
+
+    @Override
+    public void draw (final Canvas canvas) {
+        if (isReleased () || bitmap.isRecycled ()) {
+            return;
+        }
+
+        final int size = chunkSize (canvas);
+        if (0 == size) {
+            canvas.drawBitmap (bitmap, null, getBounds (), paint);
+            return;
+        }
+
+        final int sample = Math.max (viewSampleSize, minSampleSize);
+        if (size != chunkSize || sample != sampleSize) {
+            createGrid (size, sample);
+        }
+
+        final Rect bounds = getBounds ();
+        if (!canvas.getClipBounds (clip) || bounds.isEmpty ()) {
+            return;
+        }
+
+        //
+        // Map the clip to bitmap pixels, and to the range of chunks it covers
+        //
+        final float scaleX = (float) bitmap.getWidth () / bounds.width ();
+        final float scaleY = (float) bitmap.getHeight () / bounds.height ();
+        region.set ((int) Math.floor ((clip.left - bounds.left) * scaleX),
+                    (int) Math.floor ((clip.top - bounds.top) * scaleY),
+                    (int) Math.ceil ((clip.right - bounds.left) * scaleX),
+                    (int) Math.ceil ((clip.bottom - bounds.top) * scaleY));
+        if (!region.intersect (0, 0, bitmap.getWidth (), bitmap.getHeight ())) {
+            return;
+        }
+
+        final int firstCol = region.left / chunkSpan;
+        final int lastCol = (region.right - 1) / chunkSpan;
+        final int firstRow = region.top / chunkSpan;
+        final int lastRow = (region.bottom - 1) / chunkSpan;
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                final Bitmap chunk = chunk (col, row, firstCol, lastCol, firstRow, lastRow);
+                if (null == chunk) {
+                    if (sampleSize >= Math.max (bitmap.getWidth (), bitmap.getHeight ())) {
+                        continue;
+                    }
+
+                    //
+                    // Out of memory even with no other chunk around: start over at a coarser sample size
+                    //
+                    minSampleSize = sampleSize * 2;
+                    invalidateSelf ();
+                    return;
+                }
+
+                //
+                // The chunk's own part, without the border it shares with its neighbours, in chunk pixels
+                //
+                final int left = col * chunkSize;
+                final int top = row * chunkSize;
+                final int originX = Math.max (0, left - BORDER);
+                final int originY = Math.max (0, top - BORDER);
+                source.set (left - originX,
+                            top - originY,
+                            Math.min (left + chunkSize - originX, chunk.getWidth ()),
+                            Math.min (top + chunkSize - originY, chunk.getHeight ()));
+
+                //
+                // The part of the bitmap it stands for
+                //
+                final int bitmapLeft = col * chunkSpan;
+                final int bitmapTop = row * chunkSpan;
+                final int bitmapRight = Math.min (bitmapLeft + chunkSpan, bitmap.getWidth ());
+                final int bitmapBottom = Math.min (bitmapTop + chunkSpan, bitmap.getHeight ());
+                destination.set (bounds.left + Math.round (bitmapLeft / scaleX),
+                                 bounds.top + Math.round (bitmapTop / scaleY),
+                                 bounds.left + Math.round (bitmapRight / scaleX),
+                                 bounds.top + Math.round (bitmapBottom / scaleY));
+                canvas.drawBitmap (chunk, source, destination, paint);
+            }
+        }
+
+        recycleChunks (firstCol - KEEP_MARGIN, lastCol + KEEP_MARGIN, firstRow - KEEP_MARGIN, lastRow + KEEP_MARGIN);
+    }
+
+    @Override
+    int getByteCount () {
+        return bitmap.isRecycled ()
+               ? chunkBytes
+               : Decoding.byteCount (bitmap) + chunkBytes;
+    }
+
+    @Override
+    void trimMemory (final int level) {
+        //
+        // Chunks are copies of the bitmap: they are all recreated on demand, visible ones on the next draw
+        //
+        if (level == TRIM_TO_BASE) {
+            recycleChunks (0, -1, 0, -1);
+            invalidateSelf ();
+        } else if (null != chunks) {
+            final int firstCol = region.left / chunkSpan;
+            final int lastCol = (region.right - 1) / chunkSpan;
+            final int firstRow = region.top / chunkSpan;
+            final int lastRow = (region.bottom - 1) / chunkSpan;
+            recycleChunks (firstCol, lastCol, firstRow, lastRow);
+        }
+    }
+
+    @Override
+    protected void onRelease () {
+        recycleChunks (0, -1, 0, -1);
+        chunks = null;
+    }
+
+    /**
+     @param scale
+     drawable to view scale the image is drawn at
+     */
+    private void setViewScale (final float scale) {
+        //
+        // Drawable coordinates are density scaled: convert to view pixels per bitmap pixel
+        //
+        final int sample = Decoding.sampleSizeForScale (scale * getIntrinsicWidth () / bitmap.getWidth ());
+        if (sample != viewSampleSize) {
+            viewSampleSize = sample;
+
+            //
+            // A new zoom level gets another try at the resolution it calls for
+            //
+            minSampleSize = 1;
+        }
+    }
+
+    /**
+     @return the chunk size to use on the canvas, or 0 if the bitmap can be drawn as a whole
+     */
+    @TargetApi (Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private int chunkSize (final Canvas canvas) {
+        if (VERSION.SDK_INT < VERSION_CODES.ICE_CREAM_SANDWICH || !canvas.isHardwareAccelerated ()) {
+            return 0;
+        }
+
+        final int maxWidth = canvas.getMaximumBitmapWidth ();
+        final int maxHeight = canvas.getMaximumBitmapHeight ();
+        if (bitmap.getWidth () <= maxWidth && bitmap.getHeight () <= maxHeight) {
+            return 0;
+        }
+
+        return Math.min (MAX_CHUNK_SIZE, Math.min (maxWidth, maxHeight) - 2 * BORDER);
+    }
+
+    private void createGrid (final int size, final int sample) {
+        recycleChunks (0, -1, 0, -1);
+        chunkSize = size;
+        sampleSize = sample;
+        chunkSpan = size * sample;
+        columns = (bitmap.getWidth () + chunkSpan - 1) / chunkSpan;
+        rows = (bitmap.getHeight () + chunkSpan - 1) / chunkSpan;
+        chunks = new Bitmap[columns * rows];
+    }
+
+    /**
+     Get a chunk, copying (and downsampling) it from the bitmap if needed. When memory is too short, the chunks
+     outside of the drawn range are recycled and the copy is tried again.
+
+     @return the chunk at the given position, or null if memory is too short even then
+     */
+    private Bitmap chunk (final int col,
+                          final int row,
+                          final int firstCol,
+                          final int lastCol,
+                          final int firstRow,
+                          final int lastRow) {
+        final int index = row * columns + col;
+        if (null != chunks[index]) {
+            return chunks[index];
+        }
+
+        Bitmap chunk = copyChunk (col, row);
+        if (null == chunk) {
+            recycleChunks (firstCol, lastCol, firstRow, lastRow);
+            chunk = copyChunk (col, row);
+        }
+
+        if (null != chunk) {
+            chunks[index] = chunk;
+            chunkBytes += Decoding.byteCount (chunk);
+        }
+        return chunk;
+    }
+
+    /**
+     @return a copy of the part of the bitmap covered by the chunk and its borders, at the grid's sample size, or null
+     if memory is too short
+     */
+    private Bitmap copyChunk (final int col, final int row) {
+        final int sampledWidth = (bitmap.getWidth () + sampleSize - 1) / sampleSize;
+        final int sampledHeight = (bitmap.getHeight () + sampleSize - 1) / sampleSize;
+        final int left = Math.max (0, col * chunkSize - BORDER) * sampleSize;
+        final int top = Math.max (0, row * chunkSize - BORDER) * sampleSize;
+        final int right = Math.min (sampledWidth, (col + 1) * chunkSize + BORDER) * sampleSize;
+        final int bottom = Math.min (sampledHeight, (row + 1) * chunkSize + BORDER) * sampleSize;
+        final int width = Math.min (right, bitmap.getWidth ()) - left;
+        final int height = Math.min (bottom, bitmap.getHeight ()) - top;
+
+        try {
+            if (1 == sampleSize) {
+                return Bitmap.createBitmap (bitmap, left, top, width, height);
+            }
+
+            //
+            // Scaled straight from the region of the bitmap, without a full resolution copy in between
+            //
+            sampling.setScale (1f / sampleSize, 1f / sampleSize);
+            return Bitmap.createBitmap (bitmap, left, top, width, height, sampling, true);
+        } catch (OutOfMemoryError e) {
+            Log.w (LOGTAG, "Out of memory copying chunk " + col + "," + row + " at sample size " + sampleSize);
+            return null;
+        }
+    }
+
+    /**
+     Recycle all chunks outside of the given (inclusive) range. An empty range recycles all chunks.
+     */
+    private void recycleChunks (final int firstCol, final int lastCol, final int firstRow, final int lastRow) {
+        if (null == chunks) {
+            return;
+        }
+
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < columns; col++) {
+                final int index = row * columns + col;
+                if (null != chunks[index] &&
+                    (col < firstCol || col > lastCol || row < firstRow || row > lastRow)) {
+                    chunkBytes -= Decoding.byteCount (chunks[index]);
+                    chunks[index].recycle ();
+                    chunks[index] = null;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package ca.mahram.android;
+
+import android.graphics.Bitmap;
+
+/**
+ Picks the pixel config each image, level or tile is decoded to, according to a
+ {@link TouchImageView.DecodeConfigPolicy}, and keeps count of the memory saved by decoding at 16 bits. Opaque content
+ (JPEG) can be decoded to RGB_565 at half the memory of ARGB_8888; content that may be translucent always gets
+ ARGB_8888. Thread safe: decode threads read the policy while the UI thread may change it.
+ */
+final class DecodePolicy {
+
+    private volatile TouchImageView.DecodeConfigPolicy policy;
+    private volatile float                             zoomThreshold;
+
+    // bitmaps decoded at 16 bits, and the bytes saved by doing so
+    private long reducedDecodes;
+    private long bytesSaved;
+
+    DecodePolicy (final TouchImageView.DecodeConfigPolicy policy, final float zoomThreshold) {
+        this.policy = policy;
+        this.zoomThreshold = zoomThreshold;
+    }
+
+    TouchImageView.DecodeConfigPolicy getPolicy () {
+        return policy;
+    }
+
+    void setPolicy (final TouchImageView.DecodeConfigPolicy policy) {
+        this.policy = policy;
+    }
+
+    float getZoomThreshold () {
+        return zoomThreshold;
+    }
+
+    void setZoomThreshold (final float zoomThreshold) {
+        this.zoomThreshold = zoomThreshold;
+    }
+
+    /**
+     Pick the config to decode content to.
+
+     @param opaque
+     true if the image has no transparency
+     @param zoom
+     zoom level, relative to the image fitted to the view, at which the content is shown at full detail. 1 for
+     content decoded to fit the view, 2 for content decoded at twice that resolution, and so on.
+
+     @return config to decode to
+     */
+    Bitmap.Config configFor (final boolean opaque, final float zoom) {
+        if (!opaque) {
+            return Bitmap.Config.ARGB_8888;
+        }
+
+        switch (policy) {
+            case MEMORY:
+                return Bitmap.Config.RGB_565;
+            case ADAPTIVE:
+                return zoom < zoomThreshold
+                       ? Bitmap.Config.RGB_565
+                       : Bitmap.Config.ARGB_8888;
+            default:
+                return Bitmap.Config.ARGB_8888;
+        }
+    }
+
+    /**
+     Count a decoded bitmap.
+
+     @param bitmap
+     the decoded content
+     */
+    synchronized void record (final Bitmap bitmap) {
+        if (bitmap.getConfig () == Bitmap.Config.RGB_565) {
+            //
+            // Half the size it would have at ARGB_8888
+            //
+            reducedDecodes++;
+            bytesSaved += Decoding.byteCount (bitmap);
+        }
+    }
+
+    /**
+     @return number of bitmaps decoded at 16 bits
+     */
+    synchronized long getReducedDecodeCount () {
+        return reducedDecodes;
+    }
+
+    /**
+     @return bytes that would have been allocated on top of what was, had all bitmaps been decoded at 32 bits
+     */
+    synchronized long getBytesSaved () {
+        return bytesSaved;
+    }
+}
@@ -0,0 +1,134 @@
+package ca.mahram.android;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Process;
+
+import java.io.FileDescriptor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ Helpers shared by the image decoding paths of {@link TouchImageView}.
+ */
+final class Decoding {
+
+    private static Executor defaultExecutor;
+
+    private Decoding () {
+    }
+
+    /**
+     Pick the largest power of two sample size that still yields at least one decoded pixel per view pixel.
+
+     @param scale
+     view pixels per source pixel
+
+     @return sample size (1 or larger)
+     */
+    static int sampleSizeForScale (final float scale) {
+        int sampleSize = 1;
+        if (scale <= 0f) {
+            return sampleSize;
+        }
+
+        while (sampleSize * 2 * scale <= 1f) {
+            sampleSize <<= 1;
+        }
+
+        return sampleSize;
+    }
+
+    /**
+     Pick the smallest power of two sample size that makes the image fit within the given dimensions.
+
+     @param width
+     source width
+     @param height
+     source height
+     @param maxWidth
+     maximum decoded width
+     @param maxHeight
+     maximum decoded height
+
+     @return sample size (1 or larger)
+     */
+    static int sampleSizeToFit (final int width, final int height, final int maxWidth, final int maxHeight) {
+        int sampleSize = 1;
+        if (maxWidth <= 0 || maxHeight <= 0) {
+            return sampleSize;
+        }
+
+        while (width / sampleSize > maxWidth || height / sampleSize > maxHeight) {
+            sampleSize <<= 1;
+        }
+
+        return sampleSize;
+    }
+
+    /**
+     Size of a bitmap's pixel buffer. Bitmap.getByteCount is not available on all supported platforms.
+
+     @param bitmap
+     the bitmap
+
+     @return size in bytes
+     */
+    static int byteCount (final Bitmap bitmap) {
+        return bitmap.getRowBytes () * bitmap.getHeight ();
+    }
+
+    /**
+     Read the format of an image file. The file offset is left untouched.
+
+     @param descriptor
+     image file
+
+     @return mime type of the image, or null if it cannot be decoded
+     */
+    static String mimeType (final FileDescriptor descriptor) {
+        final BitmapFactory.Options options = new BitmapFactory.Options ();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFileDescriptor (descriptor, null, options);
+        return options.outMimeType;
+    }
+
+    /**
+     @param mimeType
+     mime type of an image, may be null
+
+     @return true if images of this type never have transparency
+     */
+    static boolean isOpaque (final String mimeType) {
+        return "image/jpeg".equals (mimeType);
+    }
+
+    /**
+     The executor used for decoding when the caller does not provide one: a single low priority background thread
+     shared by all instances.
+
+     @return the shared decode executor
+     */
+    static synchronized Executor defaultExecutor () {
+        if (null == defaultExecutor) {
+            defaultExecutor = Executors.newSingleThreadExecutor (new ThreadFactory () {
+                @Override
+                public Thread newThread (final Runnable runnable) {
+                    final Thread thread = new Thread (new Runnable () {
+                        @Override
+                        public void run () {
+                            Process.setThreadPriority (Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run ();
+                        }
+                    }, "TouchImageView-decode");
+                    thread.setDaemon (true);
+                    return thread;
+                }
+            });
+        }
+
+        return defaultExecutor;
+    }
+}
@@ -0,0 +1,258 @@
+package ca.mahram.android;
+
+import android.graphics.Bitmap;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+
+/**
+ Base class for drawables that decode their content in the background and pick what to decode based on the
+ viewport of the {@link TouchImageView} displaying them. The intrinsic size is always that of the full image, so the
+ view's matrix maps the drawable the same way regardless of the resolution actually decoded.
+ */
+abstract class DecodingDrawable
+  extends Drawable
+  implements ViewportListener {
+
+    // drop high resolution content outside of the visible region
+    static final int TRIM_OFF_VIEWPORT = 1;
+
+    // drop all high resolution content, keeping only the base image
+    static final int TRIM_TO_BASE = 2;
+
+    protected final int      imageWidth;
+    protected final int      imageHeight;
+    // runs decodes; null for drawables that decode on threads of their own
+    protected final Executor executor;
+    protected final Handler  handler;
+    protected final Paint    paint;
+
+    // persistent cache of decoded content and key of the image in it; both null when not caching
+    protected final DiskImageCache diskCache;
+    protected final String         imageKey;
+
+    // picks the config content is decoded to; opaque images may be decoded at 16 bits. Null for drawables that are
+    // handed decoded content.
+    protected final DecodePolicy decodePolicy;
+    protected final boolean      opaque;
+
+    private volatile boolean released;
+
+    // collects decode latencies; null unless the view's metrics are enabled
+    protected volatile TouchImageMetrics metrics;
+
+    /**
+     @param imageWidth
+     width of the full resolution image
+     @param imageHeight
+     height of the full resolution image
+     @param executor
+     runs decodes
+     @param diskCache
+     persistent cache of decoded content. May be null.
+     @param imageKey
+     key of the image in the disk cache. May be null, in which case nothing is cached.
+     @param decodePolicy
+     picks the config content is decoded to
+     @param opaque
+     true if the image has no transparency
+     */
+    DecodingDrawable (final int imageWidth,
+                      final int imageHeight,
+                      final Executor executor,
+                      final DiskImageCache diskCache,
+                      final String imageKey,
+                      final DecodePolicy decodePolicy,
+                      final boolean opaque) {
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        this.executor = executor;
+        this.diskCache = null == imageKey
+                         ? null
+                         : diskCache;
+        this.imageKey = imageKey;
+        this.decodePolicy = decodePolicy;
+        this.opaque = opaque;
+        handler = new Handler (Looper.getMainLooper ());
+        paint = new Paint (Paint.FILTER_BITMAP_FLAG);
+    }
+
+    /**
+     For drawables that decode on threads of their own rather than on a shared executor.
+
+     @param imageWidth
+     width of the full resolution image
+     @param imageHeight
+     height of the full resolution image
+     @param diskCache
+     persistent cache of decoded content. May be null.
+     @param imageKey
+     key of the image in the disk cache. May be null, in which case nothing is cached.
+     @param decodePolicy
+     picks the config content is decoded to
+     @param opaque
+     true if the image has no transparency
+     */
+    DecodingDrawable (final int imageWidth,
+                      final int imageHeight,
+                      final DiskImageCache diskCache,
+                      final String imageKey,
+                      final DecodePolicy decodePolicy,
+                      final boolean opaque) {
+        this (imageWidth, imageHeight, null, diskCache, imageKey, decodePolicy, opaque);
+    }
+
+    /**
+     For drawables that are handed decoded content and decode nothing themselves.
+
+     @param imageWidth
+     width of the full resolution image
+     @param imageHeight
+     height of the full resolution image
+     @param opaque
+     true if the image has no transparency
+     */
+    DecodingDrawable (final int imageWidth, final int imageHeight, final boolean opaque) {
+        this (imageWidth, imageHeight, null, null, null, null, opaque);
+    }
+
+    /**
+     @param metrics
+     receives decode latencies from now on. May be null.
+     */
+    void setMetrics (final TouchImageMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     @return true once {@link #release()} has been called. Safe to call from any thread.
+     */
+    final boolean isReleased () {
+        return released;
+    }
+
+    /**
+     Drop all decoded content and close the image. The drawable draws nothing afterwards.
+     Must be called on the UI thread.
+     */
+    final void release () {
+        if (released) {
+            return;
+        }
+
+        released = true;
+        onRelease ();
+    }
+
+    /**
+     Pick the config to decode a level of the image to.
+
+     @param sampleSize
+     sample size of the level
+     @param baseSampleSize
+     sample size of the level shown when the image is fitted to the view
+
+     @return config to decode the level to
+     */
+    protected Bitmap.Config levelConfig (final int sampleSize, final int baseSampleSize) {
+        return decodePolicy.configFor (opaque, (float) baseSampleSize / sampleSize);
+    }
+
+    /**
+     Read a whole level of the image from the disk cache. Called on a decode thread.
+
+     @param sampleSize
+     sample size of the level
+     @param config
+     config the level is wanted in
+
+     @return the level, or null if it is not cached
+     */
+    protected Bitmap readLevel (final int sampleSize, final Bitmap.Config config) {
+        return null == diskCache
+               ? null
+               : diskCache.get (imageKey, sampleSize, config);
+    }
+
+    /**
+     Store a whole level of the image in the disk cache. Called on a decode thread.
+
+     @param sampleSize
+     sample size of the level
+     @param bitmap
+     the level
+     */
+    protected void writeLevel (final int sampleSize, final Bitmap bitmap) {
+        if (null != diskCache) {
+            diskCache.put (imageKey, sampleSize, bitmap);
+        }
+    }
+
+    /**
+     Free decoded content and image resources. Called once, on the UI thread.
+     */
+    protected abstract void onRelease ();
+
+    /**
+     @return number of bytes of pixels currently held
+     */
+    abstract int getByteCount ();
+
+    /**
+     Drop decoded content to save memory. The low resolution base image is always kept. Dropped content is decoded
+     again when the viewport next changes.
+
+     @param level
+     {@link #TRIM_OFF_VIEWPORT} or {@link #TRIM_TO_BASE}
+     */
+    abstract void trimMemory (int level);
+
+    @Override
+    public void onImageFitted (final float fitScale) {
+    }
+
+    @Override
+    public void onViewportChanged (final RectF visibleRect, final float scale) {
+    }
+
+    @Override
+    public void onViewportPredicted (final RectF predictedRect, final float scale) {
+    }
+
+    @Override
+    public void onPredictionCancelled () {
+    }
+
+    @Override
+    public int getIntrinsicWidth () {
+        return imageWidth;
+    }
+
+    @Override
+    public int getIntrinsicHeight () {
+        return imageHeight;
+    }
+
+    @Override
+    public void setAlpha (final int alpha) {
+        paint.setAlpha (alpha);
+        invalidateSelf ();
+    }
+
+    @Override
+    public void setColorFilter (final ColorFilter cf) {
+        paint.setColorFilter (cf);
+        invalidateSelf ();
+    }
+
+    @Override
+    public int getOpacity () {
+        return PixelFormat.TRANSLUCENT;
+    }
+}
@@ -0,0 +1,542 @@
+package ca.mahram.android;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ <p>
+ Persistent cache of decoded image content (the resolution levels of multi-resolution images, and the base image and
+ tiles of tiled images), so that opening the same image again, even after a process restart, does not repeat the
+ decode work.
+ </p>
+ <p>
+ Entries are keyed by the identity of the image (its uri, size and a fingerprint of its content) and by level (sample
+ size, plus position for tiles). They are stored as raw pixels behind a small header and both written and read
+ through memory mapped files, which makes reading an entry back little more than a copy. The total size of the cache
+ is capped; least recently used entries are deleted first. The order of use is tracked in memory and saved to the
+ directory every few dozen reads and writes, rather than touching the entry on every read.
+ </p>
+ <p>
+ An instance can be shared by any number of views (see {@link TouchImageView#setDiskCache(DiskImageCache)}); use a
+ single instance per directory. All methods are thread safe.
+ </p>
+ */
+public final class DiskImageCache {
+
+    private static final String LOGTAG = "DiskImageCache";
+
+    // "TIVP"
+    private static final int MAGIC       = 0x54495650;
+    private static final int HEADER_SIZE = 16;
+
+    private static final String SUFFIX     = ".px";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String ORDER_FILE = "order";
+
+    // reads and writes of entries between two saves of their order
+    private static final int ORDER_SAVE_INTERVAL = 64;
+
+    private static final Bitmap.Config[] CONFIGS = Bitmap.Config.values ();
+
+    private final File directory;
+    private final long maxBytes;
+
+    // entry sizes by file name, least recently used first. Loaded from the directory on first use.
+    private final LinkedHashMap<String, Long> entries;
+    private       boolean                     loaded;
+    private       long                        size;
+    private       int                         unsavedAccesses;
+
+    // held while saving the order of the entries, so saves do not overlap
+    private final Object orderLock = new Object ();
+
+    private long hits;
+    private long misses;
+
+    /**
+     @param directory
+     directory holding the cache. Created if needed. Should not be used for anything else.
+     @param maxBytes
+     maximum size of the cache
+     */
+    public DiskImageCache (final File directory, final long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        entries = new LinkedHashMap<String, Long> (64, .75f, true);
+    }
+
+    /**
+     @return maximum size of the cache in bytes
+     */
+    public long getMaxSize () {
+        return maxBytes;
+    }
+
+    /**
+     @return current size of the cache in bytes
+     */
+    public synchronized long getSize () {
+        load ();
+        return size;
+    }
+
+    /**
+     @return number of entries read from the cache
+     */
+    public synchronized long getHitCount () {
+        return hits;
+    }
+
+    /**
+     @return number of entries looked up but not found
+     */
+    public synchronized long getMissCount () {
+        return misses;
+    }
+
+    /**
+     Delete all entries.
+     */
+    public synchronized void clear () {
+        load ();
+        for (final String name : entries.keySet ()) {
+            new File (directory, name).delete ();
+        }
+        new File (directory, ORDER_FILE).delete ();
+        entries.clear ();
+        size = 0;
+        unsavedAccesses = 0;
+    }
+
+    /**
+     Build the key identifying an image.
+
+     @param location
+     where the image comes from, ie, its uri
+     @param length
+     size of the image, so that replaced content does not match stale entries
+
+     @return key of the image, or null if it cannot be computed
+     */
+    static String keyFor (final String location, final long length) {
+        return keyFor (location, length, null);
+    }
+
+    /**
+     Build the key identifying an image from its location, size and content.
+
+     @param location
+     where the image comes from, ie, its uri
+     @param length
+     size of the image
+     @param content
+     first bytes of the image (its header and the start of its pixels), so that content replaced without its size
+     changing does not match stale entries. May be null.
+
+     @return key of the image, or null if it cannot be computed
+     */
+    static String keyFor (final String location, final long length, final byte[] content) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance ("SHA-1");
+            digest.update ((location + '#' + length).getBytes ("UTF-8"));
+            if (null != content) {
+                digest.update (content);
+            }
+            final byte[] hash = digest.digest ();
+            final StringBuilder key = new StringBuilder (hash.length * 2);
+            for (final byte b : hash) {
+                key.append (Character.forDigit ((b >> 4) & 0xf, 16));
+                key.append (Character.forDigit (b & 0xf, 16));
+            }
+            return key.toString ();
+        } catch (NoSuchAlgorithmException e) {
+            Log.w (LOGTAG, "Unable to compute image key", e);
+        } catch (IOException e) {
+            Log.w (LOGTAG, "Unable to compute image key", e);
+        }
+
+        return null;
+    }
+
+    /**
+     Read a whole level of an image.
+
+     @param key
+     image key from {@link #keyFor(String, long)}
+     @param sampleSize
+     sample size of the level
+     @param config
+     config the level is wanted in
+
+     @return the level, or null if it is not cached
+     */
+    Bitmap get (final String key, final int sampleSize, final Bitmap.Config config) {
+        return read (name (key, sampleSize, config));
+    }
+
+    /**
+     Read a tile of an image.
+
+     @param key
+     image key from {@link #keyFor(String, long)}
+     @param tile
+     the tile
+     @param config
+     config the tile is wanted in
+
+     @return the tile's pixels, or null if they are not cached
+     */
+    Bitmap get (final String key, final Tile tile, final Bitmap.Config config) {
+        return read (name (key, tile, config));
+    }
+
+    /**
+     Store a whole level of an image.
+
+     @param key
+     image key from {@link #keyFor(String, long)}
+     @param sampleSize
+     sample size of the level
+     @param bitmap
+     the level
+     */
+    void put (final String key, final int sampleSize, final Bitmap bitmap) {
+        write (name (key, sampleSize, bitmap.getConfig ()), bitmap);
+    }
+
+    /**
+     Store a tile of an image.
+
+     @param key
+     image key from {@link #keyFor(String, long)}
+     @param tile
+     the tile
+     @param bitmap
+     the tile's pixels
+     */
+    void put (final String key, final Tile tile, final Bitmap bitmap) {
+        write (name (key, tile, bitmap.getConfig ()), bitmap);
+    }
+
+    private static String name (final String key, final int sampleSize, final Bitmap.Config config) {
+        return key + '-' + sampleSize + configSuffix (config);
+    }
+
+    private static String name (final String key, final Tile tile, final Bitmap.Config config) {
+        return key + '-' + tile.sampleSize + '-' + tile.col + '-' + tile.row + configSuffix (config);
+    }
+
+    /**
+     Content decoded to other configs than ARGB_8888 gets entries of its own, so each decode policy reads back what
+     it asked for.
+     */
+    private static String configSuffix (final Bitmap.Config config) {
+        return null == config || Bitmap.Config.ARGB_8888 == config
+               ? SUFFIX
+               : '-' + config.name () + SUFFIX;
+    }
+
+    private Bitmap read (final String name) {
+        synchronized (this) {
+            load ();
+            if (null == entries.get (name)) {
+                misses++;
+                return null;
+            }
+        }
+
+        final File file = new File (directory, name);
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile (file, "r");
+            final FileChannel channel = in.getChannel ();
+            final MappedByteBuffer buffer = channel.map (FileChannel.MapMode.READ_ONLY, 0, channel.size ());
+
+            if (buffer.getInt () != MAGIC) {
+                throw new IOException ("Not a cache entry");
+            }
+
+            final int width = buffer.getInt ();
+            final int height = buffer.getInt ();
+            final int config = buffer.getInt ();
+            if (width <= 0 || height <= 0 || config < 0 || config >= CONFIGS.length) {
+                throw new IOException ("Corrupt cache entry");
+            }
+
+            final Bitmap bitmap = Bitmap.createBitmap (width, height, CONFIGS[config]);
+            if (buffer.remaining () < Decoding.byteCount (bitmap)) {
+                bitmap.recycle ();
+                throw new IOException ("Truncated cache entry");
+            }
+
+            bitmap.copyPixelsFromBuffer (buffer);
+
+            final String[] order;
+            synchronized (this) {
+                hits++;
+                order = accessed ();
+            }
+            saveOrder (order);
+            return bitmap;
+        } catch (IOException e) {
+            Log.w (LOGTAG, "Dropping unreadable entry " + name, e);
+            remove (name);
+        } catch (OutOfMemoryError e) {
+            Log.w (LOGTAG, "Out of memory reading " + name);
+        } finally {
+            close (in);
+        }
+
+        synchronized (this) {
+            misses++;
+        }
+        return null;
+    }
+
+    private void write (final String name, final Bitmap bitmap) {
+        final Bitmap.Config config = bitmap.getConfig ();
+        final int pixelBytes = Decoding.byteCount (bitmap);
+        final long length = HEADER_SIZE + pixelBytes;
+        if (null == config || length > maxBytes) {
+            return;
+        }
+
+        synchronized (this) {
+            load ();
+            if (entries.containsKey (name)) {
+                return;
+            }
+        }
+
+        if (!directory.isDirectory () && !directory.mkdirs ()) {
+            Log.w (LOGTAG, "Unable to create " + directory);
+            return;
+        }
+
+        //
+        // Write to a temporary file and rename it, so a crash never leaves a partial entry behind
+        //
+        final File tmp = new File (directory, name + TMP_SUFFIX);
+        RandomAccessFile out = null;
+        boolean written = false;
+        try {
+            out = new RandomAccessFile (tmp, "rw");
+            out.setLength (length);
+            final MappedByteBuffer buffer = out.getChannel ().map (FileChannel.MapMode.READ_WRITE, 0, length);
+            buffer.putInt (MAGIC);
+            buffer.putInt (bitmap.getWidth ());
+            buffer.putInt (bitmap.getHeight ());
+            buffer.putInt (config.ordinal ());
+            bitmap.copyPixelsToBuffer (buffer);
+            buffer.force ();
+            written = true;
+        } catch (IOException e) {
+            Log.w (LOGTAG, "Unable to write " + name, e);
+        } finally {
+            close (out);
+        }
+
+        if (!written || !tmp.renameTo (new File (directory, name))) {
+            tmp.delete ();
+            return;
+        }
+
+        final String[] order;
+        synchronized (this) {
+            final Long previous = entries.put (name, length);
+            size += length - (null == previous
+                              ? 0
+                              : previous);
+            trimToSize ();
+            order = accessed ();
+        }
+        saveOrder (order);
+    }
+
+    private synchronized void remove (final String name) {
+        final Long length = entries.remove (name);
+        if (null != length) {
+            size -= length;
+        }
+        new File (directory, name).delete ();
+    }
+
+    /**
+     Count a read or write of an entry. Must hold the lock.
+
+     @return names of the entries, least recently used first, when it is time to save their order; null otherwise
+     */
+    private String[] accessed () {
+        if (++unsavedAccesses < ORDER_SAVE_INTERVAL) {
+            return null;
+        }
+
+        unsavedAccesses = 0;
+        return entries.keySet ().toArray (new String[entries.size ()]);
+    }
+
+    /**
+     Save the order of the entries, so that it survives restarts. Written to a temporary file and renamed, like the
+     entries.
+
+     @param names
+     names of the entries, least recently used first. Nothing is saved if null.
+     */
+    private void saveOrder (final String[] names) {
+        if (null == names) {
+            return;
+        }
+
+        synchronized (orderLock) {
+            final File tmp = new File (directory, ORDER_FILE + TMP_SUFFIX);
+            Writer out = null;
+            boolean written = false;
+            try {
+                out = new OutputStreamWriter (new FileOutputStream (tmp), "UTF-8");
+                for (final String name : names) {
+                    out.write (name);
+                    out.write ('\n');
+                }
+                out.flush ();
+                written = true;
+            } catch (IOException e) {
+                Log.w (LOGTAG, "Unable to save the order of the entries", e);
+            } finally {
+                close (out);
+            }
+
+            if (!written || !tmp.renameTo (new File (directory, ORDER_FILE))) {
+                tmp.delete ();
+            }
+        }
+    }
+
+    /**
+     @return position of each entry in the saved order, least recently used first. Empty if no order was saved.
+     */
+    private HashMap<String, Integer> readOrder () {
+        final HashMap<String, Integer> order = new HashMap<String, Integer> ();
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader (new InputStreamReader (new FileInputStream (new File (directory, ORDER_FILE)),
+                                                            "UTF-8"));
+            String name;
+            while (null != (name = in.readLine ())) {
+                order.put (name, order.size ());
+            }
+        } catch (FileNotFoundException e) {
+            //
+            // no order saved yet
+            //
+        } catch (IOException e) {
+            Log.w (LOGTAG, "Unable to read the order of the entries", e);
+        } finally {
+            close (in);
+        }
+        return order;
+    }
+
+    /**
+     Delete least recently used entries until the cache fits. Must hold the lock.
+     */
+    private void trimToSize () {
+        final Iterator<Map.Entry<String, Long>> iterator = entries.entrySet ().iterator ();
+        while (size > maxBytes && iterator.hasNext ()) {
+            final Map.Entry<String, Long> entry = iterator.next ();
+            new File (directory, entry.getKey ()).delete ();
+            size -= entry.getValue ();
+            iterator.remove ();
+        }
+    }
+
+    /**
+     Build the index from the directory on first use. Must hold the lock.
+     */
+    private void load () {
+        if (loaded) {
+            return;
+        }
+
+        loaded = true;
+        final File[] files = directory.listFiles ();
+        if (null == files) {
+            return;
+        }
+
+        //
+        // Entries in the saved order come first, in that order. Those written since it was saved follow, oldest first.
+        //
+        final HashMap<String, Integer> order = readOrder ();
+        Arrays.sort (files, new Comparator<File> () {
+            @Override
+            public int compare (final File lhs, final File rhs) {
+                final Integer lhsOrder = order.get (lhs.getName ());
+                final Integer rhsOrder = order.get (rhs.getName ());
+                if (null != lhsOrder && null != rhsOrder) {
+                    return lhsOrder - rhsOrder;
+                } else if (null != lhsOrder) {
+                    return -1;
+                } else if (null != rhsOrder) {
+                    return 1;
+                }
+
+                final long l = lhs.lastModified ();
+                final long r = rhs.lastModified ();
+                return l < r
+                       ? -1
+                       : (l == r
+                          ? 0
+                          : 1);
+            }
+        });
+
+        for (final File file : files) {
+            final String name = file.getName ();
+            if (name.endsWith (TMP_SUFFIX)) {
+                //
+                // left over by a write that did not complete
+                //
+                file.delete ();
+            } else if (name.endsWith (SUFFIX)) {
+                entries.put (name, file.length ());
+                size += file.length ();
+            }
+        }
+
+        trimToSize ();
+    }
+
+    private static void close (final Closeable file) {
+        if (null == file) {
+            return;
+        }
+
+        try {
+            file.close ();
+        } catch (IOException e) {
+            Log.w (LOGTAG, "Failed to close cache file", e);
+        }
+    }
+}
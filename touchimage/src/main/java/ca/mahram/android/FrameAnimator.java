@@ -0,0 +1,127 @@
+package ca.mahram.android;
+
+import java.util.ArrayList;
+
+/**
+ Runs any number of animations from a single frame callback. Animations are handed the frame timestamp and report
+ whether they need another frame; the callback is only registered while at least one animation is running.
+ Must only be used from the UI thread.
+ */
+final class FrameAnimator
+  implements FrameClock.FrameCallback {
+
+    /**
+     An animation driven by frame timestamps.
+     */
+    interface Animation {
+        /**
+         Advance the animation to the given frame.
+
+         @param frameTimeNanos
+         frame timestamp
+
+         @return true if the animation needs another frame, false if it has finished
+         */
+        boolean doFrame (long frameTimeNanos);
+    }
+
+    /**
+     Informed once all animations have advanced for a frame.
+     */
+    interface FrameListener {
+        void onFrameComplete (long frameTimeNanos);
+    }
+
+    private final ArrayList<Animation> animations;
+    private final FrameListener        listener;
+    private       FrameClock           clock;
+    private       boolean              scheduled;
+
+    FrameAnimator (final FrameClock clock, final FrameListener listener) {
+        this.clock = clock;
+        this.listener = listener;
+        animations = new ArrayList<Animation> (2);
+    }
+
+    /**
+     Switch to another frame source. Running animations carry on on the new clock.
+
+     @param clock
+     new frame source
+     */
+    void setClock (final FrameClock clock) {
+        if (scheduled) {
+            this.clock.removeFrameCallback (this);
+            scheduled = false;
+        }
+
+        this.clock = clock;
+        scheduleIfNeeded ();
+    }
+
+    /**
+     Start running an animation from the next frame on. Does nothing if it is already running.
+
+     @param animation
+     animation to run
+     */
+    void start (final Animation animation) {
+        if (!animations.contains (animation)) {
+            animations.add (animation);
+        }
+        scheduleIfNeeded ();
+    }
+
+    /**
+     Stop running an animation.
+
+     @param animation
+     animation to stop
+     */
+    void cancel (final Animation animation) {
+        animations.remove (animation);
+        if (animations.isEmpty () && scheduled) {
+            clock.removeFrameCallback (this);
+            scheduled = false;
+        }
+    }
+
+    /**
+     @param animation
+     an animation
+
+     @return true if the animation is running
+     */
+    boolean isRunning (final Animation animation) {
+        return animations.contains (animation);
+    }
+
+    @Override
+    public void doFrame (final long frameTimeNanos) {
+        scheduled = false;
+
+        for (int i = animations.size () - 1; i >= 0; i--) {
+            //
+            // an animation may have stopped others while running
+            //
+            if (i >= animations.size ()) {
+                continue;
+            }
+
+            final Animation animation = animations.get (i);
+            if (!animation.doFrame (frameTimeNanos)) {
+                animations.remove (animation);
+            }
+        }
+
+        listener.onFrameComplete (frameTimeNanos);
+        scheduleIfNeeded ();
+    }
+
+    private void scheduleIfNeeded () {
+        if (!scheduled && !animations.isEmpty ()) {
+            clock.postFrameCallback (this);
+            scheduled = true;
+        }
+    }
+}
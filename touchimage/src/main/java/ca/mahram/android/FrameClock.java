@@ -0,0 +1,43 @@
+package ca.mahram.android;
+
+/**
+ <p>
+ Source of animation frames for {@link TouchImageView}. All of the view's animations (fling, animated zoom) are
+ driven from a single frame callback and advance based on the frame timestamp rather than wall clock time.
+ </p>
+ <p>
+ By default frames come from the display's vsync (Choreographer, API 16+). Provide another implementation through
+ {@link TouchImageView#setFrameClock(FrameClock)} to drive animations manually, ie to fast-forward them in tests.
+ </p>
+ */
+public interface FrameClock {
+
+    /**
+     Called when a frame is due.
+     */
+    interface FrameCallback {
+        /**
+         Render a frame.
+
+         @param frameTimeNanos
+         time at which the frame started rendering, in the {@link System#nanoTime()} time base
+         */
+        void doFrame (long frameTimeNanos);
+    }
+
+    /**
+     Call the callback once, at the next frame. Called on the UI thread.
+
+     @param callback
+     callback to call
+     */
+    void postFrameCallback (FrameCallback callback);
+
+    /**
+     Remove a pending callback, if any. Called on the UI thread.
+
+     @param callback
+     callback to remove
+     */
+    void removeFrameCallback (FrameCallback callback);
+}
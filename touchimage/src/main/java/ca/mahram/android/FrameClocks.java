@@ -0,0 +1,103 @@
+package ca.mahram.android;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+/**
+ Platform {@link FrameClock} implementations.
+ */
+final class FrameClocks {
+
+    // frame interval used when vsync is not available
+    private static final long FALLBACK_FRAME_MILLIS = 1000 / 60;
+
+    private FrameClocks () {
+    }
+
+    /**
+     @return a vsync driven clock where available (API 16+), a 60Hz timer otherwise
+     */
+    static FrameClock createDefault () {
+        if (VERSION.SDK_INT >= VERSION_CODES.JELLY_BEAN) {
+            return new ChoreographerClock ();
+        }
+
+        return new HandlerClock ();
+    }
+
+    /**
+     Frames from the display's vsync.
+     */
+    @TargetApi (Build.VERSION_CODES.JELLY_BEAN)
+    private static final class ChoreographerClock
+      implements FrameClock, Choreographer.FrameCallback {
+
+        private final Choreographer choreographer = Choreographer.getInstance ();
+        private FrameCallback callback;
+
+        @Override
+        public void postFrameCallback (final FrameCallback callback) {
+            choreographer.removeFrameCallback (this);
+            this.callback = callback;
+            choreographer.postFrameCallback (this);
+        }
+
+        @Override
+        public void removeFrameCallback (final FrameCallback callback) {
+            if (this.callback == callback) {
+                choreographer.removeFrameCallback (this);
+                this.callback = null;
+            }
+        }
+
+        @Override
+        public void doFrame (final long frameTimeNanos) {
+            final FrameCallback current = callback;
+            callback = null;
+            if (null != current) {
+                current.doFrame (frameTimeNanos);
+            }
+        }
+    }
+
+    /**
+     Frames from a timer aligned to a 60Hz grid, for platforms without Choreographer.
+     */
+    private static final class HandlerClock
+      implements FrameClock, Runnable {
+
+        private final Handler handler = new Handler (Looper.getMainLooper ());
+        private FrameCallback callback;
+
+        @Override
+        public void postFrameCallback (final FrameCallback callback) {
+            handler.removeCallbacks (this);
+            this.callback = callback;
+            final long now = SystemClock.uptimeMillis ();
+            handler.postAtTime (this, now + FALLBACK_FRAME_MILLIS - now % FALLBACK_FRAME_MILLIS);
+        }
+
+        @Override
+        public void removeFrameCallback (final FrameCallback callback) {
+            if (this.callback == callback) {
+                handler.removeCallbacks (this);
+                this.callback = null;
+            }
+        }
+
+        @Override
+        public void run () {
+            final FrameCallback current = callback;
+            callback = null;
+            if (null != current) {
+                current.doFrame (System.nanoTime ());
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package ca.mahram.android;
+
+import android.graphics.RectF;
+
+/**
+ <p>
+ Tappable region of the image of a {@link TouchImageView}, in the drawable's coordinate system (the one
+ {@link TouchImageView#getDrawablePointFromTouchPoint(float, float)} returns).
+ </p>
+ <p>
+ Hotspots are indexed by their bounds, so a tap only tests the few hotspots whose bounds contain it. Bounds are read
+ when the hotspot is added: remove the hotspot and add it again to move it.
+ </p>
+ */
+public interface Hotspot {
+
+    /**
+     @param out
+     receives the bounds of the region, in drawable coordinates
+     */
+    void getBounds (RectF out);
+
+    /**
+     Precise hit test, for regions that do not fill their bounds (circles, polygons...). Only called for points
+     within the bounds. Called on the UI thread and must not allocate.
+
+     @param x
+     horizontal drawable coordinate of the tap
+     @param y
+     vertical drawable coordinate of the tap
+
+     @return true if the point is part of the region
+     */
+    boolean contains (float x, float y);
+}
@@ -0,0 +1,469 @@
+package ca.mahram.android;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ <p>
+ Where an image is read from: a uri, a region of a file descriptor, a byte buffer, or a memory mapped region of a
+ file. Accepted by all image loading methods of {@link TouchImageView} (asynchronous, multi-resolution and tiled).
+ </p>
+ <p>
+ Decoders read sources directly, without copying the encoded image on the Java heap first: heap buffers are decoded
+ from their backing array, and file regions are memory mapped. Direct buffers (including mapped ones) are streamed
+ to the decoder in small chunks, except that the region decoder of tiled images keeps its own native copy of
+ streamed images; such images are therefore decoded by a single tile decoder. The content of a buffer must not
+ change while it is displayed.
+ </p>
+ <p>
+ Sources are immutable and can be reused, ie, to display the same image again.
+ </p>
+ */
+public abstract class ImageSource {
+
+    private static final String LOGTAG = "ImageSource";
+
+    // bytes at the start of an image (header and first pixels) hashed into its cache key
+    private static final int FINGERPRINT_BYTES = 1024;
+
+    ImageSource () {
+    }
+
+    /**
+     @param uri
+     image to read, through the content resolver
+
+     @return a source reading the uri
+     */
+    public static ImageSource fromUri (final Uri uri) {
+        return new UriSource (uri);
+    }
+
+    /**
+     The region is memory mapped when the image is set, so the descriptor can be closed as soon as the method setting
+     the image returns.
+
+     @param descriptor
+     open descriptor of a file holding the image
+     @param offset
+     start of the image in the file
+     @param length
+     size of the image
+
+     @return a source reading the region of the file
+     */
+    public static ImageSource fromFileDescriptor (final FileDescriptor descriptor,
+                                                  final long offset,
+                                                  final long length) {
+        return new DescriptorSource (descriptor, offset, length);
+    }
+
+    /**
+     @param buffer
+     buffer whose remaining bytes (from its position to its limit) hold the image. The buffer's position and limit
+     are not modified, and may be changed by the caller afterwards; its content may not.
+
+     @return a source reading the buffer
+     */
+    public static ImageSource fromByteBuffer (final ByteBuffer buffer) {
+        return new BufferSource (buffer.duplicate ());
+    }
+
+    /**
+     The region is memory mapped when the image is set. Like images read from uris, and unlike those read from
+     descriptors or buffers, images read from a file can be stored in a {@link DiskImageCache}: the file's path, the
+     region and the file's modification time identify them.
+
+     @param file
+     file holding the image
+     @param offset
+     start of the image in the file
+     @param length
+     size of the image
+
+     @return a source reading the region of the file
+     */
+    public static ImageSource fromFile (final File file, final long offset, final long length) {
+        return new FileSource (file, offset, length);
+    }
+
+    /**
+     @return the image's uri for sources created with {@link #fromUri(android.net.Uri)}, null otherwise
+     */
+    public Uri getUri () {
+        return null;
+    }
+
+    /**
+     Open the source for reading. Cheap: files are mapped and uris opened lazily.
+
+     @param context
+     to access the content resolver
+
+     @return a reader, owned by the caller who must close it
+
+     @throws IOException
+     if the source cannot be opened
+     */
+    abstract Reader open (Context context) throws IOException;
+
+    /**
+     Reads an opened image source. Decodes may run on any thread, one at a time.
+     */
+    abstract static class Reader {
+
+        /**
+         Decode the whole image. Can be called repeatedly, ie, once for the bounds and once for the pixels.
+
+         @param options
+         decode options
+
+         @return the decoded image, or null if it cannot be decoded (or only the bounds were asked for)
+
+         @throws IOException
+         if the image cannot be read
+         */
+        abstract Bitmap decode (BitmapFactory.Options options) throws IOException;
+
+        /**
+         @return a new region decoder of the image, owned by the caller
+
+         @throws IOException
+         if the image cannot be read or is not in a format supported by region decoding
+         */
+        @TargetApi (Build.VERSION_CODES.GINGERBREAD_MR1)
+        abstract BitmapRegionDecoder newRegionDecoder () throws IOException;
+
+        /**
+         @return how many region decoders of the image are worth creating. Streamed images are copied by each
+         region decoder, so only one is created for them.
+         */
+        int maxRegionDecoders () {
+            return Integer.MAX_VALUE;
+        }
+
+        /**
+         @return key identifying the image in a {@link DiskImageCache}, or null if the image cannot be identified
+         */
+        abstract String cacheKey ();
+
+        /**
+         Release what the reader holds. Region decoders created by the reader must not be used anymore.
+         */
+        abstract void close ();
+    }
+
+    private static final class UriSource
+      extends ImageSource {
+        private final Uri uri;
+
+        UriSource (final Uri uri) {
+            this.uri = uri;
+        }
+
+        @Override
+        public Uri getUri () {
+            return uri;
+        }
+
+        @Override
+        Reader open (final Context context) {
+            return new UriReader (context.getContentResolver (), uri);
+        }
+    }
+
+    private static final class DescriptorSource
+      extends ImageSource {
+        private final FileDescriptor descriptor;
+        private final long           offset;
+        private final long           length;
+
+        DescriptorSource (final FileDescriptor descriptor, final long offset, final long length) {
+            this.descriptor = descriptor;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        Reader open (final Context context) throws IOException {
+            //
+            // The stream does not own the descriptor: it is not closed by the stream nor by its finalizer
+            //
+            final FileChannel channel = new FileInputStream (descriptor).getChannel ();
+            return new BufferReader (channel.map (FileChannel.MapMode.READ_ONLY, offset, length), null);
+        }
+    }
+
+    private static final class FileSource
+      extends ImageSource {
+        private final File file;
+        private final long offset;
+        private final long length;
+
+        FileSource (final File file, final long offset, final long length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        Reader open (final Context context) throws IOException {
+            final RandomAccessFile in = new RandomAccessFile (file, "r");
+            final ByteBuffer mapped;
+            try {
+                mapped = in.getChannel ().map (FileChannel.MapMode.READ_ONLY, offset, length);
+            } finally {
+                //
+                // The mapping stays valid once the file is closed
+                //
+                closeStream (in);
+            }
+
+            return new BufferReader (mapped,
+                                     DiskImageCache.keyFor (file.getAbsolutePath () + '@' + offset + '@' +
+                                                            file.lastModified (), length));
+        }
+    }
+
+    private static final class BufferSource
+      extends ImageSource {
+        private final ByteBuffer buffer;
+
+        BufferSource (final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        Reader open (final Context context) {
+            return new BufferReader (buffer, null);
+        }
+    }
+
+    /**
+     Reads a uri through a file descriptor when the content provider supports it, and through a stream otherwise.
+     */
+    private static final class UriReader
+      extends Reader {
+        private final ContentResolver resolver;
+        private final Uri             uri;
+
+        // opened on first use; null if the provider only supports streams
+        private ParcelFileDescriptor descriptor;
+        private boolean              streamOnly;
+        private boolean              closed;
+
+        UriReader (final ContentResolver resolver, final Uri uri) {
+            this.resolver = resolver;
+            this.uri = uri;
+        }
+
+        @Override
+        Bitmap decode (final BitmapFactory.Options options) throws IOException {
+            final ParcelFileDescriptor descriptor = descriptor ();
+            if (null != descriptor) {
+                return BitmapFactory.decodeFileDescriptor (descriptor.getFileDescriptor (), null, options);
+            }
+
+            final InputStream in = openStream ();
+            try {
+                return BitmapFactory.decodeStream (in, null, options);
+            } finally {
+                closeStream (in);
+            }
+        }
+
+        @Override
+        @TargetApi (Build.VERSION_CODES.GINGERBREAD_MR1)
+        BitmapRegionDecoder newRegionDecoder () throws IOException {
+            final ParcelFileDescriptor descriptor = descriptor ();
+            if (null != descriptor) {
+                return BitmapRegionDecoder.newInstance (descriptor.getFileDescriptor (), false);
+            }
+
+            final InputStream in = openStream ();
+            try {
+                return BitmapRegionDecoder.newInstance (in, false);
+            } finally {
+                closeStream (in);
+            }
+        }
+
+        @Override
+        int maxRegionDecoders () {
+            return null == descriptor ()
+                   ? 1
+                   : Integer.MAX_VALUE;
+        }
+
+        /**
+         The key covers the uri, the size of the image, the modification time of files and a hash of the first bytes
+         of the image, so that content replaced behind the same uri does not match stale entries even when its size
+         did not change.
+         */
+        @Override
+        String cacheKey () {
+            final ParcelFileDescriptor descriptor = descriptor ();
+            final long length = null == descriptor
+                                ? -1
+                                : descriptor.getStatSize ();
+            if (length < 0) {
+                return null;
+            }
+
+            final byte[] head = new byte[(int) Math.min (length, FINGERPRINT_BYTES)];
+            if (!readHead (descriptor, head)) {
+                return null;
+            }
+
+            final String location = ContentResolver.SCHEME_FILE.equals (uri.getScheme ())
+                                    ? uri.toString () + '@' + new File (uri.getPath ()).lastModified ()
+                                    : uri.toString ();
+            return DiskImageCache.keyFor (location, length, head);
+        }
+
+        /**
+         Read the start of the image without moving the descriptor's file offset, which decoders read from.
+
+         @return true if head was filled
+         */
+        private boolean readHead (final ParcelFileDescriptor descriptor, final byte[] head) {
+            //
+            // The stream does not own the descriptor: it is not closed by the stream nor by its finalizer
+            //
+            final FileChannel channel = new FileInputStream (descriptor.getFileDescriptor ()).getChannel ();
+            final ByteBuffer buffer = ByteBuffer.wrap (head);
+            try {
+                while (buffer.hasRemaining ()) {
+                    if (channel.read (buffer, buffer.position ()) < 0) {
+                        return false;
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                Log.w (LOGTAG, "Unable to fingerprint " + uri, e);
+                return false;
+            }
+        }
+
+        @Override
+        synchronized void close () {
+            closed = true;
+            if (null != descriptor) {
+                try {
+                    descriptor.close ();
+                } catch (IOException e) {
+                    Log.w (LOGTAG, "Failed to close " + uri, e);
+                }
+                descriptor = null;
+            }
+        }
+
+        private synchronized ParcelFileDescriptor descriptor () {
+            if (null == descriptor && !streamOnly && !closed) {
+                try {
+                    descriptor = resolver.openFileDescriptor (uri, "r");
+                } catch (FileNotFoundException e) {
+                    //
+                    // Also thrown when the image does not exist, in which case opening a stream fails as well
+                    //
+                    streamOnly = true;
+                }
+            }
+
+            return descriptor;
+        }
+
+        private InputStream openStream () throws IOException {
+            final InputStream in = resolver.openInputStream (uri);
+            if (null == in) {
+                throw new IOException ("Unable to open " + uri);
+            }
+            return in;
+        }
+    }
+
+    /**
+     Reads a buffer: from its backing array when it has one, as a stream otherwise.
+     */
+    private static final class BufferReader
+      extends Reader {
+        private final ByteBuffer buffer;
+        private final String     cacheKey;
+
+        BufferReader (final ByteBuffer buffer, final String cacheKey) {
+            this.buffer = buffer;
+            this.cacheKey = cacheKey;
+        }
+
+        @Override
+        Bitmap decode (final BitmapFactory.Options options) {
+            if (buffer.hasArray ()) {
+                return BitmapFactory.decodeByteArray (buffer.array (),
+                                                      buffer.arrayOffset () + buffer.position (),
+                                                      buffer.remaining (),
+                                                      options);
+            }
+
+            return BitmapFactory.decodeStream (new ByteBufferInputStream (buffer.duplicate ()), null, options);
+        }
+
+        @Override
+        @TargetApi (Build.VERSION_CODES.GINGERBREAD_MR1)
+        BitmapRegionDecoder newRegionDecoder () throws IOException {
+            if (buffer.hasArray ()) {
+                //
+                // Shareable: the decoder may keep a reference to the array rather than copying it
+                //
+                return BitmapRegionDecoder.newInstance (buffer.array (),
+                                                        buffer.arrayOffset () + buffer.position (),
+                                                        buffer.remaining (),
+                                                        true);
+            }
+
+            return BitmapRegionDecoder.newInstance (new ByteBufferInputStream (buffer.duplicate ()), false);
+        }
+
+        @Override
+        int maxRegionDecoders () {
+            return buffer.hasArray ()
+                   ? Integer.MAX_VALUE
+                   : 1;
+        }
+
+        @Override
+        String cacheKey () {
+            return cacheKey;
+        }
+
+        @Override
+        void close () {
+        }
+    }
+
+    private static void closeStream (final Closeable closeable) {
+        try {
+            closeable.close ();
+        } catch (IOException e) {
+            Log.w (LOGTAG, "Failed to close image", e);
+        }
+    }
+}
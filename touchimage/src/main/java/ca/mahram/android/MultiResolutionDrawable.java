@@ -0,0 +1,338 @@
+package ca.mahram.android;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.RectF;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/**
+ <p>
+ Drawable that keeps only as many pixels in memory as the current zoom level can show. A base level sized to the
+ view is decoded when the image is fitted; a single higher resolution level is decoded whenever zooming crosses a
+ power of two threshold, never past one image pixel per source pixel.
+ </p>
+ <p>
+ The level on screen is kept until its replacement has been decoded, so zooming never shows a blank or lower
+ resolution image than the one before.
+ </p>
+ */
+class MultiResolutionDrawable
+  extends DecodingDrawable {
+
+    private static final String LOGTAG = "MultiResolutionDrawable";
+
+    private final ImageSource.Reader reader;
+
+    // sample size of the base level, 0 until the image has been fitted
+    private int    baseSampleSize;
+    private Bitmap base;
+
+    // higher resolution level, if any, and its sample size
+    private int    detailSampleSize;
+    private Bitmap detail;
+
+    // sample size of the higher resolution level being decoded; 0 when none is wanted. Read by the decode thread.
+    private volatile int wantedSampleSize;
+
+    // options of the base and higher resolution decodes in progress, used to cancel them. Tracked separately so that
+    // zooming in never cancels the base level: it is what zooming back out falls back to.
+    private BitmapFactory.Options baseOptions;
+    private BitmapFactory.Options decodeOptions;
+
+    /**
+     @param reader
+     image to decode. Owned by the drawable from now on and closed by {@link #release()}.
+     @param executor
+     runs decodes
+     @param diskCache
+     persistent cache of decoded levels. May be null.
+     @param imageKey
+     key of the image in the disk cache. May be null.
+     @param decodePolicy
+     picks the config of each level
+
+     @throws IOException
+     if the image cannot be decoded
+     */
+    static MultiResolutionDrawable create (final ImageSource.Reader reader,
+                                           final Executor executor,
+                                           final DiskImageCache diskCache,
+                                           final String imageKey,
+                                           final DecodePolicy decodePolicy) throws IOException {
+        final BitmapFactory.Options options = new BitmapFactory.Options ();
+        options.inJustDecodeBounds = true;
+        reader.decode (options);
+
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException ("Unable to decode image");
+        }
+
+        return new MultiResolutionDrawable (reader,
+                                            options.outWidth,
+                                            options.outHeight,
+                                            executor,
+                                            diskCache,
+                                            imageKey,
+                                            decodePolicy,
+                                            Decoding.isOpaque (options.outMimeType));
+    }
+
+    private MultiResolutionDrawable (final ImageSource.Reader reader,
+                                     final int imageWidth,
+                                     final int imageHeight,
+                                     final Executor executor,
+                                     final DiskImageCache diskCache,
+                                     final String imageKey,
+                                     final DecodePolicy decodePolicy,
+                                     final boolean opaque) {
+        super (imageWidth, imageHeight, executor, diskCache, imageKey, decodePolicy, opaque);
+        this.reader = reader;
+    }
+
+    @Override
+    public void onImageFitted (final float fitScale) {
+        final int sampleSize = Decoding.sampleSizeForScale (fitScale);
+        if (isReleased () || sampleSize == baseSampleSize) {
+            return;
+        }
+
+        //
+        // The view size changed (or this is the first fit): decode a new base level.
+        //
+        baseSampleSize = sampleSize;
+        requestBase ();
+    }
+
+    @Override
+    public void onViewportChanged (final RectF visibleRect, final float scale) {
+        if (isReleased () || 0 == baseSampleSize) {
+            return;
+        }
+
+        final int sampleSize = Decoding.sampleSizeForScale (scale);
+        if (sampleSize >= baseSampleSize) {
+            //
+            // The base level has enough detail again: free the higher resolution one
+            //
+            cancelDecode ();
+            recycleDetail ();
+            return;
+        }
+
+        //
+        // A level already on screen is decoded again only if the decode policy now wants another config for it
+        //
+        if (sampleSize == wantedSampleSize ||
+            (null != detail && sampleSize == detailSampleSize &&
+             detail.getConfig () == levelConfig (sampleSize, baseSampleSize))) {
+            return;
+        }
+
+        requestLevel (sampleSize);
+    }
+
+    @Override
+    public void draw (final Canvas canvas) {
+        if (isReleased ()) {
+            return;
+        }
+
+        final Bitmap bitmap = null != detail
+                              ? detail
+                              : base;
+
+        if (null != bitmap) {
+            canvas.drawBitmap (bitmap, null, getBounds (), paint);
+        }
+    }
+
+    @Override
+    int getByteCount () {
+        int bytes = 0;
+        if (null != base) {
+            bytes += Decoding.byteCount (base);
+        }
+        if (null != detail) {
+            bytes += Decoding.byteCount (detail);
+        }
+
+        return bytes;
+    }
+
+    @Override
+    void trimMemory (final int level) {
+        //
+        // The higher resolution level is all visible, or none of it is: only drop it to fall back to the base level
+        //
+        if (isReleased () || level != TRIM_TO_BASE) {
+            return;
+        }
+
+        cancelDecode ();
+
+        if (null != detail) {
+            recycleDetail ();
+            invalidateSelf ();
+        }
+    }
+
+    @Override
+    protected void onRelease () {
+        cancelDecode ();
+        cancelBaseDecode ();
+        recycleDetail ();
+
+        if (null != base) {
+            base.recycle ();
+            base = null;
+        }
+
+        executor.execute (new Runnable () {
+            @Override
+            public void run () {
+                reader.close ();
+            }
+        });
+    }
+
+    private void requestBase () {
+        cancelBaseDecode ();
+
+        final BitmapFactory.Options options = new BitmapFactory.Options ();
+        options.inSampleSize = baseSampleSize;
+        options.inPreferredConfig = levelConfig (baseSampleSize, baseSampleSize);
+        baseOptions = options;
+        executor.execute (new LevelDecodeTask (options, true));
+    }
+
+    private void requestLevel (final int sampleSize) {
+        cancelDecode ();
+        wantedSampleSize = sampleSize;
+
+        final BitmapFactory.Options options = new BitmapFactory.Options ();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = levelConfig (sampleSize, baseSampleSize);
+        decodeOptions = options;
+        executor.execute (new LevelDecodeTask (options, false));
+    }
+
+    /**
+     Cancel the decode of the higher resolution level, if any. A pending base decode carries on.
+     */
+    private void cancelDecode () {
+        wantedSampleSize = 0;
+        if (null != decodeOptions) {
+            decodeOptions.requestCancelDecode ();
+            decodeOptions = null;
+        }
+    }
+
+    private void cancelBaseDecode () {
+        if (null != baseOptions) {
+            baseOptions.requestCancelDecode ();
+            baseOptions = null;
+        }
+    }
+
+    private void recycleDetail () {
+        if (null != detail) {
+            detail.recycle ();
+            detail = null;
+            detailSampleSize = 0;
+        }
+    }
+
+    /**
+     Swap in a decoded level. Runs on the UI thread.
+     */
+    private void onLevelDecoded (final BitmapFactory.Options options, final Bitmap bitmap) {
+        if (isReleased ()) {
+            bitmap.recycle ();
+            return;
+        }
+
+        if (options == baseOptions) {
+            baseOptions = null;
+            if (null != base) {
+                base.recycle ();
+            }
+            base = bitmap;
+
+            //
+            // A higher resolution level no finer than the new base is of no use anymore
+            //
+            if (detailSampleSize >= baseSampleSize) {
+                recycleDetail ();
+            }
+        } else if (options == decodeOptions) {
+            decodeOptions = null;
+            wantedSampleSize = 0;
+            recycleDetail ();
+            detail = bitmap;
+            detailSampleSize = options.inSampleSize;
+        } else {
+            bitmap.recycle ();
+            return;
+        }
+
+        invalidateSelf ();
+    }
+
+    private class LevelDecodeTask
+      implements Runnable {
+        private final BitmapFactory.Options options;
+        private final boolean               base;
+
+        LevelDecodeTask (final BitmapFactory.Options options, final boolean base) {
+            this.options = options;
+            this.base = base;
+        }
+
+        @Override
+        public void run () {
+            if (isReleased () || options.mCancel || (!base && options.inSampleSize != wantedSampleSize)) {
+                return;
+            }
+
+            Bitmap bitmap = readLevel (options.inSampleSize, options.inPreferredConfig);
+            if (null == bitmap) {
+                final TouchImageMetrics metrics = MultiResolutionDrawable.this.metrics;
+                final long start = null == metrics
+                                   ? 0
+                                   : metrics.beginDecode (TouchImageMetrics.SECTION_DECODE);
+                try {
+                    bitmap = reader.decode (options);
+                } catch (IOException e) {
+                    Log.w (LOGTAG, "Failed to read level " + options.inSampleSize, e);
+                    return;
+                } catch (OutOfMemoryError e) {
+                    Log.w (LOGTAG, "Out of memory decoding level " + options.inSampleSize);
+                    return;
+                } finally {
+                    if (null != metrics) {
+                        metrics.endDecode (start);
+                    }
+                }
+
+                if (null == bitmap) {
+                    return;
+                }
+
+                writeLevel (options.inSampleSize, bitmap);
+            }
+            decodePolicy.record (bitmap);
+
+            final Bitmap decoded = bitmap;
+            handler.post (new Runnable () {
+                @Override
+                public void run () {
+                    onLevelDecoded (options, decoded);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package ca.mahram.android;
+
+import android.graphics.Bitmap;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ Second tier behind {@link TileCache}: keeps the raw pixels of tiles evicted from memory in direct byte buffers,
+ outside of the Java heap. Copying the pixels back into a bitmap is much cheaper than decoding the region again.
+ Bounded by a byte budget with least recently used eviction. A tile is in at most one tier at a time, so the list
+ is threaded through the same tile links as the first tier's.
+ Must only be used from the UI thread.
+ */
+final class OffHeapTileCache {
+
+    // buffers kept for reuse once their tile has been restored or evicted
+    private static final int MAX_FREE_BUFFERS = 4;
+
+    private final ArrayList<ByteBuffer> free;
+
+    private int maxBytes;
+    private int size;
+
+    // most and least recently stored tiles
+    private Tile newest;
+    private Tile oldest;
+
+    OffHeapTileCache (final int maxBytes) {
+        this.maxBytes = maxBytes;
+        free = new ArrayList<ByteBuffer> (MAX_FREE_BUFFERS);
+    }
+
+    /**
+     @return bytes currently held by stored tiles
+     */
+    int size () {
+        return size;
+    }
+
+    /**
+     @return maximum number of bytes the cache will hold
+     */
+    int maxSize () {
+        return maxBytes;
+    }
+
+    /**
+     Change the byte budget, evicting tiles if the cache is now over it.
+
+     @param maxBytes
+     new budget. 0 disables the cache.
+     */
+    void setMaxSize (final int maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToSize (maxBytes);
+        if (0 == maxBytes) {
+            free.clear ();
+        }
+    }
+
+    /**
+     Copy the pixels of a tile that is being evicted from memory. The caller still owns (and recycles) the bitmap.
+
+     @param tile
+     tile with a bitmap
+     */
+    void put (final Tile tile) {
+        final Bitmap bitmap = tile.bitmap;
+        final int bytes = tile.byteCount;
+        if (bytes > maxBytes || null == bitmap.getConfig ()) {
+            return;
+        }
+
+        trimToSize (maxBytes - bytes);
+
+        final ByteBuffer buffer = obtain (bytes);
+        buffer.clear ();
+        bitmap.copyPixelsToBuffer (buffer);
+
+        tile.spilled = buffer;
+        tile.spilledWidth = bitmap.getWidth ();
+        tile.spilledHeight = bitmap.getHeight ();
+        tile.spilledConfig = bitmap.getConfig ();
+        tile.spilledBytes = bytes;
+        size += bytes;
+        link (tile);
+    }
+
+    /**
+     Create a bitmap from a stored tile's pixels and remove the tile from the cache.
+
+     @param tile
+     tile with stored pixels
+
+     @return the tile's bitmap, or null if memory is too short to create it
+     */
+    Bitmap restore (final Tile tile) {
+        Bitmap bitmap;
+        try {
+            bitmap = Bitmap.createBitmap (tile.spilledWidth, tile.spilledHeight, tile.spilledConfig);
+            tile.spilled.rewind ();
+            bitmap.copyPixelsFromBuffer (tile.spilled);
+        } catch (OutOfMemoryError e) {
+            bitmap = null;
+        }
+
+        evict (tile);
+        return bitmap;
+    }
+
+    /**
+     Evict least recently stored tiles until the cache holds at most the given number of bytes.
+
+     @param bytes
+     target size
+     */
+    void trimToSize (final int bytes) {
+        while (size > bytes && null != oldest) {
+            evict (oldest);
+        }
+    }
+
+    /**
+     Evict all tiles and let go of all buffers.
+     */
+    void clear () {
+        trimToSize (-1);
+        free.clear ();
+    }
+
+    private ByteBuffer obtain (final int bytes) {
+        for (int i = 0; i < free.size (); i++) {
+            if (free.get (i).capacity () >= bytes) {
+                return free.remove (i);
+            }
+        }
+
+        return ByteBuffer.allocateDirect (bytes);
+    }
+
+    private void evict (final Tile tile) {
+        unlink (tile);
+        size -= tile.spilledBytes;
+        if (free.size () < MAX_FREE_BUFFERS) {
+            free.add (tile.spilled);
+        }
+
+        tile.spilled = null;
+        tile.spilledConfig = null;
+        tile.spilledBytes = 0;
+    }
+
+    private void link (final Tile tile) {
+        tile.older = newest;
+        tile.newer = null;
+        if (null != newest) {
+            newest.newer = tile;
+        }
+        newest = tile;
+        if (null == oldest) {
+            oldest = tile;
+        }
+    }
+
+    private void unlink (final Tile tile) {
+        if (null != tile.newer) {
+            tile.newer.older = tile.older;
+        } else {
+            newest = tile.older;
+        }
+
+        if (null != tile.older) {
+            tile.older.newer = tile.newer;
+        } else {
+            oldest = tile.newer;
+        }
+
+        tile.newer = null;
+        tile.older = null;
+    }
+}
@@ -0,0 +1,37 @@
+package ca.mahram.android;
+
+import android.graphics.Canvas;
+import android.graphics.RectF;
+
+/**
+ <p>
+ Marker drawn over the image of a {@link TouchImageView}: a pin, a label, a polygon... Markers are placed in the
+ drawable's coordinate system (the one {@link TouchImageView#getDrawablePointFromTouchPoint(float, float)} returns)
+ and move and scale with the image.
+ </p>
+ <p>
+ Markers are indexed by their bounds, and only those whose bounds intersect the visible part of the image are
+ drawn. Bounds are read when the marker is added: remove the marker and add it again to move it.
+ </p>
+ */
+public interface OverlayMarker {
+
+    /**
+     @param out
+     receives the region the marker draws into, in drawable coordinates. Markers drawn at a fixed size on
+     screen (ie, icons around an anchor point) can return the anchor point and rely on
+     {@link TouchImageView#setOverlayMargin(float)} instead.
+     */
+    void getBounds (RectF out);
+
+    /**
+     Draw the marker. Called on the UI thread, while the view draws.
+
+     @param canvas
+     canvas already transformed to drawable coordinates. Must be left in the state it was received in.
+     @param scale
+     current drawable to view scale (view pixels per drawable pixel), ie, to divide sizes that must not change
+     with the zoom level by
+     */
+    void draw (Canvas canvas, float scale);
+}
@@ -0,0 +1,242 @@
+package ca.mahram.android;
+
+import android.annotation.TargetApi;
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+
+/**
+ <p>
+ Process wide budget for the pixels held by all attached {@link TouchImageView}s. Views register themselves while
+ attached to a window and report their usage as it changes. Whenever the total goes over the limit, or the system
+ reports memory pressure, content is dropped in this order until the total fits:
+ </p>
+ <ol>
+ <li>high resolution content of views that are not shown</li>
+ <li>high resolution content outside of the visible region of views that are shown</li>
+ <li>all high resolution content of views that are shown</li>
+ </ol>
+ <p>
+ Views always keep their low resolution base image, so they never go blank. Dropped content is decoded again when
+ the view needs it (ie, is panned or zoomed, or shown again).
+ </p>
+ <p>
+ On API 14 and newer the budget registers for {@link ComponentCallbacks2#onTrimMemory(int)} itself. On older
+ platforms, forward {@link android.app.Activity#onLowMemory()} to {@link #onLowMemory()}.
+ All methods must be called on the UI thread.
+ </p>
+ */
+public final class PixelMemoryBudget {
+
+    // trim steps, in the order they are applied
+    private static final int STEP_HIDDEN       = 1;
+    private static final int STEP_OFF_VIEWPORT = 2;
+    private static final int STEP_ALL          = 3;
+
+    // default limit: this fraction of the application's memory class
+    private static final int DEFAULT_LIMIT_DIVISOR = 4;
+
+    private static PixelMemoryBudget instance;
+
+    private final ArrayList<TouchImageView> views;
+    private final Handler                   handler;
+    private final Runnable                  check;
+
+    private int     limit;
+    private boolean checkPending;
+    private long    trimCount;
+
+    /**
+     Get the budget shared by all views of the process.
+
+     @param context
+     any context of the application
+
+     @return the shared budget
+     */
+    public static PixelMemoryBudget getInstance (final Context context) {
+        if (null == instance) {
+            final Context application = context.getApplicationContext ();
+            final ActivityManager activityManager =
+              (ActivityManager) application.getSystemService (Context.ACTIVITY_SERVICE);
+            instance = new PixelMemoryBudget (activityManager.getMemoryClass () * 1024 * 1024 / DEFAULT_LIMIT_DIVISOR);
+
+            if (VERSION.SDK_INT >= VERSION_CODES.ICE_CREAM_SANDWICH) {
+                instance.registerCallbacks (application);
+            }
+        }
+
+        return instance;
+    }
+
+    private PixelMemoryBudget (final int limit) {
+        this.limit = limit;
+        views = new ArrayList<TouchImageView> ();
+        handler = new Handler (Looper.getMainLooper ());
+        check = new Runnable () {
+            @Override
+            public void run () {
+                checkPending = false;
+                if (getUsage () > PixelMemoryBudget.this.limit) {
+                    trim (STEP_ALL, true);
+                }
+            }
+        };
+    }
+
+    @TargetApi (Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private void registerCallbacks (final Context application) {
+        application.registerComponentCallbacks (new ComponentCallbacks2 () {
+            @Override
+            public void onTrimMemory (final int level) {
+                PixelMemoryBudget.this.onTrimMemory (level);
+            }
+
+            @Override
+            public void onConfigurationChanged (final Configuration newConfig) {
+            }
+
+            @Override
+            public void onLowMemory () {
+                PixelMemoryBudget.this.onLowMemory ();
+            }
+        });
+    }
+
+    /**
+     Get the maximum number of bytes of pixels all views may hold.
+
+     @return limit in bytes
+     */
+    public int getLimit () {
+        return limit;
+    }
+
+    /**
+     Set the maximum number of bytes of pixels all views may hold. Defaults to a quarter of the application's memory
+     class. Low resolution base images are never dropped, so the total may still exceed a very low limit.
+
+     @param bytes
+     limit in bytes
+     */
+    public void setLimit (final int bytes) {
+        limit = bytes;
+        requestCheck ();
+    }
+
+    /**
+     Get the number of bytes of pixels currently held by all attached views.
+
+     @return usage in bytes
+     */
+    public int getUsage () {
+        int usage = 0;
+        for (int i = 0; i < views.size (); i++) {
+            usage += views.get (i).getPixelMemoryUsage ();
+        }
+
+        return usage;
+    }
+
+    /**
+     Get the number of attached views sharing the budget.
+
+     @return view count
+     */
+    public int getViewCount () {
+        return views.size ();
+    }
+
+    /**
+     Get the number of times content had to be dropped, because of the limit or because of memory pressure.
+
+     @return trim count
+     */
+    public long getTrimCount () {
+        return trimCount;
+    }
+
+    /**
+     Drop content according to the system's memory pressure. Called automatically on API 14 and newer.
+
+     @param level
+     one of the {@link ComponentCallbacks2} TRIM_MEMORY_ levels
+     */
+    public void onTrimMemory (final int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            //
+            // Memory is low, or the UI is hidden (all levels from TRIM_MEMORY_UI_HIDDEN up): keep only base images
+            //
+            trim (STEP_ALL, false);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            trim (STEP_OFF_VIEWPORT, false);
+        }
+    }
+
+    /**
+     Drop all high resolution content. Called automatically on API 14 and newer.
+     */
+    public void onLowMemory () {
+        trim (STEP_ALL, false);
+    }
+
+    void register (final TouchImageView view) {
+        if (!views.contains (view)) {
+            views.add (view);
+            requestCheck ();
+        }
+    }
+
+    void unregister (final TouchImageView view) {
+        views.remove (view);
+    }
+
+    /**
+     Check the usage against the limit once the current frame is done. A view's usage has changed.
+     */
+    void requestCheck () {
+        if (!checkPending) {
+            checkPending = true;
+            handler.post (check);
+        }
+    }
+
+    /**
+     Drop content, step by step.
+
+     @param lastStep
+     last step to apply
+     @param untilWithinLimit
+     true to stop as soon as the usage is within the limit, false to apply all steps
+     */
+    private void trim (final int lastStep, final boolean untilWithinLimit) {
+        trimCount++;
+
+        for (int step = STEP_HIDDEN; step <= lastStep; step++) {
+            for (int i = 0; i < views.size (); i++) {
+                final TouchImageView view = views.get (i);
+                final boolean shown = view.isShown ();
+
+                if (step == STEP_HIDDEN && !shown) {
+                    view.trimPixelMemory (DecodingDrawable.TRIM_TO_BASE);
+                } else if (step == STEP_OFF_VIEWPORT && shown) {
+                    view.trimPixelMemory (DecodingDrawable.TRIM_OFF_VIEWPORT);
+                } else if (step == STEP_ALL && shown) {
+                    view.trimPixelMemory (DecodingDrawable.TRIM_TO_BASE);
+                }
+            }
+
+            if (untilWithinLimit && getUsage () <= limit) {
+                return;
+            }
+        }
+    }
+}
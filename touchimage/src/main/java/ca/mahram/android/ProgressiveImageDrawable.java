@@ -0,0 +1,98 @@
+package ca.mahram.android;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+import java.util.concurrent.Executor;
+
+/**
+ Drawable for an image that is still arriving. Its intrinsic size is that of the full image from the start, so
+ the view fits it once and keeps its zoom and pan while lower resolution previews are replaced by better ones, and
+ finally by the full image. Releasing the drawable cancels the load.
+ */
+class ProgressiveImageDrawable
+  extends DecodingDrawable {
+
+    private final ProgressiveImageLoader loader;
+
+    // best version of the image received so far, and whether it is the full image
+    private Bitmap  image;
+    private boolean complete;
+
+    /**
+     @param imageWidth
+     width of the full image
+     @param imageHeight
+     height of the full image
+     @param executor
+     runs decodes
+     @param decodePolicy
+     picks the config of the full image
+     @param opaque
+     true if the image has no transparency
+     @param loader
+     load filling the drawable, cancelled on release
+     */
+    ProgressiveImageDrawable (final int imageWidth,
+                              final int imageHeight,
+                              final Executor executor,
+                              final DecodePolicy decodePolicy,
+                              final boolean opaque,
+                              final ProgressiveImageLoader loader) {
+        super (imageWidth, imageHeight, executor, null, null, decodePolicy, opaque);
+        this.loader = loader;
+    }
+
+    /**
+     Replace what is displayed with a better version of the image.
+
+     @param bitmap
+     a preview, or the full image. Owned by the drawable from now on.
+     @param full
+     true if this is the full image
+     */
+    void setImage (final Bitmap bitmap, final boolean full) {
+        if (isReleased () || complete) {
+            bitmap.recycle ();
+            return;
+        }
+
+        if (null != image) {
+            image.recycle ();
+        }
+
+        image = bitmap;
+        complete = full;
+        invalidateSelf ();
+    }
+
+    @Override
+    public void draw (final Canvas canvas) {
+        if (null != image) {
+            canvas.drawBitmap (image, null, getBounds (), paint);
+        }
+    }
+
+    @Override
+    int getByteCount () {
+        return null == image
+               ? 0
+               : Decoding.byteCount (image);
+    }
+
+    @Override
+    void trimMemory (final int level) {
+        //
+        // Only one version of the image is held at a time, and it is the base
+        //
+    }
+
+    @Override
+    protected void onRelease () {
+        loader.cancel ();
+        if (null != image) {
+            image.recycle ();
+            image = null;
+        }
+    }
+}
@@ -0,0 +1,494 @@
+package ca.mahram.android;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ <p>
+ Reads an image from a stream that fills up slowly and reports what can be shown of it as early as possible:
+ </p>
+ <ol>
+ <li>its dimensions, as soon as its header has arrived</li>
+ <li>the thumbnail embedded in its EXIF data (JPEG), as soon as the EXIF segment has arrived</li>
+ <li>decodes of the data received so far, sized to the view, every time the amount received has doubled. Truncated
+ progressive JPEGs decode the scans received (the whole image, at a lower quality), truncated baseline images the
+ rows received; the latter are skipped once an EXIF thumbnail has been shown, which is the better preview.</li>
+ <li>the whole image once the stream ends</li>
+ </ol>
+ <p>
+ Reading blocks, so the loader runs on a thread of its own rather than on the shared decode executor. The received
+ data is accumulated in a single array and decoded in place. Callbacks are made on the UI thread, and never once the
+ loader has been cancelled.
+ </p>
+ */
+final class ProgressiveImageLoader
+  implements Runnable {
+
+    private static final String LOGTAG = "ProgressiveImageLoader";
+
+    // first partial decode once this much has been received, then every time the amount received has doubled
+    private static final int MIN_PREVIEW_BYTES = 32 * 1024;
+
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    private static final int READ_SIZE        = 16 * 1024;
+
+    // outcome of looking for an EXIF thumbnail in the data received so far
+    private static final int EXIF_NEED_MORE = 0;
+    private static final int EXIF_NONE      = 1;
+    private static final int EXIF_FOUND     = 2;
+
+    /**
+     Receives what can be shown of the image. Called on the UI thread.
+     */
+    interface Callback {
+        /**
+         @param width
+         width of the full image
+         @param height
+         height of the full image
+         @param opaque
+         true if the image has no transparency
+         */
+        void onBoundsDecoded (int width, int height, boolean opaque);
+
+        /**
+         @param preview
+         low resolution version of the image. Always comes after the bounds.
+         */
+        void onPreviewDecoded (Bitmap preview);
+
+        /**
+         @param image
+         the full image. Always comes after the bounds.
+         */
+        void onImageDecoded (Bitmap image);
+
+        /**
+         @param error
+         why the image could not be read or decoded
+         */
+        void onImageFailed (Throwable error);
+    }
+
+    private final InputStream  in;
+    private final Callback     callback;
+    private final Handler      handler;
+    private final DecodePolicy decodePolicy;
+    private final int          previewMaxWidth;
+    private final int          previewMaxHeight;
+    private final float        zoom;
+
+    private volatile boolean               cancelled;
+    private volatile BitmapFactory.Options decodeOptions;
+
+    private byte[] data;
+    private int    length;
+
+    /**
+     @param in
+     image data. Owned by the loader from now on and closed once read, or when cancelled.
+     @param callback
+     receives what can be shown of the image
+     @param decodePolicy
+     picks the config of the full image
+     @param previewMaxWidth
+     maximum width of previews, ie, the view's width
+     @param previewMaxHeight
+     maximum height of previews
+     @param zoom
+     zoom level the image is set at, for the decode policy
+     */
+    ProgressiveImageLoader (final InputStream in,
+                            final Callback callback,
+                            final DecodePolicy decodePolicy,
+                            final int previewMaxWidth,
+                            final int previewMaxHeight,
+                            final float zoom) {
+        this.in = in;
+        this.callback = callback;
+        this.decodePolicy = decodePolicy;
+        this.previewMaxWidth = previewMaxWidth;
+        this.previewMaxHeight = previewMaxHeight;
+        this.zoom = zoom;
+        handler = new Handler (Looper.getMainLooper ());
+    }
+
+    /**
+     Start reading on a new background thread.
+     */
+    void start () {
+        final Thread thread = new Thread (this, "TouchImageView-progressive");
+        thread.setDaemon (true);
+        thread.start ();
+    }
+
+    /**
+     Stop reading and decoding as soon as possible. No callback is made afterwards. Must be called on the UI thread.
+     */
+    void cancel () {
+        if (cancelled) {
+            return;
+        }
+
+        cancelled = true;
+        final BitmapFactory.Options options = decodeOptions;
+        if (null != options) {
+            options.requestCancelDecode ();
+        }
+
+        //
+        // Unblocks a pending read on most streams
+        //
+        close ();
+    }
+
+    @Override
+    public void run () {
+        Process.setThreadPriority (Process.THREAD_PRIORITY_BACKGROUND);
+
+        data = new byte[INITIAL_CAPACITY];
+        int width = 0;
+        int height = 0;
+        boolean opaque = false;
+        boolean progressive = false;
+        int exif = EXIF_NEED_MORE;
+        int nextPreview = MIN_PREVIEW_BYTES;
+
+        try {
+            while (!cancelled) {
+                if (length + READ_SIZE > data.length) {
+                    final byte[] grown = new byte[data.length * 2];
+                    System.arraycopy (data, 0, grown, 0, length);
+                    data = grown;
+                }
+
+                final int read = in.read (data, length, READ_SIZE);
+                if (read < 0) {
+                    break;
+                }
+                length += read;
+
+                if (0 == width) {
+                    final BitmapFactory.Options bounds = new BitmapFactory.Options ();
+                    bounds.inJustDecodeBounds = true;
+                    BitmapFactory.decodeByteArray (data, 0, length, bounds);
+                    if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+                        continue;
+                    }
+
+                    width = bounds.outWidth;
+                    height = bounds.outHeight;
+                    opaque = Decoding.isOpaque (bounds.outMimeType);
+                    progressive = isProgressiveJpeg (data, length);
+                    postBounds (width, height, opaque);
+                }
+
+                if (EXIF_NEED_MORE == exif) {
+                    final int[] thumbnail = new int[2];
+                    exif = findExifThumbnail (data, length, thumbnail);
+                    if (EXIF_FOUND == exif) {
+                        postPreview (decode (thumbnail[0], thumbnail[1], 1));
+                    }
+                }
+
+                if (length >= nextPreview && (progressive || EXIF_FOUND != exif)) {
+                    nextPreview = length * 2;
+                    postPreview (decode (0, length, Decoding.sampleSizeToFit (width,
+                                                                              height,
+                                                                              previewMaxWidth,
+                                                                              previewMaxHeight)));
+                }
+            }
+
+            if (cancelled) {
+                return;
+            }
+
+            if (0 == width) {
+                throw new IOException ("Unable to decode image");
+            }
+
+            final BitmapFactory.Options options = new BitmapFactory.Options ();
+            options.inPreferredConfig = decodePolicy.configFor (opaque, zoom);
+            final Bitmap image = decode (options, 0, length);
+            if (null == image) {
+                throw new IOException ("Unable to decode image");
+            }
+
+            decodePolicy.record (image);
+            post (new Runnable () {
+                @Override
+                public void run () {
+                    callback.onImageDecoded (image);
+                }
+            }, image);
+        } catch (IOException e) {
+            postFailure (e);
+        } catch (OutOfMemoryError e) {
+            postFailure (e);
+        } finally {
+            close ();
+            data = null;
+        }
+    }
+
+    /**
+     Decode part of the data received so far. Failures are expected (the data may not be decodable yet) and ignored.
+
+     @return the decoded bitmap, or null
+     */
+    private Bitmap decode (final int offset, final int count, final int sampleSize) {
+        final BitmapFactory.Options options = new BitmapFactory.Options ();
+        options.inSampleSize = sampleSize;
+        try {
+            return decode (options, offset, count);
+        } catch (OutOfMemoryError e) {
+            Log.w (LOGTAG, "Out of memory decoding preview");
+            return null;
+        }
+    }
+
+    private Bitmap decode (final BitmapFactory.Options options, final int offset, final int count) {
+        decodeOptions = options;
+        if (cancelled) {
+            return null;
+        }
+
+        try {
+            return BitmapFactory.decodeByteArray (data, offset, count, options);
+        } finally {
+            decodeOptions = null;
+        }
+    }
+
+    private void postBounds (final int width, final int height, final boolean opaque) {
+        post (new Runnable () {
+            @Override
+            public void run () {
+                callback.onBoundsDecoded (width, height, opaque);
+            }
+        }, null);
+    }
+
+    private void postPreview (final Bitmap preview) {
+        if (null == preview) {
+            return;
+        }
+
+        post (new Runnable () {
+            @Override
+            public void run () {
+                callback.onPreviewDecoded (preview);
+            }
+        }, preview);
+    }
+
+    private void postFailure (final Throwable error) {
+        if (cancelled) {
+            return;
+        }
+
+        post (new Runnable () {
+            @Override
+            public void run () {
+                callback.onImageFailed (error);
+            }
+        }, null);
+    }
+
+    /**
+     Run a callback on the UI thread unless cancelled by then, in which case the bitmap it delivers is recycled.
+     */
+    private void post (final Runnable runnable, final Bitmap bitmap) {
+        handler.post (new Runnable () {
+            @Override
+            public void run () {
+                if (!cancelled) {
+                    runnable.run ();
+                } else if (null != bitmap) {
+                    bitmap.recycle ();
+                }
+            }
+        });
+    }
+
+    private void close () {
+        try {
+            in.close ();
+        } catch (IOException e) {
+            Log.w (LOGTAG, "Failed to close image stream", e);
+        }
+    }
+
+    /**
+     Look for the thumbnail embedded in the EXIF data of a JPEG: IFD1 of the TIFF structure in the APP1 segment,
+     which holds the offset and length of a JPEG thumbnail.
+
+     @param data
+     data received so far
+     @param length
+     number of bytes received
+     @param thumbnail
+     receives the offset and length of the thumbnail in data
+
+     @return {@link #EXIF_FOUND}, {@link #EXIF_NONE} if the image has no EXIF thumbnail, or {@link #EXIF_NEED_MORE}
+     if more data is needed to tell
+     */
+    static int findExifThumbnail (final byte[] data, final int length, final int[] thumbnail) {
+        if (length < 4) {
+            return EXIF_NEED_MORE;
+        }
+
+        if ((data[0] & 0xff) != 0xff || (data[1] & 0xff) != 0xd8) {
+            return EXIF_NONE;
+        }
+
+        //
+        // Walk the segments preceding the image data: APP1 comes first in practice, but APP0 (JFIF) may precede it
+        //
+        int position = 2;
+        while (true) {
+            if (position + 4 > length) {
+                return EXIF_NEED_MORE;
+            }
+
+            if ((data[position] & 0xff) != 0xff) {
+                return EXIF_NONE;
+            }
+
+            final int marker = data[position + 1] & 0xff;
+            if (marker < 0xe0 || marker > 0xef) {
+                //
+                // Past the application segments
+                //
+                return EXIF_NONE;
+            }
+
+            final int segmentLength = readShort (data, position + 2, false);
+            final int segmentEnd = position + 2 + segmentLength;
+            if (0xe1 == marker && segmentLength >= 8 && position + 10 <= length && isExifHeader (data, position + 4)) {
+                if (segmentEnd > length) {
+                    return EXIF_NEED_MORE;
+                }
+
+                return findThumbnail (data, position + 10, segmentEnd, thumbnail)
+                       ? EXIF_FOUND
+                       : EXIF_NONE;
+            }
+
+            position = segmentEnd;
+        }
+    }
+
+    /**
+     @param data
+     data received so far, including the frame header
+     @param length
+     number of bytes received
+
+     @return true if the image is a progressive JPEG, whose scans each refine the whole image
+     */
+    static boolean isProgressiveJpeg (final byte[] data, final int length) {
+        if (length < 4 || (data[0] & 0xff) != 0xff || (data[1] & 0xff) != 0xd8) {
+            return false;
+        }
+
+        int position = 2;
+        while (position + 4 <= length && (data[position] & 0xff) == 0xff) {
+            final int marker = data[position + 1] & 0xff;
+            if (marker >= 0xc0 && marker <= 0xcf && marker != 0xc4 && marker != 0xc8 && marker != 0xcc) {
+                //
+                // Start of frame: SOF2, SOF6, SOF10 and SOF14 are progressive
+                //
+                return (marker & 0x03) == 0x02;
+            }
+
+            position += 2 + readShort (data, position + 2, false);
+        }
+
+        return false;
+    }
+
+    private static boolean isExifHeader (final byte[] data, final int offset) {
+        return 'E' == data[offset] && 'x' == data[offset + 1] && 'i' == data[offset + 2] && 'f' == data[offset + 3] &&
+               0 == data[offset + 4] && 0 == data[offset + 5];
+    }
+
+    /**
+     @param tiff
+     start of the TIFF structure
+     @param end
+     end of the APP1 segment
+     */
+    private static boolean findThumbnail (final byte[] data, final int tiff, final int end, final int[] thumbnail) {
+        if (tiff + 8 > end) {
+            return false;
+        }
+
+        final boolean littleEndian = 'I' == data[tiff];
+        final int ifd0 = tiff + readInt (data, tiff + 4, littleEndian);
+        if (ifd0 < tiff || ifd0 + 2 > end) {
+            return false;
+        }
+
+        final int ifd0Entries = readShort (data, ifd0, littleEndian);
+        final int next = ifd0 + 2 + ifd0Entries * 12;
+        if (next + 4 > end) {
+            return false;
+        }
+
+        final int ifd1Offset = readInt (data, next, littleEndian);
+        final int ifd1 = tiff + ifd1Offset;
+        if (0 == ifd1Offset || ifd1 < tiff || ifd1 + 2 > end) {
+            return false;
+        }
+
+        int offset = -1;
+        int count = -1;
+        final int entries = readShort (data, ifd1, littleEndian);
+        for (int i = 0; i < entries; i++) {
+            final int entry = ifd1 + 2 + i * 12;
+            if (entry + 12 > end) {
+                return false;
+            }
+
+            final int tag = readShort (data, entry, littleEndian);
+            if (0x0201 == tag) {
+                // JPEGInterchangeFormat
+                offset = readInt (data, entry + 8, littleEndian);
+            } else if (0x0202 == tag) {
+                // JPEGInterchangeFormatLength
+                count = readInt (data, entry + 8, littleEndian);
+            }
+        }
+
+        if (offset <= 0 || count <= 0 || tiff + offset + count > end) {
+            return false;
+        }
+
+        thumbnail[0] = tiff + offset;
+        thumbnail[1] = count;
+        return true;
+    }
+
+    private static int readShort (final byte[] data, final int offset, final boolean littleEndian) {
+        final int b0 = data[offset] & 0xff;
+        final int b1 = data[offset + 1] & 0xff;
+        return littleEndian
+               ? b0 | (b1 << 8)
+               : (b0 << 8) | b1;
+    }
+
+    private static int readInt (final byte[] data, final int offset, final boolean littleEndian) {
+        return littleEndian
+               ? readShort (data, offset, true) | (readShort (data, offset + 2, true) << 16)
+               : (readShort (data, offset, false) << 16) | readShort (data, offset + 2, false);
+    }
+}
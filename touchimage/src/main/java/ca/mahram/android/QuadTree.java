@@ -0,0 +1,356 @@
+package ca.mahram.android;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ <p>
+ Spatial index of items with rectangular bounds. Each item is stored in the smallest node that fully contains it, so
+ queries only visit the nodes intersecting the queried region and cost grows with the logarithm of the item count
+ plus the number of items found. The root grows to contain items added outside of it, so the extent of the content
+ does not have to be known up front.
+ </p>
+ <p>
+ Queries allocate nothing: results are handed to a {@link Visitor}. Not thread safe.
+ </p>
+
+ @param <T>
+ type of the items
+ */
+final class QuadTree<T> {
+
+    // items a leaf holds before it is split
+    private static final int NODE_CAPACITY = 8;
+
+    // nodes this deep are never split, so items sharing a point do not split the tree forever
+    private static final int MAX_DEPTH = 20;
+
+    // size of the root created for the first item
+    private static final float INITIAL_SIZE = 1024f;
+
+    /**
+     Receives the items found by a query.
+
+     @param <T>
+     type of the items
+     */
+    interface Visitor<T> {
+        /**
+         @param item
+         an item whose bounds intersect the queried region
+         @param left
+         left of the item's bounds
+         @param top
+         top of the item's bounds
+         @param right
+         right of the item's bounds
+         @param bottom
+         bottom of the item's bounds
+
+         @return true to continue the query, false to stop it
+         */
+        boolean visit (T item, float left, float top, float right, float bottom);
+    }
+
+    private final HashMap<T, Entry<T>> entries;
+
+    private Node<T> root;
+
+    QuadTree () {
+        entries = new HashMap<T, Entry<T>> ();
+    }
+
+    /**
+     @return number of items in the tree
+     */
+    int size () {
+        return entries.size ();
+    }
+
+    /**
+     Add an item, or move it if it is already in the tree.
+
+     @param item
+     item to add
+     @param left
+     left of the item's bounds
+     @param top
+     top of the item's bounds
+     @param right
+     right of the item's bounds, not smaller than left
+     @param bottom
+     bottom of the item's bounds, not smaller than top
+     */
+    void insert (final T item, final float left, final float top, final float right, final float bottom) {
+        remove (item);
+
+        final Entry<T> entry = new Entry<T> (item, left, top, right, bottom);
+        if (null == root) {
+            final float size = Math.max (INITIAL_SIZE, Math.max (right - left, bottom - top));
+            root = new Node<T> (left, top, left + size, top + size, 0);
+        }
+
+        while (!root.contains (entry)) {
+            grow (entry);
+        }
+
+        entries.put (item, entry);
+        root.insert (entry);
+    }
+
+    /**
+     @param item
+     item to remove
+
+     @return true if the item was in the tree
+     */
+    boolean remove (final T item) {
+        final Entry<T> entry = entries.remove (item);
+        if (null == entry) {
+            return false;
+        }
+
+        root.remove (entry);
+        if (entries.isEmpty ()) {
+            root = null;
+        }
+        return true;
+    }
+
+    /**
+     Remove all items.
+     */
+    void clear () {
+        entries.clear ();
+        root = null;
+    }
+
+    /**
+     Visit the items whose bounds intersect a region (bounds touching the region included), in no particular order.
+
+     @param left
+     left of the region
+     @param top
+     top of the region
+     @param right
+     right of the region
+     @param bottom
+     bottom of the region
+     @param visitor
+     receives the items
+
+     @return false if the visitor stopped the query, true otherwise
+     */
+    boolean query (final float left,
+                   final float top,
+                   final float right,
+                   final float bottom,
+                   final Visitor<? super T> visitor) {
+        return null == root || root.query (left, top, right, bottom, visitor);
+    }
+
+    /**
+     Double the root towards an entry it does not contain. The old root becomes one of the new root's quadrants.
+     */
+    private void grow (final Entry<T> entry) {
+        final Node<T> old = root;
+        final float width = old.right - old.left;
+        final float height = old.bottom - old.top;
+
+        //
+        // Extend left (up) if the entry sticks out on the left (top), right (down) otherwise
+        //
+        final boolean extendLeft = entry.left < old.left;
+        final boolean extendUp = entry.top < old.top;
+        final float left = extendLeft
+                           ? old.left - width
+                           : old.left;
+        final float top = extendUp
+                          ? old.top - height
+                          : old.top;
+
+        root = new Node<T> (left, top, left + 2 * width, top + 2 * height, 0);
+        if (old.isEmpty ()) {
+            return;
+        }
+
+        root.split ();
+        root.children[(extendUp ? 2 : 0) + (extendLeft ? 1 : 0)] = old;
+        old.deepen ();
+    }
+
+    private static final class Entry<T> {
+        final T     item;
+        final float left;
+        final float top;
+        final float right;
+        final float bottom;
+
+        Entry (final T item, final float left, final float top, final float right, final float bottom) {
+            this.item = item;
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+    }
+
+    private static final class Node<T> {
+        final float left;
+        final float top;
+        final float right;
+        final float bottom;
+        final float centerX;
+        final float centerY;
+
+        int depth;
+
+        // entries held by this node: all of them for a leaf, those straddling the children otherwise
+        final ArrayList<Entry<T>> entries;
+
+        // top left, top right, bottom left, bottom right; null for a leaf
+        Node<T>[] children;
+
+        Node (final float left, final float top, final float right, final float bottom, final int depth) {
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+            this.depth = depth;
+            centerX = (left + right) / 2;
+            centerY = (top + bottom) / 2;
+            entries = new ArrayList<Entry<T>> (0);
+        }
+
+        boolean contains (final Entry<T> entry) {
+            return entry.left >= left && entry.top >= top && entry.right <= right && entry.bottom <= bottom;
+        }
+
+        boolean isEmpty () {
+            return entries.isEmpty () && null == children;
+        }
+
+        void insert (final Entry<T> entry) {
+            Node<T> node = this;
+            while (true) {
+                if (null == node.children) {
+                    node.entries.add (entry);
+                    if (node.entries.size () > NODE_CAPACITY && node.depth < MAX_DEPTH) {
+                        node.split ();
+                    }
+                    return;
+                }
+
+                final int quadrant = node.quadrant (entry);
+                if (quadrant < 0) {
+                    node.entries.add (entry);
+                    return;
+                }
+
+                node = node.children[quadrant];
+            }
+        }
+
+        void remove (final Entry<T> entry) {
+            Node<T> node = this;
+            while (null != node) {
+                if (node.entries.remove (entry)) {
+                    return;
+                }
+
+                final int quadrant = null == node.children
+                                     ? -1
+                                     : node.quadrant (entry);
+                node = quadrant < 0
+                       ? null
+                       : node.children[quadrant];
+            }
+        }
+
+        boolean query (final float qLeft,
+                       final float qTop,
+                       final float qRight,
+                       final float qBottom,
+                       final Visitor<? super T> visitor) {
+            final ArrayList<Entry<T>> entries = this.entries;
+            for (int i = 0, n = entries.size (); i < n; i++) {
+                final Entry<T> entry = entries.get (i);
+                if (entry.left <= qRight && entry.right >= qLeft && entry.top <= qBottom && entry.bottom >= qTop &&
+                    !visitor.visit (entry.item, entry.left, entry.top, entry.right, entry.bottom)) {
+                    return false;
+                }
+            }
+
+            if (null == children) {
+                return true;
+            }
+
+            //
+            // Only descend into the quadrants the region overlaps
+            //
+            final boolean west = qLeft <= centerX;
+            final boolean east = qRight >= centerX;
+            final boolean north = qTop <= centerY;
+            final boolean south = qBottom >= centerY;
+            return (!(north && west) || children[0].query (qLeft, qTop, qRight, qBottom, visitor)) &&
+                   (!(north && east) || children[1].query (qLeft, qTop, qRight, qBottom, visitor)) &&
+                   (!(south && west) || children[2].query (qLeft, qTop, qRight, qBottom, visitor)) &&
+                   (!(south && east) || children[3].query (qLeft, qTop, qRight, qBottom, visitor));
+        }
+
+        /**
+         Create the children and move down the entries that fit in one of them.
+         */
+        void split () {
+            @SuppressWarnings ("unchecked")
+            final Node<T>[] quadrants = (Node<T>[]) new Node<?>[4];
+            children = quadrants;
+            children[0] = new Node<T> (left, top, centerX, centerY, depth + 1);
+            children[1] = new Node<T> (centerX, top, right, centerY, depth + 1);
+            children[2] = new Node<T> (left, centerY, centerX, bottom, depth + 1);
+            children[3] = new Node<T> (centerX, centerY, right, bottom, depth + 1);
+
+            for (int i = entries.size () - 1; i >= 0; i--) {
+                final Entry<T> entry = entries.get (i);
+                final int quadrant = quadrant (entry);
+                if (quadrant >= 0) {
+                    entries.remove (i);
+                    children[quadrant].insert (entry);
+                }
+            }
+        }
+
+        /**
+         Push the node one level down, as it became a child of a new root.
+         */
+        void deepen () {
+            depth++;
+            if (null != children) {
+                for (final Node<T> child : children) {
+                    child.deepen ();
+                }
+            }
+        }
+
+        /**
+         @return index of the child fully containing the entry, or -1 if it straddles several of them
+         */
+        private int quadrant (final Entry<T> entry) {
+            final int column;
+            if (entry.right <= centerX) {
+                column = 0;
+            } else if (entry.left >= centerX) {
+                column = 1;
+            } else {
+                return -1;
+            }
+
+            if (entry.bottom <= centerY) {
+                return column;
+            } else if (entry.top >= centerY) {
+                return column + 2;
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package ca.mahram.android;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import java.nio.ByteBuffer;
+
+/**
+ A rectangular region of a tiled image, decoded at a single sample size. Tiles are created once per level and
+ reused; only the bitmap comes and goes.
+ */
+final class Tile {
+
+    // no bitmap and no pending decode
+    static final int STATE_EMPTY = 0;
+
+    // a decode has been requested and the tile is still wanted
+    static final int STATE_QUEUED = 1;
+
+    // bitmap holds the decoded region
+    static final int STATE_LOADED = 2;
+
+    // bitmap holds the decoded region, which is waiting for the upload budget of a frame to be displayed
+    static final int STATE_DECODED = 3;
+
+    final int  sampleSize;
+    final int  col;
+    final int  row;
+    final Rect sourceRect;
+
+    // written on the UI thread, read by the decode thread to drop decodes for tiles that are no longer wanted
+    volatile int state;
+
+    // queued ahead of time for a predicted viewport rather than because it is visible
+    boolean prefetch;
+
+    // config to decode to, picked when the tile is queued
+    Bitmap.Config config;
+
+    Bitmap bitmap;
+    int    byteCount;
+
+    // pixels of the tile once evicted from memory, held by OffHeapTileCache
+    ByteBuffer    spilled;
+    int           spilledWidth;
+    int           spilledHeight;
+    int           spilledBytes;
+    Bitmap.Config spilledConfig;
+
+    // links for the LRU list of the cache holding the tile (TileCache or OffHeapTileCache)
+    Tile newer;
+    Tile older;
+
+    Tile (final int sampleSize, final int col, final int row, final Rect sourceRect) {
+        this.sampleSize = sampleSize;
+        this.col = col;
+        this.row = row;
+        this.sourceRect = sourceRect;
+        state = STATE_EMPTY;
+    }
+}
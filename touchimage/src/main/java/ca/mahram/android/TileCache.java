@@ -0,0 +1,178 @@
+package ca.mahram.android;
+
+/**
+ Least recently used cache of decoded tiles, bounded by the number of bytes held in tile bitmaps. The list is
+ threaded through the tiles themselves so that touching or adding a tile never allocates. Tiles evicted to make room
+ are handed to an optional second tier before their bitmap is recycled. Pinned tiles (those on screen) are never
+ evicted to make room, so the cache goes over its budget rather than drop what is being drawn.
+ Must only be used from the UI thread.
+ */
+final class TileCache {
+
+    /**
+     Tells which tiles must stay in the cache whatever its budget.
+     */
+    interface Pins {
+        /**
+         @param tile
+         a cached tile
+
+         @return true if the tile must not be evicted to make room
+         */
+        boolean isPinned (Tile tile);
+    }
+
+    private final OffHeapTileCache secondTier;
+    private final Pins             pins;
+
+    private int maxBytes;
+    private int size;
+
+    // most and least recently used tiles
+    private Tile newest;
+    private Tile oldest;
+
+    /**
+     @param maxBytes
+     byte budget
+     @param secondTier
+     receives tiles evicted to make room. May be null.
+     @param pins
+     tiles never evicted to make room. May be null.
+     */
+    TileCache (final int maxBytes, final OffHeapTileCache secondTier, final Pins pins) {
+        this.maxBytes = maxBytes;
+        this.secondTier = secondTier;
+        this.pins = pins;
+    }
+
+    /**
+     @return bytes currently held by cached tiles
+     */
+    int size () {
+        return size;
+    }
+
+    /**
+     @return maximum number of bytes the cache will hold
+     */
+    int maxSize () {
+        return maxBytes;
+    }
+
+    /**
+     Change the byte budget, evicting tiles if the cache is now over it.
+
+     @param maxBytes
+     new budget
+     */
+    void setMaxSize (final int maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToSize (maxBytes);
+    }
+
+    /**
+     Add a freshly loaded tile as the most recently used entry and evict older tiles that no longer fit.
+
+     @param tile
+     tile with a bitmap
+     */
+    void put (final Tile tile) {
+        link (tile);
+        size += tile.byteCount;
+        trimToSize (maxBytes);
+    }
+
+    /**
+     Mark a cached tile as most recently used.
+
+     @param tile
+     tile previously added with {@link #put(Tile)}
+     */
+    void touch (final Tile tile) {
+        if (newest == tile) {
+            return;
+        }
+
+        unlink (tile);
+        link (tile);
+    }
+
+    /**
+     Evict least recently used tiles until the cache holds at most the given number of bytes, or only pinned tiles
+     are left. Evicted tiles move to the second tier.
+
+     @param bytes
+     target size
+     */
+    void trimToSize (final int bytes) {
+        Tile tile = oldest;
+        while (size > bytes && null != tile) {
+            final Tile newer = tile.newer;
+            if (null == pins || !pins.isPinned (tile)) {
+                evict (tile, true);
+            }
+            tile = newer;
+        }
+    }
+
+    /**
+     Evict a single tile, bypassing the second tier.
+
+     @param tile
+     tile previously added with {@link #put(Tile)}
+     */
+    void remove (final Tile tile) {
+        evict (tile, false);
+    }
+
+    /**
+     Evict all tiles, bypassing the second tier.
+     */
+    void clear () {
+        while (null != oldest) {
+            evict (oldest, false);
+        }
+    }
+
+    private void evict (final Tile tile, final boolean keep) {
+        unlink (tile);
+        if (keep && null != secondTier) {
+            secondTier.put (tile);
+        }
+        size -= tile.byteCount;
+        tile.bitmap.recycle ();
+        tile.bitmap = null;
+        tile.byteCount = 0;
+        tile.state = Tile.STATE_EMPTY;
+    }
+
+    private void link (final Tile tile) {
+        tile.older = newest;
+        tile.newer = null;
+        if (null != newest) {
+            newest.newer = tile;
+        }
+        newest = tile;
+        if (null == oldest) {
+            oldest = tile;
+        }
+    }
+
+    private void unlink (final Tile tile) {
+        if (null != tile.newer) {
+            tile.newer.older = tile.older;
+        } else {
+            newest = tile.older;
+        }
+
+        if (null != tile.older) {
+            tile.older.newer = tile.newer;
+        } else {
+            oldest = tile.newer;
+        }
+
+        tile.newer = null;
+        tile.older = null;
+    }
+}
@@ -0,0 +1,406 @@
+package ca.mahram.android;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ <p>
+ Decodes tiles in parallel. A region decoder serializes all decodes internally, so a single decoder keeps at most one
+ core busy no matter how many threads share it. This scheduler instead creates one independent decoder per image
+ reader, each owned by its own background thread.
+ </p>
+ <p>
+ Queued tiles are not decoded in submission order: each thread takes the tile closest to the zoom level being viewed
+ and, among those, the one closest to the center of the viewport. Tiles that are no longer wanted (their state is no
+ longer {@link Tile#STATE_QUEUED}) are dropped without being decoded. Tiles found in the {@link DiskImageCache}, if
+ any, are read from it instead of being decoded, and decoded tiles are added to it.
+ </p>
+ */
+@TargetApi (Build.VERSION_CODES.GINGERBREAD_MR1)
+final class TileDecodeScheduler {
+
+    private static final String LOGTAG = "TileDecodeScheduler";
+
+    /**
+     Receives the outcome of tile decodes. Called on a decode thread.
+     */
+    interface Callback {
+        /**
+         @param tile
+         the tile
+         @param bitmap
+         decoded region, or null if it could not be decoded
+         */
+        void onTileDecoded (Tile tile, Bitmap bitmap);
+    }
+
+    /**
+     One-off decode run on the thread owning the first decoder, ie, a low resolution version of the whole image.
+     */
+    interface DecoderJob {
+        /**
+         @param decoder
+         decoder of the image. Only valid for the duration of the call.
+         */
+        void run (BitmapRegionDecoder decoder);
+    }
+
+    private final ImageSource.Reader[]  readers;
+    private final BitmapRegionDecoder[] decoders;
+    private final boolean               opaque;
+
+    // guards everything below
+    private final Object                lock;
+    private final ArrayList<Tile>       queue;
+    private final ArrayList<DecoderJob> jobs;
+
+    // what is being viewed: decodes are prioritized by closeness to it
+    private float centerX, centerY;
+    private int   level;
+
+    private Callback callback;
+    private boolean  released;
+
+    // persistent tile cache and key of the image in it; null when not caching
+    private DiskImageCache diskCache;
+    private String         imageKey;
+
+    // number of threads decoding, and throughput accounting
+    private int  active;
+    private long busyStart;
+    private long busyNanos;
+    private int  decoded;
+
+    // collects decode latencies; null unless the view's metrics are enabled
+    private volatile TouchImageMetrics metrics;
+
+    /**
+     @param readers
+     independently opened readers of the same image, one per decoder. Owned by the scheduler from now on and
+     closed by {@link #release()}, or before throwing if the decoders cannot be created.
+
+     @throws IOException
+     if the image cannot be read by the region decoder
+     */
+    TileDecodeScheduler (final ImageSource.Reader[] readers) throws IOException {
+        this.readers = readers;
+        decoders = new BitmapRegionDecoder[readers.length];
+        lock = new Object ();
+        queue = new ArrayList<Tile> ();
+        jobs = new ArrayList<DecoderJob> (1);
+
+        try {
+            final BitmapFactory.Options bounds = new BitmapFactory.Options ();
+            bounds.inJustDecodeBounds = true;
+            readers[0].decode (bounds);
+            opaque = Decoding.isOpaque (bounds.outMimeType);
+
+            for (int i = 0; i < readers.length; i++) {
+                decoders[i] = readers[i].newRegionDecoder ();
+            }
+        } catch (IOException e) {
+            for (int i = 0; i < readers.length; i++) {
+                close (i);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     @return width of the image
+     */
+    int getWidth () {
+        return decoders[0].getWidth ();
+    }
+
+    /**
+     @return height of the image
+     */
+    int getHeight () {
+        return decoders[0].getHeight ();
+    }
+
+    /**
+     @return true if the image has no transparency
+     */
+    boolean isOpaque () {
+        return opaque;
+    }
+
+    /**
+     Run a one-off decode on the first decode thread, ahead of queued tiles. Decoders are not safe to share between
+     threads (nor to recycle while in use), so every use of a decoder goes through the thread that owns it. Jobs still
+     pending on release are dropped.
+
+     @param job
+     decode to run
+     */
+    void execute (final DecoderJob job) {
+        synchronized (lock) {
+            if (released) {
+                return;
+            }
+
+            jobs.add (job);
+            lock.notifyAll ();
+        }
+    }
+
+    /**
+     Start the decode threads.
+
+     @param callback
+     receives decoded tiles
+     @param diskCache
+     persistent cache of tiles. May be null.
+     @param imageKey
+     key of the image in the disk cache. Ignored if diskCache is null.
+     */
+    void start (final Callback callback, final DiskImageCache diskCache, final String imageKey) {
+        this.callback = callback;
+        this.diskCache = diskCache;
+        this.imageKey = imageKey;
+        for (int i = 0; i < decoders.length; i++) {
+            final Thread thread = new Thread (new Worker (i), "TouchImageView-tile-" + i);
+            thread.setDaemon (true);
+            thread.start ();
+        }
+    }
+
+    /**
+     Update what is being viewed.
+
+     @param centerX
+     horizontal center of the viewport, in image coordinates
+     @param centerY
+     vertical center of the viewport, in image coordinates
+     @param sampleSize
+     sample size of the tiles being viewed
+     */
+    void setViewport (final float centerX, final float centerY, final int sampleSize) {
+        synchronized (lock) {
+            this.centerX = centerX;
+            this.centerY = centerY;
+            level = Integer.numberOfTrailingZeros (sampleSize);
+        }
+    }
+
+    /**
+     Queue a tile for decoding. Its state must be {@link Tile#STATE_QUEUED} and its config set.
+
+     @param tile
+     tile to decode
+     */
+    void submit (final Tile tile) {
+        synchronized (lock) {
+            if (released || queue.contains (tile)) {
+                return;
+            }
+
+            queue.add (tile);
+            lock.notify ();
+        }
+    }
+
+    /**
+     Remove a tile from the queue. A decode that has already started is not interrupted.
+
+     @param tile
+     tile that is no longer wanted
+     */
+    void cancel (final Tile tile) {
+        synchronized (lock) {
+            queue.remove (tile);
+        }
+    }
+
+    /**
+     @param metrics
+     receives tile decode latencies from now on. May be null.
+     */
+    void setMetrics (final TouchImageMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     @return tiles decoded per second of decoding (time during which at least one decode was running)
+     */
+    float getThroughput () {
+        synchronized (lock) {
+            long nanos = busyNanos;
+            if (active > 0) {
+                nanos += System.nanoTime () - busyStart;
+            }
+
+            return 0 == nanos
+                   ? 0f
+                   : decoded * 1000000000f / nanos;
+        }
+    }
+
+    /**
+     Drop all queued tiles and stop the decode threads. Each thread releases its decoder and reader once its
+     current decode (if any) completes.
+     */
+    void release () {
+        synchronized (lock) {
+            released = true;
+            queue.clear ();
+            jobs.clear ();
+            lock.notifyAll ();
+
+            if (null == callback) {
+                //
+                // never started: no thread will close the decoders
+                //
+                for (int i = 0; i < decoders.length; i++) {
+                    close (i);
+                }
+            }
+        }
+    }
+
+    /**
+     Take the most important queued tile, dropping tiles that are no longer wanted on the way. Must hold the lock.
+
+     @return a tile to decode, or null if none is wanted
+     */
+    private Tile takeBest () {
+        Tile best = null;
+        int bestLevelDistance = Integer.MAX_VALUE;
+        float bestDistance = Float.MAX_VALUE;
+
+        for (int i = queue.size () - 1; i >= 0; i--) {
+            final Tile tile = queue.get (i);
+            if (tile.state != Tile.STATE_QUEUED) {
+                queue.remove (i);
+                continue;
+            }
+
+            final int levelDistance = Math.abs (Integer.numberOfTrailingZeros (tile.sampleSize) - level);
+            final float dx = tile.sourceRect.exactCenterX () - centerX;
+            final float dy = tile.sourceRect.exactCenterY () - centerY;
+            final float distance = dx * dx + dy * dy;
+
+            if (levelDistance < bestLevelDistance || (levelDistance == bestLevelDistance && distance < bestDistance)) {
+                best = tile;
+                bestLevelDistance = levelDistance;
+                bestDistance = distance;
+            }
+        }
+
+        if (null != best) {
+            queue.remove (best);
+        }
+
+        return best;
+    }
+
+    private void close (final int index) {
+        if (null != decoders[index]) {
+            decoders[index].recycle ();
+        }
+
+        readers[index].close ();
+    }
+
+    private class Worker
+      implements Runnable {
+        private final int                   index;
+        private final BitmapFactory.Options options;
+
+        Worker (final int index) {
+            this.index = index;
+            options = new BitmapFactory.Options ();
+        }
+
+        @Override
+        public void run () {
+            Process.setThreadPriority (Process.THREAD_PRIORITY_BACKGROUND);
+
+            while (true) {
+                final Tile tile;
+                final DecoderJob job;
+                synchronized (lock) {
+                    while (!released && queue.isEmpty () && (0 != index || jobs.isEmpty ())) {
+                        try {
+                            lock.wait ();
+                        } catch (InterruptedException e) {
+                            released = true;
+                        }
+                    }
+
+                    if (released) {
+                        break;
+                    }
+
+                    job = 0 == index && !jobs.isEmpty ()
+                          ? jobs.remove (0)
+                          : null;
+                }
+
+                if (null != job) {
+                    job.run (decoders[index]);
+                    continue;
+                }
+
+                synchronized (lock) {
+                    tile = takeBest ();
+                    if (null == tile) {
+                        continue;
+                    }
+
+                    if (0 == active++) {
+                        busyStart = System.nanoTime ();
+                    }
+                }
+
+                Bitmap bitmap = null == diskCache
+                                ? null
+                                : diskCache.get (imageKey, tile, tile.config);
+                if (null == bitmap) {
+                    options.inSampleSize = tile.sampleSize;
+                    options.inPreferredConfig = tile.config;
+                    final TouchImageMetrics metrics = TileDecodeScheduler.this.metrics;
+                    final long start = null == metrics
+                                       ? 0
+                                       : metrics.beginDecode (TouchImageMetrics.SECTION_TILE_DECODE);
+                    try {
+                        bitmap = decoders[index].decodeRegion (tile.sourceRect, options);
+                    } catch (OutOfMemoryError e) {
+                        Log.w (LOGTAG, "Out of memory decoding tile " + tile.col + "," + tile.row);
+                    } finally {
+                        if (null != metrics) {
+                            metrics.endDecode (start);
+                        }
+                    }
+
+                    if (null != bitmap && null != diskCache) {
+                        diskCache.put (imageKey, tile, bitmap);
+                    }
+                }
+
+                synchronized (lock) {
+                    if (0 == --active) {
+                        busyNanos += System.nanoTime () - busyStart;
+                    }
+                    if (null != bitmap) {
+                        decoded++;
+                    }
+                }
+
+                callback.onTileDecoded (tile, bitmap);
+            }
+
+            close (index);
+        }
+    }
+}
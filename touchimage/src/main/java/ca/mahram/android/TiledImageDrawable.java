@@ -0,0 +1,882 @@
+package ca.mahram.android;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ <p>
+ Drawable for images too large to decode in one piece. Its intrinsic size is that of the full image, so
+ {@link TouchImageView} fits, zooms and pans it like any other drawable, but only the tiles intersecting the visible
+ region are ever decoded.
+ </p>
+ <p>
+ A low resolution base image, sized to the screen, is decoded once and drawn wherever tiles are not available.
+ Tiles are decoded by a {@link TileDecodeScheduler} at the sample size matching the current zoom level and kept in
+ a {@link TileCache} with a byte budget, so memory use depends on the screen size rather than the image size.
+ Tiles evicted from it move to an {@link OffHeapTileCache}, from which they are restored much faster than decoded.
+ </p>
+ <p>
+ When the view predicts where the viewport is heading (fling or fast drag), a bounded number of tiles at the
+ landing region and along the way there are queued ahead of time. They are dropped when the prediction is
+ cancelled or replaced by one that no longer covers them.
+ </p>
+ <p>
+ Decoded tiles are not all displayed as soon as they arrive: an {@link UploadBudget} limits how many visible tiles
+ are added per frame, closest to the center of the viewport first, so that a burst of decodes does not stall the
+ frame that has to upload them.
+ </p>
+ */
+@TargetApi (Build.VERSION_CODES.GINGERBREAD_MR1)
+class TiledImageDrawable
+  extends DecodingDrawable {
+
+    private static final String LOGTAG = "TiledImageDrawable";
+
+    // size of a decoded tile, in bitmap pixels
+    static final int TILE_SIZE = 256;
+
+    // cache tiers, for hit and miss counts
+    static final int TIER_MEMORY   = 0;
+    static final int TIER_OFF_HEAP = 1;
+
+    // upper bound of tiles queued ahead of time for a predicted viewport
+    private static final int MAX_PREFETCH_TILES = 12;
+
+    // points along the way from the visible region to the predicted one, landing region first
+    private static final float[] PREFETCH_PATH = {1f, .75f, .5f, .25f};
+
+    private final TileDecodeScheduler scheduler;
+    private final int                 baseSampleSize;
+    private final TileCache           cache;
+    private final OffHeapTileCache    offHeapCache;
+    private final UploadBudget        uploadBudget;
+
+    // tile grids, indexed by log2 of the sample size. Created on first use.
+    private final Tile[][]        levels;
+    private final int[]           levelColumns;
+    private final ArrayList<Tile> pending;
+
+    // decoded tiles waiting for the upload budget
+    private final ArrayList<Tile> decoded;
+
+    // visible tiles found (hits) or not found (misses) in each cache tier
+    private final long[] hits;
+    private final long[] misses;
+
+    // tiles queued for a prediction (a subset of pending) and scratch list used to update them
+    private final ArrayList<Tile> prefetched;
+    private final ArrayList<Tile> prefetchWanted;
+
+    // last visible region, and region along the predicted path
+    private final RectF visible;
+    private final RectF pathRect;
+
+    private Bitmap base;
+
+    // currently visible tiles: level and inclusive column/row range. level is -1 when the base image suffices.
+    private int level;
+    private int firstCol, lastCol, firstRow, lastRow;
+
+    // tiles covering the last predicted region, same layout as above. predictedLevel is -1 when there is none.
+    private int predictedLevel;
+    private int predictedFirstCol, predictedLastCol, predictedFirstRow, predictedLastRow;
+
+    /**
+     @param readers
+     independently opened readers of the image, one per parallel tile decoder. Owned by the drawable from now on and
+     closed by {@link #release()}. The base image is decoded by the same threads, ahead of tiles.
+     @param cacheBytes
+     byte budget for decoded tiles
+     @param offHeapCacheBytes
+     byte budget for evicted tiles kept off the Java heap. 0 disables the second tier.
+     @param uploadBudget
+     limits the tiles displayed per frame
+     @param baseMaxWidth
+     maximum width of the low resolution base image
+     @param baseMaxHeight
+     maximum height of the low resolution base image
+     @param diskCache
+     persistent cache of the base image and tiles. May be null.
+     @param imageKey
+     key of the image in the disk cache. May be null.
+     @param decodePolicy
+     picks the config of the base image and of each level of tiles
+
+     @throws IOException
+     if the image cannot be read by the region decoder
+     */
+    TiledImageDrawable (final ImageSource.Reader[] readers,
+                        final int cacheBytes,
+                        final int offHeapCacheBytes,
+                        final UploadBudget uploadBudget,
+                        final int baseMaxWidth,
+                        final int baseMaxHeight,
+                        final DiskImageCache diskCache,
+                        final String imageKey,
+                        final DecodePolicy decodePolicy) throws IOException {
+        this (new TileDecodeScheduler (readers),
+              cacheBytes,
+              offHeapCacheBytes,
+              uploadBudget,
+              baseMaxWidth,
+              baseMaxHeight,
+              diskCache,
+              imageKey,
+              decodePolicy);
+    }
+
+    private TiledImageDrawable (final TileDecodeScheduler scheduler,
+                                final int cacheBytes,
+                                final int offHeapCacheBytes,
+                                final UploadBudget uploadBudget,
+                                final int baseMaxWidth,
+                                final int baseMaxHeight,
+                                final DiskImageCache diskCache,
+                                final String imageKey,
+                                final DecodePolicy decodePolicy) {
+        super (scheduler.getWidth (),
+               scheduler.getHeight (),
+               diskCache,
+               imageKey,
+               decodePolicy,
+               scheduler.isOpaque ());
+        this.scheduler = scheduler;
+        baseSampleSize = Decoding.sampleSizeToFit (imageWidth, imageHeight, baseMaxWidth, baseMaxHeight);
+        offHeapCache = new OffHeapTileCache (offHeapCacheBytes);
+        cache = new TileCache (cacheBytes, offHeapCache, new TileCache.Pins () {
+            @Override
+            public boolean isPinned (final Tile tile) {
+                return isVisible (tile);
+            }
+        });
+        this.uploadBudget = uploadBudget;
+        levels = new Tile[Integer.numberOfTrailingZeros (baseSampleSize)][];
+        levelColumns = new int[levels.length];
+        pending = new ArrayList<Tile> ();
+        decoded = new ArrayList<Tile> ();
+        hits = new long[2];
+        misses = new long[2];
+        prefetched = new ArrayList<Tile> (MAX_PREFETCH_TILES);
+        prefetchWanted = new ArrayList<Tile> (MAX_PREFETCH_TILES);
+        visible = new RectF ();
+        pathRect = new RectF ();
+        level = -1;
+        predictedLevel = -1;
+
+        scheduler.start (new TileCallback (), this.diskCache, imageKey);
+        scheduler.execute (new BaseDecodeTask ());
+    }
+
+    /**
+     Smallest tile cache budget that holds all the tiles visible at once, at any zoom level, plus a ring of tiles
+     around them. {@link Decoding#sampleSizeForScale(float)} allows up to 2 decoded pixels per view pixel on each
+     axis, and the viewport is seldom aligned on tiles.
+
+     @param viewWidth
+     width of the view
+     @param viewHeight
+     height of the view
+
+     @return budget in bytes, for ARGB_8888 tiles
+     */
+    static int minCacheSize (final int viewWidth, final int viewHeight) {
+        final int columns = (2 * viewWidth + TILE_SIZE - 1) / TILE_SIZE + 3;
+        final int rows = (2 * viewHeight + TILE_SIZE - 1) / TILE_SIZE + 3;
+        return columns * rows * TILE_SIZE * TILE_SIZE * 4;
+    }
+
+    /**
+     @return the byte budget for decoded tiles
+     */
+    int getCacheSize () {
+        return cache.maxSize ();
+    }
+
+    /**
+     Change the byte budget for decoded tiles.
+
+     @param bytes
+     new budget
+     */
+    void setCacheSize (final int bytes) {
+        cache.setMaxSize (bytes);
+    }
+
+    /**
+     @return the byte budget for evicted tiles kept off the Java heap
+     */
+    int getOffHeapCacheSize () {
+        return offHeapCache.maxSize ();
+    }
+
+    /**
+     Change the byte budget for evicted tiles kept off the Java heap.
+
+     @param bytes
+     new budget. 0 disables the second tier.
+     */
+    void setOffHeapCacheSize (final int bytes) {
+        offHeapCache.setMaxSize (bytes);
+    }
+
+    /**
+     @param tier
+     {@link #TIER_MEMORY} or {@link #TIER_OFF_HEAP}
+
+     @return number of visible tiles found in the tier
+     */
+    long getHitCount (final int tier) {
+        return hits[tier];
+    }
+
+    /**
+     @param tier
+     {@link #TIER_MEMORY} or {@link #TIER_OFF_HEAP}
+
+     @return number of visible tiles not found in the tier
+     */
+    long getMissCount (final int tier) {
+        return misses[tier];
+    }
+
+    /**
+     @return tiles decoded per second of decoding
+     */
+    float getDecodeThroughput () {
+        return scheduler.getThroughput ();
+    }
+
+    @Override
+    protected void onRelease () {
+        cancelPrefetch ();
+        cancelPending (-1, 0, -1, 0, -1);
+        cache.clear ();
+        offHeapCache.clear ();
+
+        for (int i = decoded.size () - 1; i >= 0; i--) {
+            dropDecoded (i);
+        }
+
+        if (null != base) {
+            base.recycle ();
+            base = null;
+        }
+
+        scheduler.release ();
+    }
+
+    @Override
+    int getByteCount () {
+        int bytes = cache.size () + offHeapCache.size ();
+        for (int i = 0; i < decoded.size (); i++) {
+            bytes += decoded.get (i).byteCount;
+        }
+        if (null != base) {
+            bytes += Decoding.byteCount (base);
+        }
+
+        return bytes;
+    }
+
+    @Override
+    void trimMemory (final int trimLevel) {
+        if (isReleased ()) {
+            return;
+        }
+
+        cancelPrefetch ();
+
+        //
+        // Nothing in the second tier is visible
+        //
+        offHeapCache.clear ();
+
+        if (trimLevel == TRIM_TO_BASE) {
+            cancelPending (-1, 0, -1, 0, -1);
+            cache.clear ();
+            for (int i = decoded.size () - 1; i >= 0; i--) {
+                dropDecoded (i);
+            }
+
+            //
+            // Forget the visible range so the next viewport change queues the tiles again
+            //
+            level = -1;
+            invalidateSelf ();
+            return;
+        }
+
+        for (int i = decoded.size () - 1; i >= 0; i--) {
+            if (!isVisible (decoded.get (i))) {
+                dropDecoded (i);
+            }
+        }
+
+        for (int l = 0; l < levels.length; l++) {
+            final Tile[] tiles = levels[l];
+            if (null == tiles) {
+                continue;
+            }
+
+            for (final Tile tile : tiles) {
+                if (tile.state == Tile.STATE_LOADED && !isVisible (tile)) {
+                    cache.remove (tile);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onViewportChanged (final RectF visibleRect, final float scale) {
+        if (isReleased ()) {
+            return;
+        }
+
+        visible.set (visibleRect);
+        final int sampleSize = Decoding.sampleSizeForScale (scale);
+        if (sampleSize >= baseSampleSize) {
+            //
+            // The base image has enough detail at this zoom level
+            //
+            level = -1;
+            cancelPending (-1, 0, -1, 0, -1);
+            return;
+        }
+
+        scheduler.setViewport (visibleRect.centerX (), visibleRect.centerY (), sampleSize);
+
+        final int newLevel = Integer.numberOfTrailingZeros (sampleSize);
+        final int tileSourceSize = TILE_SIZE * sampleSize;
+        final int cols = columns (sampleSize);
+        final int rows = (imageHeight + tileSourceSize - 1) / tileSourceSize;
+        final int newFirstCol = clamp ((int) Math.floor (visibleRect.left / tileSourceSize), cols);
+        final int newLastCol = clamp ((int) Math.ceil (visibleRect.right / tileSourceSize) - 1, cols);
+        final int newFirstRow = clamp ((int) Math.floor (visibleRect.top / tileSourceSize), rows);
+        final int newLastRow = clamp ((int) Math.ceil (visibleRect.bottom / tileSourceSize) - 1, rows);
+
+        if (newLevel == level && newFirstCol == firstCol && newLastCol == lastCol && newFirstRow == firstRow &&
+            newLastRow == lastRow) {
+            return;
+        }
+
+        level = newLevel;
+        firstCol = newFirstCol;
+        lastCol = newLastCol;
+        firstRow = newFirstRow;
+        lastRow = newLastRow;
+
+        cancelPending (level, firstCol, lastCol, firstRow, lastRow);
+
+        //
+        // Tiles that were pinned by the previous range may have kept the cache over its budget
+        //
+        cache.trimToSize (cache.maxSize ());
+
+        final Tile[] tiles = tiles (level);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                final Tile tile = tiles[row * cols + col];
+                if (tile.state == Tile.STATE_LOADED) {
+                    hits[TIER_MEMORY]++;
+                    cache.touch (tile);
+                } else if (tile.state == Tile.STATE_EMPTY) {
+                    misses[TIER_MEMORY]++;
+                    if (restore (tile)) {
+                        hits[TIER_OFF_HEAP]++;
+                    } else {
+                        misses[TIER_OFF_HEAP]++;
+                        tile.state = Tile.STATE_QUEUED;
+                        tile.config = levelConfig (tile.sampleSize, baseSampleSize);
+                        pending.add (tile);
+                        scheduler.submit (tile);
+                    }
+                } else if (tile.prefetch) {
+                    //
+                    // The prediction was right: the tile is now wanted because it is visible
+                    //
+                    tile.prefetch = false;
+                    prefetched.remove (tile);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onViewportPredicted (final RectF predictedRect, final float scale) {
+        if (isReleased ()) {
+            return;
+        }
+
+        final int sampleSize = Decoding.sampleSizeForScale (scale);
+        if (sampleSize >= baseSampleSize) {
+            cancelPrefetch ();
+            return;
+        }
+
+        final int newLevel = Integer.numberOfTrailingZeros (sampleSize);
+        final int tileSourceSize = TILE_SIZE * sampleSize;
+        final int cols = columns (sampleSize);
+        final int rows = (imageHeight + tileSourceSize - 1) / tileSourceSize;
+        final int newFirstCol = clamp ((int) Math.floor (predictedRect.left / tileSourceSize), cols);
+        final int newLastCol = clamp ((int) Math.ceil (predictedRect.right / tileSourceSize) - 1, cols);
+        final int newFirstRow = clamp ((int) Math.floor (predictedRect.top / tileSourceSize), rows);
+        final int newLastRow = clamp ((int) Math.ceil (predictedRect.bottom / tileSourceSize) - 1, rows);
+
+        if (newLevel == predictedLevel && newFirstCol == predictedFirstCol && newLastCol == predictedLastCol &&
+            newFirstRow == predictedFirstRow && newLastRow == predictedLastRow) {
+            return;
+        }
+
+        predictedLevel = newLevel;
+        predictedFirstCol = newFirstCol;
+        predictedLastCol = newLastCol;
+        predictedFirstRow = newFirstRow;
+        predictedLastRow = newLastRow;
+
+        //
+        // Collect the tiles at the landing region first, then along the way there, up to the queue bound
+        //
+        final Tile[] tiles = tiles (newLevel);
+        prefetchWanted.clear ();
+        for (final float t : PREFETCH_PATH) {
+            pathRect.set (visible.left + t * (predictedRect.left - visible.left),
+                          visible.top + t * (predictedRect.top - visible.top),
+                          visible.right + t * (predictedRect.right - visible.right),
+                          visible.bottom + t * (predictedRect.bottom - visible.bottom));
+            final int pathFirstCol = clamp ((int) Math.floor (pathRect.left / tileSourceSize), cols);
+            final int pathLastCol = clamp ((int) Math.ceil (pathRect.right / tileSourceSize) - 1, cols);
+            final int pathFirstRow = clamp ((int) Math.floor (pathRect.top / tileSourceSize), rows);
+            final int pathLastRow = clamp ((int) Math.ceil (pathRect.bottom / tileSourceSize) - 1, rows);
+
+            for (int row = pathFirstRow; row <= pathLastRow; row++) {
+                for (int col = pathFirstCol; col <= pathLastCol; col++) {
+                    final Tile tile = tiles[row * cols + col];
+                    if (tile.state == Tile.STATE_LOADED) {
+                        cache.touch (tile);
+                    } else if ((tile.state == Tile.STATE_EMPTY || tile.prefetch) && !prefetchWanted.contains (tile)) {
+                        if (prefetchWanted.size () == MAX_PREFETCH_TILES) {
+                            break;
+                        }
+                        prefetchWanted.add (tile);
+                    }
+                }
+            }
+        }
+
+        //
+        // Drop earlier prefetches the new prediction does not cover, then queue the new ones
+        //
+        for (int i = prefetched.size () - 1; i >= 0; i--) {
+            final Tile tile = prefetched.get (i);
+            if (!prefetchWanted.contains (tile)) {
+                cancelPrefetch (tile);
+            }
+        }
+
+        for (int i = 0; i < prefetchWanted.size (); i++) {
+            final Tile tile = prefetchWanted.get (i);
+            if (tile.state == Tile.STATE_EMPTY && !restore (tile)) {
+                tile.state = Tile.STATE_QUEUED;
+                tile.config = levelConfig (tile.sampleSize, baseSampleSize);
+                tile.prefetch = true;
+                pending.add (tile);
+                prefetched.add (tile);
+                scheduler.submit (tile);
+            }
+        }
+        prefetchWanted.clear ();
+    }
+
+    @Override
+    public void onPredictionCancelled () {
+        if (!isReleased ()) {
+            cancelPrefetch ();
+        }
+    }
+
+    @Override
+    public void draw (final Canvas canvas) {
+        if (isReleased ()) {
+            return;
+        }
+
+        showDecodedTiles ();
+
+        final Tile[] tiles = level < 0
+                             ? null
+                             : levels[level];
+        final int cols = level < 0
+                         ? 0
+                         : levelColumns[level];
+
+        if (null != base && !allVisibleTilesLoaded (tiles, cols)) {
+            canvas.drawBitmap (base, null, getBounds (), paint);
+        }
+
+        if (null == tiles) {
+            return;
+        }
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                final Tile tile = tiles[row * cols + col];
+                if (tile.state == Tile.STATE_LOADED) {
+                    canvas.drawBitmap (tile.bitmap, null, tile.sourceRect, paint);
+                }
+            }
+        }
+
+        if (!decoded.isEmpty ()) {
+            //
+            // more tiles for the next frame
+            //
+            invalidateSelf ();
+        }
+    }
+
+    /**
+     Move decoded tiles into the cache, which makes them visible. Tiles that are not visible cost nothing and are
+     moved right away; visible ones are moved closest to the center of the viewport first, within the upload budget
+     of the frame.
+     */
+    private void showDecodedTiles () {
+        if (decoded.isEmpty ()) {
+            return;
+        }
+
+        for (int i = decoded.size () - 1; i >= 0; i--) {
+            final Tile tile = decoded.get (i);
+            if (!isVisible (tile)) {
+                removeDecoded (i);
+                show (tile);
+            }
+        }
+
+        uploadBudget.beginFrame ();
+        final float centerX = visible.centerX ();
+        final float centerY = visible.centerY ();
+        while (!decoded.isEmpty ()) {
+            int closest = 0;
+            float closestDistance = Float.MAX_VALUE;
+            for (int i = 0; i < decoded.size (); i++) {
+                final Rect rect = decoded.get (i).sourceRect;
+                final float dx = rect.exactCenterX () - centerX;
+                final float dy = rect.exactCenterY () - centerY;
+                final float distance = dx * dx + dy * dy;
+                if (distance < closestDistance) {
+                    closest = i;
+                    closestDistance = distance;
+                }
+            }
+
+            final Tile tile = decoded.get (closest);
+            if (!uploadBudget.spend (tile.byteCount)) {
+                break;
+            }
+
+            removeDecoded (closest);
+            show (tile);
+        }
+        uploadBudget.endFrame (decoded.size ());
+    }
+
+    private void show (final Tile tile) {
+        tile.state = Tile.STATE_LOADED;
+        tile.bitmap.prepareToDraw ();
+        cache.put (tile);
+    }
+
+    /**
+     Restore an empty tile from the second tier cache. The tile is shown like a freshly decoded one.
+
+     @return true if the tile was restored, false if it has to be decoded
+     */
+    private boolean restore (final Tile tile) {
+        if (null == tile.spilled) {
+            return false;
+        }
+
+        final Bitmap bitmap = offHeapCache.restore (tile);
+        if (null == bitmap) {
+            return false;
+        }
+
+        tile.bitmap = bitmap;
+        tile.byteCount = Decoding.byteCount (bitmap);
+        tile.state = Tile.STATE_DECODED;
+        decoded.add (tile);
+        invalidateSelf ();
+        return true;
+    }
+
+    /**
+     Recycle a decoded tile that has not been shown yet.
+     */
+    private void dropDecoded (final int index) {
+        final Tile tile = decoded.get (index);
+        removeDecoded (index);
+        tile.bitmap.recycle ();
+        tile.bitmap = null;
+        tile.byteCount = 0;
+        tile.state = Tile.STATE_EMPTY;
+    }
+
+    private void removeDecoded (final int index) {
+        final int last = decoded.size () - 1;
+        decoded.set (index, decoded.get (last));
+        decoded.remove (last);
+    }
+
+    private boolean isVisible (final Tile tile) {
+        return level >= 0 && Integer.numberOfTrailingZeros (tile.sampleSize) == level && tile.col >= firstCol &&
+               tile.col <= lastCol && tile.row >= firstRow && tile.row <= lastRow;
+    }
+
+    private boolean allVisibleTilesLoaded (final Tile[] tiles, final int cols) {
+        if (null == tiles) {
+            return false;
+        }
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                if (tiles[row * cols + col].state != Tile.STATE_LOADED) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private int columns (final int sampleSize) {
+        final int tileSourceSize = TILE_SIZE * sampleSize;
+        return (imageWidth + tileSourceSize - 1) / tileSourceSize;
+    }
+
+    private static int clamp (final int index, final int count) {
+        return Math.max (0, Math.min (index, count - 1));
+    }
+
+    /**
+     Get (creating if necessary) the tile grid of a level.
+
+     @param level
+     log2 of the sample size
+
+     @return tiles in row major order
+     */
+    private Tile[] tiles (final int level) {
+        if (null != levels[level]) {
+            return levels[level];
+        }
+
+        final int sampleSize = 1 << level;
+        final int tileSourceSize = TILE_SIZE * sampleSize;
+        final int cols = columns (sampleSize);
+        final int rows = (imageHeight + tileSourceSize - 1) / tileSourceSize;
+        final Tile[] tiles = new Tile[cols * rows];
+
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                final int left = col * tileSourceSize;
+                final int top = row * tileSourceSize;
+                final Rect rect = new Rect (left,
+                                            top,
+                                            Math.min (left + tileSourceSize, imageWidth),
+                                            Math.min (top + tileSourceSize, imageHeight));
+                tiles[row * cols + col] = new Tile (sampleSize, col, row, rect);
+            }
+        }
+
+        levels[level] = tiles;
+        levelColumns[level] = cols;
+        return tiles;
+    }
+
+    /**
+     Cancel queued decodes for tiles outside of the given level and range. Decodes that have already started are
+     discarded when they complete.
+     */
+    private void cancelPending (final int keepLevel,
+                                final int keepFirstCol,
+                                final int keepLastCol,
+                                final int keepFirstRow,
+                                final int keepLastRow) {
+        for (int i = pending.size () - 1; i >= 0; i--) {
+            final Tile tile = pending.get (i);
+            if (tile.prefetch) {
+                //
+                // prefetched tiles are dropped along with their prediction
+                //
+                continue;
+            }
+            if (Integer.numberOfTrailingZeros (tile.sampleSize) == keepLevel && tile.col >= keepFirstCol &&
+                tile.col <= keepLastCol && tile.row >= keepFirstRow && tile.row <= keepLastRow) {
+                continue;
+            }
+
+            tile.state = Tile.STATE_EMPTY;
+            scheduler.cancel (tile);
+            final int last = pending.size () - 1;
+            pending.set (i, pending.get (last));
+            pending.remove (last);
+        }
+    }
+
+    /**
+     Cancel all prefetches and forget the last prediction.
+     */
+    private void cancelPrefetch () {
+        for (int i = prefetched.size () - 1; i >= 0; i--) {
+            cancelPrefetch (prefetched.get (i));
+        }
+        predictedLevel = -1;
+    }
+
+    /**
+     Cancel the queued decode of a prefetched tile. A decode that has already started is discarded when it completes.
+     */
+    private void cancelPrefetch (final Tile tile) {
+        if (tile.state == Tile.STATE_QUEUED) {
+            tile.state = Tile.STATE_EMPTY;
+            scheduler.cancel (tile);
+        }
+        dequeue (tile);
+    }
+
+    /**
+     Forget about a queued tile once its decode has completed, failed or been cancelled.
+     */
+    private void dequeue (final Tile tile) {
+        pending.remove (tile);
+        if (tile.prefetch) {
+            tile.prefetch = false;
+            prefetched.remove (tile);
+        }
+    }
+
+    /**
+     Hand a decoded tile over to the cache. Runs on the UI thread.
+     */
+    private void onTileDecoded (final Tile tile, final Bitmap bitmap) {
+        dequeue (tile);
+
+        if (isReleased () || tile.state != Tile.STATE_QUEUED) {
+            bitmap.recycle ();
+            return;
+        }
+
+        tile.bitmap = bitmap;
+        tile.byteCount = Decoding.byteCount (bitmap);
+        tile.state = Tile.STATE_DECODED;
+        decoded.add (tile);
+        invalidateSelf ();
+    }
+
+    private void onBaseDecoded (final Bitmap bitmap) {
+        if (isReleased ()) {
+            bitmap.recycle ();
+            return;
+        }
+
+        base = bitmap;
+        invalidateSelf ();
+    }
+
+    @Override
+    void setMetrics (final TouchImageMetrics metrics) {
+        super.setMetrics (metrics);
+        scheduler.setMetrics (metrics);
+    }
+
+    private Bitmap decodeRegion (final BitmapRegionDecoder decoder,
+                                 final Rect rect,
+                                 final int sampleSize,
+                                 final Bitmap.Config config) {
+        final BitmapFactory.Options options = new BitmapFactory.Options ();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = config;
+        final TouchImageMetrics metrics = this.metrics;
+        final long start = null == metrics
+                           ? 0
+                           : metrics.beginDecode (TouchImageMetrics.SECTION_DECODE);
+        try {
+            return decoder.decodeRegion (rect, options);
+        } catch (OutOfMemoryError e) {
+            Log.w (LOGTAG, "Out of memory decoding base image");
+            return null;
+        } finally {
+            if (null != metrics) {
+                metrics.endDecode (start);
+            }
+        }
+    }
+
+    private class TileCallback
+      implements TileDecodeScheduler.Callback {
+        @Override
+        public void onTileDecoded (final Tile tile, final Bitmap bitmap) {
+            if (null == bitmap) {
+                handler.post (new Runnable () {
+                    @Override
+                    public void run () {
+                        dequeue (tile);
+                        if (tile.state == Tile.STATE_QUEUED) {
+                            tile.state = Tile.STATE_EMPTY;
+                        }
+                    }
+                });
+                return;
+            }
+
+            decodePolicy.record (bitmap);
+            handler.post (new Runnable () {
+                @Override
+                public void run () {
+                    TiledImageDrawable.this.onTileDecoded (tile, bitmap);
+                }
+            });
+        }
+    }
+
+    private class BaseDecodeTask
+      implements TileDecodeScheduler.DecoderJob {
+        @Override
+        public void run (final BitmapRegionDecoder decoder) {
+            if (isReleased ()) {
+                return;
+            }
+
+            final Bitmap.Config config = levelConfig (baseSampleSize, baseSampleSize);
+            Bitmap bitmap = readLevel (baseSampleSize, config);
+            if (null == bitmap) {
+                bitmap = decodeRegion (decoder, new Rect (0, 0, imageWidth, imageHeight), baseSampleSize, config);
+                if (null == bitmap) {
+                    Log.w (LOGTAG, "Failed to decode base image");
+                    return;
+                }
+
+                writeLevel (baseSampleSize, bitmap);
+            }
+            decodePolicy.record (bitmap);
+
+            final Bitmap decoded = bitmap;
+            handler.post (new Runnable () {
+                @Override
+                public void run () {
+                    onBaseDecoded (decoded);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package ca.mahram.android;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+import android.os.Trace;
+
+/**
+ <p>
+ Counters and timings of a {@link TouchImageView}'s hot paths, collected once enabled with
+ {@link TouchImageView#setMetricsEnabled(boolean)}. While disabled the view does not create an instance, and each
+ instrumented path costs a single null check.
+ </p>
+ <p>
+ Collected:
+ </p>
+ <ul>
+ <li>touch events handled, image matrix applications, fling and animated zoom frames</li>
+ <li>a histogram of the time spent per frame transforming the image (scaling, fixing the translation, fitting the
+ image to the view)</li>
+ <li>a histogram of decode latencies: images loaded asynchronously, multi-resolution levels, tiles</li>
+ </ul>
+ <p>
+ On API 18+ the same paths are wrapped in {@link Trace} sections, so they show up in system traces.
+ </p>
+ <p>
+ Read the values through {@link #getSnapshot(Snapshot)}, which is cheap and can be called from any thread.
+ </p>
+ */
+public final class TouchImageMetrics {
+
+    // upper bounds of the frame transform time buckets, in microseconds. The last bucket has no upper bound.
+    private static final long[] TRANSFORM_BUCKETS = {50, 100, 250, 500, 1000, 2000, 4000, 8000, 16000};
+
+    // upper bounds of the decode latency buckets, in milliseconds. The last bucket has no upper bound.
+    private static final long[] DECODE_BUCKETS = {5, 10, 20, 50, 100, 200, 500, 1000};
+
+    static final String SECTION_SCALE       = "TouchImageView.scaleImage";
+    static final String SECTION_FIX_TRANS   = "TouchImageView.fixTrans";
+    static final String SECTION_FIT         = "TouchImageView.fitImageToView";
+    static final String SECTION_DECODE      = "TouchImageView.decode";
+    static final String SECTION_TILE_DECODE = "TouchImageView.decodeTile";
+
+    private long touchEvents;
+    private long matrixApplications;
+    private long flingFrames;
+    private long zoomFrames;
+
+    // transform time since the last frame completed. Only touched on the UI thread.
+    private long pendingTransformNanos;
+
+    private final long[] transformHistogram;
+    private long         transformFrames;
+    private long         transformNanos;
+    private long         maxTransformNanos;
+
+    private final long[] decodeHistogram;
+    private long         decodes;
+    private long         decodeNanos;
+    private long         maxDecodeNanos;
+
+    TouchImageMetrics () {
+        transformHistogram = new long[TRANSFORM_BUCKETS.length + 1];
+        decodeHistogram = new long[DECODE_BUCKETS.length + 1];
+    }
+
+    /**
+     @return number of buckets of the frame transform time histogram
+     */
+    public static int getTransformBucketCount () {
+        return TRANSFORM_BUCKETS.length + 1;
+    }
+
+    /**
+     @param bucket
+     bucket index
+
+     @return exclusive upper bound of the bucket, in microseconds, or {@link Long#MAX_VALUE} for the last bucket
+     */
+    public static long getTransformBucketLimitMicros (final int bucket) {
+        return bucket < TRANSFORM_BUCKETS.length
+               ? TRANSFORM_BUCKETS[bucket]
+               : Long.MAX_VALUE;
+    }
+
+    /**
+     @return number of buckets of the decode latency histogram
+     */
+    public static int getDecodeBucketCount () {
+        return DECODE_BUCKETS.length + 1;
+    }
+
+    /**
+     @param bucket
+     bucket index
+
+     @return exclusive upper bound of the bucket, in milliseconds, or {@link Long#MAX_VALUE} for the last bucket
+     */
+    public static long getDecodeBucketLimitMillis (final int bucket) {
+        return bucket < DECODE_BUCKETS.length
+               ? DECODE_BUCKETS[bucket]
+               : Long.MAX_VALUE;
+    }
+
+    /**
+     Copy the current values.
+
+     @param out
+     receives the values. May be null, in which case a new snapshot is created.
+
+     @return out, or the new snapshot
+     */
+    public synchronized Snapshot getSnapshot (final Snapshot out) {
+        final Snapshot snapshot = null == out
+                                  ? new Snapshot ()
+                                  : out;
+        snapshot.touchEvents = touchEvents;
+        snapshot.matrixApplications = matrixApplications;
+        snapshot.flingFrames = flingFrames;
+        snapshot.zoomFrames = zoomFrames;
+        snapshot.transformFrames = transformFrames;
+        snapshot.transformNanos = transformNanos;
+        snapshot.maxTransformNanos = maxTransformNanos;
+        System.arraycopy (transformHistogram, 0, snapshot.transformHistogram, 0, transformHistogram.length);
+        snapshot.decodes = decodes;
+        snapshot.decodeNanos = decodeNanos;
+        snapshot.maxDecodeNanos = maxDecodeNanos;
+        System.arraycopy (decodeHistogram, 0, snapshot.decodeHistogram, 0, decodeHistogram.length);
+        return snapshot;
+    }
+
+    /**
+     Reset all values to 0.
+     */
+    public synchronized void reset () {
+        touchEvents = 0;
+        matrixApplications = 0;
+        flingFrames = 0;
+        zoomFrames = 0;
+        pendingTransformNanos = 0;
+        transformFrames = 0;
+        transformNanos = 0;
+        maxTransformNanos = 0;
+        decodes = 0;
+        decodeNanos = 0;
+        maxDecodeNanos = 0;
+        for (int i = 0; i < transformHistogram.length; i++) {
+            transformHistogram[i] = 0;
+        }
+        for (int i = 0; i < decodeHistogram.length; i++) {
+            decodeHistogram[i] = 0;
+        }
+    }
+
+    synchronized void touchEvent () {
+        touchEvents++;
+    }
+
+    synchronized void matrixApplied () {
+        matrixApplications++;
+    }
+
+    synchronized void flingFrame () {
+        flingFrames++;
+    }
+
+    synchronized void zoomFrame () {
+        zoomFrames++;
+    }
+
+    /**
+     Start timing a transform of the image. Must be followed by {@link #endTransform(long)} on the UI thread.
+
+     @param section
+     name of the trace section
+
+     @return start time, to pass to {@link #endTransform(long)}
+     */
+    long beginTransform (final String section) {
+        beginSection (section);
+        return System.nanoTime ();
+    }
+
+    /**
+     @param start
+     value returned by {@link #beginTransform(String)}
+     */
+    void endTransform (final long start) {
+        pendingTransformNanos += System.nanoTime () - start;
+        endSection ();
+    }
+
+    /**
+     Record the transform time accumulated since the previous frame as the cost of the frame that just completed.
+     */
+    synchronized void frameCompleted () {
+        final long nanos = pendingTransformNanos;
+        pendingTransformNanos = 0;
+
+        transformFrames++;
+        transformNanos += nanos;
+        maxTransformNanos = Math.max (maxTransformNanos, nanos);
+        transformHistogram[bucket (TRANSFORM_BUCKETS, nanos / 1000L)]++;
+    }
+
+    /**
+     Start timing a decode. Must be followed by {@link #endDecode(long)} on the same thread.
+
+     @param section
+     name of the trace section
+
+     @return start time, to pass to {@link #endDecode(long)}
+     */
+    long beginDecode (final String section) {
+        beginSection (section);
+        return System.nanoTime ();
+    }
+
+    /**
+     @param start
+     value returned by {@link #beginDecode(String)}
+     */
+    void endDecode (final long start) {
+        final long nanos = System.nanoTime () - start;
+        endSection ();
+
+        synchronized (this) {
+            decodes++;
+            decodeNanos += nanos;
+            maxDecodeNanos = Math.max (maxDecodeNanos, nanos);
+            decodeHistogram[bucket (DECODE_BUCKETS, nanos / 1000000L)]++;
+        }
+    }
+
+    private static int bucket (final long[] limits, final long value) {
+        int bucket = 0;
+        while (bucket < limits.length && value >= limits[bucket]) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    @TargetApi (Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void beginSection (final String section) {
+        if (VERSION.SDK_INT >= VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection (section);
+        }
+    }
+
+    @TargetApi (Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void endSection () {
+        if (VERSION.SDK_INT >= VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection ();
+        }
+    }
+
+    /**
+     Values of the metrics at one point in time. Can be reused across calls to
+     {@link TouchImageMetrics#getSnapshot(Snapshot)} so that polling does not allocate.
+     */
+    public static final class Snapshot {
+        private final long[] transformHistogram = new long[TRANSFORM_BUCKETS.length + 1];
+        private final long[] decodeHistogram    = new long[DECODE_BUCKETS.length + 1];
+
+        private long touchEvents;
+        private long matrixApplications;
+        private long flingFrames;
+        private long zoomFrames;
+        private long transformFrames;
+        private long transformNanos;
+        private long maxTransformNanos;
+        private long decodes;
+        private long decodeNanos;
+        private long maxDecodeNanos;
+
+        /**
+         @return number of touch events handled by the view
+         */
+        public long getTouchEvents () {
+            return touchEvents;
+        }
+
+        /**
+         @return number of times a new transform was applied to the image matrix
+         */
+        public long getMatrixApplications () {
+            return matrixApplications;
+        }
+
+        /**
+         @return number of fling animation frames run
+         */
+        public long getFlingFrames () {
+            return flingFrames;
+        }
+
+        /**
+         @return number of animated zoom frames run
+         */
+        public long getZoomFrames () {
+            return zoomFrames;
+        }
+
+        /**
+         @return number of frames in the transform time histogram
+         */
+        public long getTransformFrames () {
+            return transformFrames;
+        }
+
+        /**
+         @return total time spent transforming the image, in nanoseconds
+         */
+        public long getTransformNanos () {
+            return transformNanos;
+        }
+
+        /**
+         @return longest time spent transforming the image within a single frame, in nanoseconds
+         */
+        public long getMaxTransformNanos () {
+            return maxTransformNanos;
+        }
+
+        /**
+         @param bucket
+         bucket index, see {@link TouchImageMetrics#getTransformBucketLimitMicros(int)}
+
+         @return number of frames whose transform time fell in the bucket
+         */
+        public long getTransformFrameCount (final int bucket) {
+            return transformHistogram[bucket];
+        }
+
+        /**
+         @return number of decodes timed
+         */
+        public long getDecodes () {
+            return decodes;
+        }
+
+        /**
+         @return total decode time, in nanoseconds
+         */
+        public long getDecodeNanos () {
+            return decodeNanos;
+        }
+
+        /**
+         @return longest decode, in nanoseconds
+         */
+        public long getMaxDecodeNanos () {
+            return maxDecodeNanos;
+        }
+
+        /**
+         @param bucket
+         bucket index, see {@link TouchImageMetrics#getDecodeBucketLimitMillis(int)}
+
+         @return number of decodes whose latency fell in the bucket
+         */
+        public long getDecodeCount (final int bucket) {
+            return decodeHistogram[bucket];
+        }
+    }
+}
@@ -15,8 +15,12 @@ import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.PointF;
+import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Build;
@@ -25,15 +29,23 @@ import android.os.Build.VERSION_CODES;
 import android.os.Bundle;
 import android.os.Parcelable;
 import android.util.AttributeSet;
+import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
 import android.view.View;
 import android.view.ViewConfiguration;
+import android.view.WindowManager;
 import android.view.animation.AccelerateDecelerateInterpolator;
+import android.view.animation.Interpolator;
 import android.widget.ImageView;
-import android.widget.Scroller;
+import android.widget.OverScroller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
 
 /**
  <p>
@@ -62,6 +74,15 @@ import android.widget.Scroller;
  are ignored.<br/>
  <b>maintainZoom</b> if set to <i>true</i> the newly loaded image will retain the zoom state of the previous image (if
  any). Setting this to <i>false</i> will reset the zoom state when a new image is loaded.<br/>
+ <b>decodeConfig</b> determines the pixel config images are decoded to. This is an enum:
+ <ul>
+ <li><i>quality</i> decodes everything at 32 bits per pixel (ARGB_8888). This is the default.</li>
+ <li><i>adaptive</i> decodes opaque images (JPEG) at 16 bits per pixel (RGB_565) for zoom levels below
+ <b>decodeConfigZoomThreshold</b>, and at 32 bits past it.</li>
+ <li><i>memory</i> always decodes opaque images at 16 bits per pixel.</li>
+ </ul>
+ <b>decodeConfigZoomThreshold</b> zoom level from which the <i>adaptive</i> decode config decodes at 32 bits per pixel.
+ This is a float.<br/>
  </p>
  */
 public class TouchImageView
@@ -77,6 +98,20 @@ public class TouchImageView
 
     private static final String LOGTAG = "TouchImageView";
 
+    /**
+     Tile cache tier holding decoded tiles in memory
+     */
+    public static final int TILE_CACHE_MEMORY = TiledImageDrawable.TIER_MEMORY;
+
+    /**
+     Tile cache tier holding the pixels of tiles evicted from memory, outside of the Java heap
+     */
+    public static final int TILE_CACHE_OFF_HEAP = TiledImageDrawable.TIER_OFF_HEAP;
+
+    // View.requestUnbufferedDispatch (MotionEvent), looked up on first use
+    private static Method  requestUnbufferedDispatch;
+    private static boolean requestUnbufferedDispatchResolved;
+
     // default minimum scale is 1
     private static final float DEFAULT_MIN_SCALE = 1.0f;
 
@@ -87,44 +122,48 @@ public class TouchImageView
     private static final float DEFAULT_MINIMUM_BOUNCEBACK_MULTIPLIER = .85f;
     private static final float DEFAULT_MAXIMUM_BOUNCEBACK_MULTIPLIER = 1.15f;
 
-    // SuperMin and SuperMax multipliers. Determine how much the image can be
-    // zoomed below or above the zoom boundaries, before animating back to the
-    // min/max zoom boundary.
-    private final float          minScaleBounceBackMultiplier;
-    private final float          maxScaleBounceBackMultiplier;
+    // default duration of animated zooms, in milliseconds
+    private static final long DEFAULT_ZOOM_DURATION = 500;
+
+    // refresh period assumed when the display does not report its refresh rate
+    private static final long DEFAULT_FRAME_PERIOD_NANOS = 1000000000L / 60;
+
+    // View.requestUnbufferedDispatch (MotionEvent) is only available from API 30 on
+    private static final int UNBUFFERED_DISPATCH_API = 30;
+
+    // how far ahead of a fast drag the viewport is predicted, in milliseconds
+    private static final int DRAG_PREDICTION_TIME = 250;
+
+    // default tile cache budget for tiled images, in screens worth of ARGB_8888 pixels. Raised to what the screen can
+    // show at once if that is more, see TiledImageDrawable.minCacheSize.
+    private static final int DEFAULT_TILE_CACHE_SCREENS = 3;
+
+    // upper bound of the default number of parallel tile decoders
+    private static final int MAX_DEFAULT_TILE_DECODERS = 4;
+
+    // default number of new bitmaps, and bytes of them, shown per frame
+    private static final int DEFAULT_FRAME_UPLOAD_BITMAPS = 4;
+    private static final int DEFAULT_FRAME_UPLOAD_BYTES   = 1024 * 1024;
+
+    // default zoom level from which the adaptive decode config decodes at 32 bits per pixel
+    private static final float DEFAULT_DECODE_CONFIG_ZOOM_THRESHOLD = 2f;
+
     private final FlingBehaviour flingBehaviour;
     private final boolean        allowDrag;
     private final boolean        allowDoubleTap;
 
-    // Scale of image ranges from minScale to maxScale, where minScale == 1
-    // when the image is stretched to fit view.
-    private float normalizedScale;
+    // Zoom and pan state: scale, translation, view and image sizes and zoom boundaries.
+    // All the transform math is done on the model; the result is copied into matrix
+    // once per event or animation frame.
+    private final ZoomPanModel model;
 
-    // Matrix applied to image. MSCALE_X and MSCALE_Y should always be equal.
-    // MTRANS_X and MTRANS_Y are the other values used. prevMatrix is the matrix
-    // saved prior to the screen rotating.
+    // Matrix applied to image. Only MSCALE_X, MSCALE_Y (always equal) and MTRANS_X,
+    // MTRANS_Y are used.
     private Matrix  matrix;
-    private Matrix  prevMatrix;
     private State   state;
-    private float   minScale;
-    private float   maxScale;
-    private float   lowerBounceBackScale;
-    private float   upperBounceBackScale;
     private float[] matrixValues;
     private Context context;
 
-    // Size of view and previous view size (ie before rotation)
-    private int viewWidth;
-    private int viewHeight;
-    private int prevViewWidth;
-    private int prevViewHeight;
-
-    // Size of image when it is stretched to fit view. Before and After rotation.
-    private float matchViewWidth;
-    private float matchViewHeight;
-    private float prevMatchViewWidth;
-    private float prevMatchViewHeight;
-
     // After setting image, a value of true means the new image should maintain
     // the zoom of the previous image. False means it should be resized within the view.
     private boolean maintainZoomAfterSetImage;
@@ -138,12 +177,106 @@ public class TouchImageView
     // detect other common gestures
     private GestureDetector mGestureDetector;
 
-    // currently in progress fling runnable
+    // fling runnable, reused for every fling
     private Fling fling;
 
+    // zoom animation, reused for every animated zoom
+    private DoubleTapZoom zoomAnimation;
+
+    // drives the fling and zoom animations from a single frame callback
+    private FrameAnimator animator;
+
+    // applies touch driven matrix changes on the next frame, coalescing all events of a frame
+    private MatrixUpdate matrixUpdate;
+
+    // transform last pushed to the image matrix, used to skip redundant applications
+    private boolean matrixApplied;
+    private float   appliedScale, appliedTransX, appliedTransY;
+
+    // number of matrix applications skipped because nothing changed or one was already pending
+    private long skippedMatrixUpdates;
+
+    // when true touch events are delivered as soon as they arrive instead of once per frame
+    private boolean unbufferedTouchDispatch;
+
+    // time of the oldest touch sample not yet applied to the matrix, 0 if none
+    private long pendingInputTime;
+
+    // input to frame latency of touch driven matrix updates
+    private long inputLatencySamples;
+    private long inputLatencyTotal;
+
+    // duration and interpolator of animated zooms
+    private long         zoomDuration;
+    private Interpolator zoomInterpolator;
+
     // fling listener
     private FlingListener flingListener;
 
+    // informed of where scroll flings will land
+    private FlingPredictionListener flingPredictionListener;
+
+    // informed of the frame statistics of each animation
+    private AnimationStatsListener animationStatsListener;
+
+    // viewport predicted for the current fling or drag, reused for every prediction
+    private RectF   predictedViewport;
+    private boolean viewportPredicted;
+
+    // region of the drawable visible in the view, reported to viewport aware drawables
+    private RectF viewport;
+
+    // byte budget of the tile cache used by tiled images, and of its off heap second tier
+    private int tileCacheSize;
+    private int offHeapTileCacheSize;
+
+    // number of parallel tile decoders used by tiled images
+    private int tileDecoderCount;
+
+    // limits the decoded content shown per frame
+    private UploadBudget uploadBudget;
+
+    // process wide pixel memory budget, and the usage last reported to it
+    private PixelMemoryBudget pixelMemoryBudget;
+    private int               reportedPixelMemoryUsage;
+
+    // executor running background decodes. null for the shared default.
+    private Executor imageLoadExecutor;
+
+    // persistent cache of decoded content for tiled and multi-resolution images, if any
+    private DiskImageCache diskCache;
+
+    // pool asynchronous loads decode into and replaced images go back to, if any
+    private BitmapPool bitmapPool;
+
+    // bitmap displayed by the view that it decoded itself, given to the pool once replaced
+    private Bitmap decodedBitmap;
+
+    // asynchronous image load in progress, if any
+    private ImageLoadTask imageLoad;
+
+    // progressive load in progress, until its drawable is displayed (the drawable then owns it)
+    private ProgressiveImageLoader progressiveLoad;
+
+    // picks the pixel config of decoded content
+    private final DecodePolicy decodePolicy;
+
+    // markers drawn over the image, indexed by their bounds in drawable coordinates
+    private QuadTree<OverlayMarker> overlays;
+    private OverlayPass             overlayPass;
+    private float                   overlayMargin;
+
+    // tappable regions, indexed by their bounds in drawable coordinates
+    private QuadTree<Hotspot>    hotspots;
+    private HotspotSearch        hotspotSearch;
+    private OnHotspotTapListener hotspotTapListener;
+
+    // receives the bounds of markers and hotspots as they are added
+    private RectF indexBounds;
+
+    // hot path counters and timings; null unless enabled
+    private TouchImageMetrics metrics;
+
     /**
      Constructor
 
@@ -152,15 +285,16 @@ public class TouchImageView
      */
     public TouchImageView (final Context context) {
         super (context);
-        minScaleBounceBackMultiplier = DEFAULT_MINIMUM_BOUNCEBACK_MULTIPLIER;
-        maxScaleBounceBackMultiplier = DEFAULT_MAXIMUM_BOUNCEBACK_MULTIPLIER;
-        minScale = DEFAULT_MIN_SCALE;
-        maxScale = DEFAULT_MAX_SCALE;
+        model = new ZoomPanModel (DEFAULT_MIN_SCALE,
+                                  DEFAULT_MAX_SCALE,
+                                  DEFAULT_MINIMUM_BOUNCEBACK_MULTIPLIER,
+                                  DEFAULT_MAXIMUM_BOUNCEBACK_MULTIPLIER);
         flingBehaviour = FlingBehaviour.SCROLL;
         mScaleDetector = new ScaleGestureDetector (context, new ScaleListener ());
         allowDrag = true;
         allowDoubleTap = true;
         maintainZoomAfterSetImage = true;
+        decodePolicy = new DecodePolicy (DecodeConfigPolicy.QUALITY, DEFAULT_DECODE_CONFIG_ZOOM_THRESHOLD);
         sharedConstructing (context);
     }
 
@@ -195,13 +329,12 @@ public class TouchImageView
         final int fling;
 
         try {
-            minScale = ta.getFloat (R.styleable.TouchImageView_minScale, DEFAULT_MIN_SCALE);
-            maxScale = ta.getFloat (R.styleable.TouchImageView_maxScale, DEFAULT_MAX_SCALE);
-
-            minScaleBounceBackMultiplier = ta.getFloat (R.styleable.TouchImageView_minScaleBounceBackMultiplier,
-                                                        DEFAULT_MINIMUM_BOUNCEBACK_MULTIPLIER);
-            maxScaleBounceBackMultiplier = ta.getFloat (R.styleable.TouchImageView_maxScaleBounceBackMultiplier,
-                                                        DEFAULT_MAXIMUM_BOUNCEBACK_MULTIPLIER);
+            model = new ZoomPanModel (ta.getFloat (R.styleable.TouchImageView_minScale, DEFAULT_MIN_SCALE),
+                                      ta.getFloat (R.styleable.TouchImageView_maxScale, DEFAULT_MAX_SCALE),
+                                      ta.getFloat (R.styleable.TouchImageView_minScaleBounceBackMultiplier,
+                                                   DEFAULT_MINIMUM_BOUNCEBACK_MULTIPLIER),
+                                      ta.getFloat (R.styleable.TouchImageView_maxScaleBounceBackMultiplier,
+                                                   DEFAULT_MAXIMUM_BOUNCEBACK_MULTIPLIER));
 
             allowDrag = ta.getBoolean (R.styleable.TouchImageView_allowDrag, true);
             allowDoubleTap = ta.getBoolean (R.styleable.TouchImageView_allowDoubleTap, true);
@@ -209,6 +342,11 @@ public class TouchImageView
 
             fling = ta.getInt (R.styleable.TouchImageView_flingBehaviour, FlingBehaviour.SCROLL.ordinal ());
             allowScale = ta.getBoolean (R.styleable.TouchImageView_allowScale, true);
+
+            decodePolicy = new DecodePolicy (
+              DecodeConfigPolicy.values ()[ta.getInt (R.styleable.TouchImageView_decodeConfig,
+                                                      DecodeConfigPolicy.QUALITY.ordinal ())],
+              ta.getFloat (R.styleable.TouchImageView_decodeConfigZoomThreshold, DEFAULT_DECODE_CONFIG_ZOOM_THRESHOLD));
         } finally {
             ta.recycle ();
         }
@@ -227,11 +365,44 @@ public class TouchImageView
         this.context = context;
         mGestureDetector = new GestureDetector (context, new GestureListener ());
         matrix = new Matrix ();
-        prevMatrix = new Matrix ();
         matrixValues = new float[9];
-        normalizedScale = 1;
-        lowerBounceBackScale = minScaleBounceBackMultiplier * minScale;
-        upperBounceBackScale = maxScaleBounceBackMultiplier * maxScale;
+        viewport = new RectF ();
+        predictedViewport = new RectF ();
+        overlays = new QuadTree<OverlayMarker> ();
+        overlayPass = new OverlayPass ();
+        indexBounds = new RectF ();
+        hotspots = new QuadTree<Hotspot> ();
+        hotspotSearch = new HotspotSearch ();
+        fling = new Fling ();
+        zoomAnimation = new DoubleTapZoom ();
+        matrixUpdate = new MatrixUpdate ();
+        zoomDuration = DEFAULT_ZOOM_DURATION;
+        zoomInterpolator = new AccelerateDecelerateInterpolator ();
+        animator = new FrameAnimator (FrameClocks.createDefault (), new FrameAnimator.FrameListener () {
+            @Override
+            public void onFrameComplete (final long frameTimeNanos) {
+                if (0 != pendingInputTime) {
+                    inputLatencySamples++;
+                    //
+                    // event times and frame times both come from the monotonic clock
+                    //
+                    inputLatencyTotal += Math.max (0, frameTimeNanos / 1000000L - pendingInputTime);
+                    pendingInputTime = 0;
+                }
+                applyMatrix ();
+                if (null != metrics) {
+                    metrics.frameCompleted ();
+                }
+            }
+        });
+        final DisplayMetrics metrics = context.getResources ().getDisplayMetrics ();
+        tileCacheSize = Math.max (DEFAULT_TILE_CACHE_SCREENS * metrics.widthPixels * metrics.heightPixels * 4,
+                                  TiledImageDrawable.minCacheSize (metrics.widthPixels, metrics.heightPixels));
+        offHeapTileCacheSize = tileCacheSize;
+        uploadBudget = new UploadBudget (DEFAULT_FRAME_UPLOAD_BITMAPS, DEFAULT_FRAME_UPLOAD_BYTES);
+        pixelMemoryBudget = PixelMemoryBudget.getInstance (context);
+        tileDecoderCount = Math.max (1, Math.min (MAX_DEFAULT_TILE_DECODERS,
+                                                  Runtime.getRuntime ().availableProcessors ()));
         setImageMatrix (matrix);
         setScaleType (ScaleType.MATRIX);
         setState (State.NONE);
@@ -255,6 +426,58 @@ public class TouchImageView
         flingListener = listener;
     }
 
+    /**
+     register a @{link FlingPredictionListener} instance, informed of where each scroll fling will land as soon as it
+     starts.
+
+     @param listener
+     listener to register. Provide 'null' to clear current listener.
+     */
+    public void setFlingPredictionListener (final FlingPredictionListener listener) {
+        flingPredictionListener = listener;
+    }
+
+    /**
+     register a @{link AnimationStatsListener} instance, informed of the frame statistics of each animated zoom and
+     fling when it ends. Statistics are only collected while a listener is registered.
+
+     @param listener
+     listener to register. Provide 'null' to clear current listener.
+     */
+    public void setAnimationStatsListener (final AnimationStatsListener listener) {
+        animationStatsListener = listener;
+    }
+
+    /**
+     Start collecting the frame statistics of an animation, if anyone is listening. Statistics of an animation of
+     the same type still running are delivered first, as interrupted.
+
+     @param requestedNanos
+     duration the animation was asked to last, or -1 if not known
+     */
+    private void startAnimationStats (final AnimationFrameStats stats, final long requestedNanos) {
+        finishAnimationStats (stats, false);
+        if (null == animationStatsListener) {
+            return;
+        }
+
+        final WindowManager windowManager = (WindowManager) context.getSystemService (Context.WINDOW_SERVICE);
+        final float refreshRate = windowManager.getDefaultDisplay ().getRefreshRate ();
+        stats.start (requestedNanos,
+                     refreshRate > 0
+                     ? (long) (1000000000L / refreshRate)
+                     : DEFAULT_FRAME_PERIOD_NANOS);
+    }
+
+    /**
+     Deliver the frame statistics of an animation that ended, if they were being collected.
+     */
+    private void finishAnimationStats (final AnimationFrameStats stats, final boolean completed) {
+        if (stats.finish (completed) && null != animationStatsListener) {
+            animationStatsListener.onAnimationFinished (stats);
+        }
+    }
+
     /**
      Is pinch zoom enabled?
 
@@ -291,366 +514,1417 @@ public class TouchImageView
         return flingBehaviour;
     }
 
-    @Override
-    public void setImageResource (int resId) {
-        super.setImageResource (resId);
-        setImageCalled ();
-        savePreviousImageValues ();
-        fitImageToView ();
-    }
-
-    @Override
-    public void setImageBitmap (Bitmap bm) {
-        super.setImageBitmap (bm);
-        setImageCalled ();
-        savePreviousImageValues ();
-        fitImageToView ();
-    }
+    /**
+     Get the duration of animated zooms (double tap, bounce back after a pinch).
 
-    @Override
-    public void setImageDrawable (Drawable drawable) {
-        super.setImageDrawable (drawable);
-        setImageCalled ();
-        savePreviousImageValues ();
-        fitImageToView ();
+     @return duration in milliseconds
+     */
+    public long getZoomAnimationDuration () {
+        return zoomDuration;
     }
 
-    @Override
-    public void setImageURI (Uri uri) {
-        super.setImageURI (uri);
-        setImageCalled ();
-        savePreviousImageValues ();
-        fitImageToView ();
-    }
+    /**
+     Set the duration of animated zooms (double tap, bounce back after a pinch). Defaults to 500ms.
 
-    private void setImageCalled () {
-        if (!maintainZoomAfterSetImage) {
-            setImageCalledRecenterImage = true;
-        }
+     @param millis
+     duration in milliseconds. 0 jumps straight to the target zoom on the next frame.
+     */
+    public void setZoomAnimationDuration (final long millis) {
+        zoomDuration = millis;
     }
 
     /**
-     Save the current matrix and view dimensions
-     in the prevMatrix and prevView variables.
+     Get the interpolator of animated zooms.
+
+     @return the zoom interpolator
      */
-    private void savePreviousImageValues () {
-        if (matrix != null) {
-            matrix.getValues (matrixValues);
-            prevMatrix.setValues (matrixValues);
-            prevMatchViewHeight = matchViewHeight;
-            prevMatchViewWidth = matchViewWidth;
-            prevViewHeight = viewHeight;
-            prevViewWidth = viewWidth;
-        }
+    public Interpolator getZoomInterpolator () {
+        return zoomInterpolator;
     }
 
-    @Override
-    public Parcelable onSaveInstanceState () {
-        Bundle bundle = new Bundle ();
-        bundle.putParcelable (KEY_INSTANCE_STATE, super.onSaveInstanceState ());
-        bundle.putFloat (KEY_NORMALIZED_SCALE, normalizedScale);
-        bundle.putFloat (KEY_MATCH_VIEW_HEIGHT, matchViewHeight);
-        bundle.putFloat (KEY_MATCH_VIEW_WIDTH, matchViewWidth);
-        bundle.putInt (KEY_VIEW_WIDTH, viewWidth);
-        bundle.putInt (KEY_VIEW_HEIGHT, viewHeight);
-        matrix.getValues (matrixValues);
-        bundle.putFloatArray (KEY_MATRIX_VALUES, matrixValues);
-        return bundle;
-    }
+    /**
+     Set the interpolator of animated zooms. Defaults to an AccelerateDecelerateInterpolator.
 
-    @Override
-    public void onRestoreInstanceState (Parcelable state) {
-        if (state instanceof Bundle) {
-            Bundle bundle = (Bundle) state;
-            normalizedScale = bundle.getFloat (KEY_NORMALIZED_SCALE);
-            matrixValues = bundle.getFloatArray (KEY_MATRIX_VALUES);
-            prevMatrix.setValues (matrixValues);
-            prevMatchViewHeight = bundle.getFloat (KEY_MATCH_VIEW_HEIGHT);
-            prevMatchViewWidth = bundle.getFloat (KEY_MATCH_VIEW_WIDTH);
-            prevViewHeight = bundle.getInt (KEY_VIEW_HEIGHT);
-            prevViewWidth = bundle.getInt (KEY_VIEW_WIDTH);
-            super.onRestoreInstanceState (bundle.getParcelable (KEY_INSTANCE_STATE));
-            return;
+     @param interpolator
+     the zoom interpolator
+     */
+    public void setZoomInterpolator (final Interpolator interpolator) {
+        if (null == interpolator) {
+            throw new IllegalArgumentException ("Interpolator may not be null");
         }
 
-        super.onRestoreInstanceState (state);
+        zoomInterpolator = interpolator;
     }
 
     /**
-     Get the max zoom multiplier.
+     Set the source of animation frames. All animations advance based on the frame timestamps
+     provided by this clock. Defaults to the display's vsync.
 
-     @return max zoom multiplier.
+     @param clock
+     frame source. Provide 'null' to restore the default.
      */
-    public float getMaxZoom () {
-        return maxScale;
+    public void setFrameClock (final FrameClock clock) {
+        animator.setClock (null == clock
+                           ? FrameClocks.createDefault ()
+                           : clock);
     }
 
     /**
-     Set the max zoom multiplier.
+     Get the executor that decodes images in the background (asynchronous loads, tiles and resolution levels).
 
-     @param max
-     max zoom multiplier.
+     @return the image load executor
      */
-    public void setMaxZoom (float max) {
-        maxScale = max;
-        upperBounceBackScale = maxScaleBounceBackMultiplier * maxScale;
+    public Executor getImageLoadExecutor () {
+        return null == imageLoadExecutor
+               ? Decoding.defaultExecutor ()
+               : imageLoadExecutor;
     }
 
     /**
-     Get the min zoom multiplier.
+     Set the executor that decodes images in the background. Defaults to a single low priority thread shared by all
+     instances. Takes effect for images set from now on.
 
-     @return min zoom multiplier.
+     @param executor
+     executor to decode on. Provide 'null' to restore the default.
      */
-    public float getMinZoom () {
-        return minScale;
+    public void setImageLoadExecutor (final Executor executor) {
+        imageLoadExecutor = executor;
     }
 
     /**
-     Set the min zoom multiplier.
+     Asynchronous version of {@link #setImageURI(android.net.Uri)}. The image is decoded on the
+     {@link #getImageLoadExecutor() image load executor} and displayed once ready; the current image stays until
+     then.
 
-     @param min
-     min zoom multiplier.
+     @param uri
+     image to display
      */
-    public void setMinZoom (float min) {
-        minScale = min;
-        lowerBounceBackScale = minScaleBounceBackMultiplier * minScale;
+    public void setImageURIAsync (final Uri uri) {
+        setImageURIAsync (uri, null);
     }
 
     /**
-     Whether to maintain the current zoom level when a new image is applied. Defaults to false.
+     Asynchronous version of {@link #setImageURI(android.net.Uri)}. The image is decoded on the
+     {@link #getImageLoadExecutor() image load executor} and displayed once ready; the current image stays until
+     then. Setting another image (synchronously or not) before the decode completes cancels it, in which case the
+     listener is not called.
 
-     @param maintainZoom
-     true to maintain the zoom level, false otherwise.
+     @param uri
+     image to display
+     @param listener
+     informed on the UI thread when the image has been displayed or could not be loaded. May be null.
      */
-    public void maintainZoomAfterSetImage (boolean maintainZoom) {
-        maintainZoomAfterSetImage = maintainZoom;
+    public void setImageURIAsync (final Uri uri, final OnImageLoadListener listener) {
+        setImageSourceAsync (ImageSource.fromUri (uri), listener);
     }
 
     /**
-     Get the current zoom. This is the zoom level relative to the initial (fill view) scale, not the original resource.
+     Same as {@link #setImageURIAsync(android.net.Uri, OnImageLoadListener)}, reading the image from any source.
 
-     @return current zoom multiplier.
+     @param source
+     image to display
+     @param listener
+     informed on the UI thread when the image has been displayed or could not be loaded, with the image's uri if
+     the source has one ({@link ImageSource#getUri()}). May be null.
      */
-    public float getCurrentZoom () {
-        return normalizedScale;
+    public void setImageSourceAsync (final ImageSource source, final OnImageLoadListener listener) {
+        cancelImageLoad ();
+
+        final ImageSource.Reader reader;
+        try {
+            reader = source.open (context);
+        } catch (IOException e) {
+            if (null != listener) {
+                listener.onImageLoadFailed (source.getUri (), e);
+            }
+            return;
+        }
+
+        imageLoad = new ImageLoadTask (source.getUri (), reader, listener);
+        getImageLoadExecutor ().execute (imageLoad);
     }
 
     /**
-     For a given point on the view (ie, a touch event), returns the
-     point relative to the original drawable's coordinate system.
+     Cancel the asynchronous image load in progress, if any. The current image is left as is.
+     */
+    public void cancelImageLoad () {
+        if (null != imageLoad) {
+            imageLoad.cancel ();
+            imageLoad = null;
+        }
 
-     @param x
-     x-coordinate of touch event
-     @param y
-     y-coordinate of touch event
+        if (null != progressiveLoad) {
+            progressiveLoad.cancel ();
+            progressiveLoad = null;
+        }
+    }
 
-     @return PointF relative to original drawable's coordinate system.
+    /**
+     Display an image while it is still arriving, ie, from a slow source. The stream is read on a background thread.
+     The image is displayed as soon as its dimensions are known, first as a low resolution preview (the thumbnail
+     embedded in its EXIF data, or a decode of the data received so far; progressive JPEGs give the best previews),
+     then refined as more data arrives, and finally replaced by the full image once the stream ends. The zoom and pan
+     are kept throughout. Setting another image (synchronously or not) cancels the load and closes the stream.
+
+     @param in
+     image data. Owned by the view from now on and closed once read.
+     @param listener
+     informed on the UI thread when the full image has been displayed (with a null uri), or could not be loaded. In
+     the latter case the best preview received, if any, stays displayed. May be null.
      */
-    public PointF getDrawablePointFromTouchPoint (float x, float y) {
-        return transformCoordTouchToBitmap (x, y, true);
+    public void setProgressiveImageStream (final InputStream in, final OnImageLoadListener listener) {
+        cancelImageLoad ();
+
+        final DisplayMetrics metrics = getResources ().getDisplayMetrics ();
+        final ProgressiveLoad load = new ProgressiveLoad (listener);
+        progressiveLoad = new ProgressiveImageLoader (in,
+                                                      load,
+                                                      decodePolicy,
+                                                      getWidth () > 0
+                                                      ? getWidth ()
+                                                      : metrics.widthPixels,
+                                                      getHeight () > 0
+                                                      ? getHeight ()
+                                                      : metrics.heightPixels,
+                                                      maintainZoomAfterSetImage
+                                                      ? getCurrentZoom ()
+                                                      : 1f);
+        load.loader = progressiveLoad;
+        progressiveLoad.start ();
     }
 
     /**
-     For a given point on the view (ie, a touch event), returns the
-     point relative to the original drawable's coordinate system.
+     Get the byte budget of the tile cache used by tiled images.
 
-     @param p
-     coordinates of touch event
-
-     @return PointF relative to original drawable's coordinate system.
+     @return tile cache size in bytes
      */
-    public PointF getDrawablePointFromTouchPoint (PointF p) {
-        return transformCoordTouchToBitmap (p.x, p.y, true);
+    public int getTileCacheSize () {
+        return tileCacheSize;
     }
 
     /**
-     Performs boundary checking and fixes the image matrix if it
-     is out of bounds.
-     */
-    private void fixTrans () {
-        matrix.getValues (matrixValues);
-        float transX = matrixValues[Matrix.MTRANS_X];
-        float transY = matrixValues[Matrix.MTRANS_Y];
+     Set the byte budget of the tile cache used by tiled images. Defaults to three screens worth of pixels, or to the
+     tiles the screen can show at once plus a ring around them if that is more. Visible tiles are kept whatever the
+     budget: the cache only evicts tiles that are off screen.
 
-        float fixTransX = getFixTrans (transX, viewWidth, getImageWidth ());
-        float fixTransY = getFixTrans (transY, viewHeight, getImageHeight ());
+     @param bytes
+     tile cache size in bytes
+     */
+    public void setTileCacheSize (final int bytes) {
+        tileCacheSize = bytes;
 
-        if (fixTransX != 0 || fixTransY != 0) {
-            matrix.postTranslate (fixTransX, fixTransY);
+        final Drawable drawable = getDrawable ();
+        if (drawable instanceof TiledImageDrawable) {
+            ((TiledImageDrawable) drawable).setCacheSize (bytes);
         }
     }
 
     /**
-     When transitioning from zooming from focus to zoom from center (or vice versa)
-     the image can become unaligned within the view. This is apparent when zooming
-     quickly. When the content size is less than the view size, the content will often
-     be centered incorrectly within the view. fixScaleTrans first calls fixTrans() and
-     then makes sure the image is centered correctly within the view.
-     */
-    private void fixScaleTrans () {
-        fixTrans ();
-        matrix.getValues (matrixValues);
-        if (getImageWidth () < viewWidth) {
-            matrixValues[Matrix.MTRANS_X] = (viewWidth - getImageWidth ()) / 2;
-        }
+     Get the byte budget of the second tier of the tile cache, which keeps the pixels of tiles evicted from memory
+     outside of the Java heap.
 
-        if (getImageHeight () < viewHeight) {
-            matrixValues[Matrix.MTRANS_Y] = (viewHeight - getImageHeight ()) / 2;
-        }
-        matrix.setValues (matrixValues);
+     @return off heap tile cache size in bytes
+     */
+    public int getOffHeapTileCacheSize () {
+        return offHeapTileCacheSize;
     }
 
-    private float getFixTrans (float trans, float viewSize, float contentSize) {
-        float minTrans, maxTrans;
+    /**
+     Set the byte budget of the second tier of the tile cache. Tiles evicted from the (first tier) tile cache have
+     their pixels copied to direct buffers outside of the Java heap, from which they are restored much faster than
+     they can be decoded again when the user pans back. Defaults to the size of the tile cache.
 
-        if (contentSize <= viewSize) {
-            minTrans = 0;
-            maxTrans = viewSize - contentSize;
-        } else {
-            minTrans = viewSize - contentSize;
-            maxTrans = 0;
-        }
+     @param bytes
+     off heap tile cache size in bytes. 0 disables the second tier.
+     */
+    public void setOffHeapTileCacheSize (final int bytes) {
+        offHeapTileCacheSize = bytes;
 
-        if (trans < minTrans) {
-            return -trans + minTrans;
+        final Drawable drawable = getDrawable ();
+        if (drawable instanceof TiledImageDrawable) {
+            ((TiledImageDrawable) drawable).setOffHeapCacheSize (bytes);
         }
-        if (trans > maxTrans) {
-            return -trans + maxTrans;
-        }
-        return 0;
     }
 
-    private float getFixDragTrans (float delta, float viewSize, float contentSize) {
-        if (contentSize <= viewSize) {
-            return 0;
-        }
-        return delta;
-    }
+    /**
+     Get the number of times a tile that became visible was found in a tier of the tile cache of the current tiled
+     image.
+
+     @param tier
+     {@link #TILE_CACHE_MEMORY} or {@link #TILE_CACHE_OFF_HEAP}
 
-    private float getImageWidth () {
-        return matchViewWidth * normalizedScale;
+     @return hit count, 0 if the current image is not tiled
+     */
+    public long getTileCacheHitCount (final int tier) {
+        final Drawable drawable = getDrawable ();
+        return drawable instanceof TiledImageDrawable
+               ? ((TiledImageDrawable) drawable).getHitCount (tier)
+               : 0;
     }
 
-    private float getImageHeight () {
-        return matchViewHeight * normalizedScale;
+    /**
+     Get the number of times a tile that became visible was not found in a tier of the tile cache of the current
+     tiled image. Misses of the off heap tier are decoded.
+
+     @param tier
+     {@link #TILE_CACHE_MEMORY} or {@link #TILE_CACHE_OFF_HEAP}
+
+     @return miss count, 0 if the current image is not tiled
+     */
+    public long getTileCacheMissCount (final int tier) {
+        final Drawable drawable = getDrawable ();
+        return drawable instanceof TiledImageDrawable
+               ? ((TiledImageDrawable) drawable).getMissCount (tier)
+               : 0;
     }
 
-    @Override
-    protected void onMeasure (int widthMeasureSpec, int heightMeasureSpec) {
-        Drawable drawable = getDrawable ();
-        if (drawable == null || drawable.getIntrinsicWidth () == 0 || drawable.getIntrinsicHeight () == 0) {
-            setMeasuredDimension (0, 0);
-            return;
-        }
+    /**
+     Get the persistent cache of decoded content used by tiled and multi-resolution images.
 
-        int drawableWidth = drawable.getIntrinsicWidth ();
-        int drawableHeight = drawable.getIntrinsicHeight ();
-        int widthSize = MeasureSpec.getSize (widthMeasureSpec);
-        int widthMode = MeasureSpec.getMode (widthMeasureSpec);
-        int heightSize = MeasureSpec.getSize (heightMeasureSpec);
-        int heightMode = MeasureSpec.getMode (heightMeasureSpec);
-        viewWidth = setViewSize (widthMode, widthSize, drawableWidth);
-        viewHeight = setViewSize (heightMode, heightSize, drawableHeight);
+     @return the disk cache, or null if none is used
+     */
+    public DiskImageCache getDiskCache () {
+        return diskCache;
+    }
 
-        //
-        // Set view dimensions
-        //
-        setMeasuredDimension (viewWidth, viewHeight);
+    /**
+     Set a persistent cache of decoded content for tiled and multi-resolution images. Resolution levels, base images
+     and tiles are stored in it as they are decoded, so opening the same image again (even after a process restart)
+     reads them back instead of decoding them. The same cache can be shared by all views. Takes effect for images set
+     from now on.
 
-        //
-        // Fit content within view
-        //
-        fitImageToView ();
+     @param cache
+     disk cache. Provide 'null' to stop caching.
+     */
+    public void setDiskCache (final DiskImageCache cache) {
+        diskCache = cache;
     }
 
     /**
-     If the normalizedScale is equal to 1, then the image is made to fit the screen. Otherwise,
-     it is made to fit the screen according to the dimensions of the previous image matrix. This
-     allows the image to maintain its zoom after rotation.
+     Get the pool of bitmaps used by asynchronous image loads.
+
+     @return the bitmap pool, or null if none is used
      */
-    private void fitImageToView () {
-        Drawable drawable = getDrawable ();
-        if (drawable == null || drawable.getIntrinsicWidth () == 0 || drawable.getIntrinsicHeight () == 0) {
-            return;
-        }
-        if (matrix == null || prevMatrix == null) {
-            return;
-        }
+    public BitmapPool getBitmapPool () {
+        return bitmapPool;
+    }
 
-        int drawableWidth = drawable.getIntrinsicWidth ();
-        int drawableHeight = drawable.getIntrinsicHeight ();
+    /**
+     Set a pool of bitmaps for {@link #setImageURIAsync(android.net.Uri) asynchronous image loads} to decode into.
+     Once replaced, images loaded that way go back to the pool (so do not keep references to their bitmaps), to be
+     reused by the next image of the same size. The same pool can be shared by all views, ie, the pages of a gallery.
+     Bitmaps set with {@link #setImageBitmap(android.graphics.Bitmap)} are never pooled.
 
-        //
-        // Scale image for view
-        //
-        float scaleX = (float) viewWidth / drawableWidth;
-        float scaleY = (float) viewHeight / drawableHeight;
-        float scale = Math.min (scaleX, scaleY);
+     @param pool
+     bitmap pool. Provide 'null' to stop pooling.
+     */
+    public void setBitmapPool (final BitmapPool pool) {
+        bitmapPool = pool;
+    }
 
-        //
-        // Center the image
-        //
-        float redundantYSpace = viewHeight - (scale * drawableHeight);
-        float redundantXSpace = viewWidth - (scale * drawableWidth);
-        matchViewWidth = viewWidth - redundantXSpace;
-        matchViewHeight = viewHeight - redundantYSpace;
-        if (normalizedScale == 1 || setImageCalledRecenterImage) {
-            //
-            // Stretch and center image to fit view
-            //
-            matrix.setScale (scale, scale);
-            matrix.postTranslate (redundantXSpace / 2, redundantYSpace / 2);
-            normalizedScale = 1;
-            setImageCalledRecenterImage = false;
-        } else {
-            prevMatrix.getValues (matrixValues);
+    /**
+     Get the policy picking the pixel config images are decoded to.
 
+     @return decode config policy
+     */
+    public DecodeConfigPolicy getDecodeConfigPolicy () {
+        return decodePolicy.getPolicy ();
+    }
+
+    /**
+     Set the policy picking the pixel config images are decoded to. Opaque images (JPEG) decoded at 16 bits per pixel
+     take half the memory; images that may be translucent are always decoded at 32 bits per pixel. Multi-resolution
+     and tiled images pick the config of each level as it is decoded; other images are decoded once, at the config
+     for the zoom level they are set at. Takes effect for content decoded from now on.
+
+     @param policy
+     decode config policy. Defaults to {@link DecodeConfigPolicy#QUALITY}.
+     */
+    public void setDecodeConfigPolicy (final DecodeConfigPolicy policy) {
+        decodePolicy.setPolicy (policy);
+    }
+
+    /**
+     Get the zoom level from which {@link DecodeConfigPolicy#ADAPTIVE} decodes at 32 bits per pixel.
+
+     @return zoom threshold
+     */
+    public float getDecodeConfigZoomThreshold () {
+        return decodePolicy.getZoomThreshold ();
+    }
+
+    /**
+     Set the zoom level from which {@link DecodeConfigPolicy#ADAPTIVE} decodes at 32 bits per pixel. A level of
+     a multi-resolution or tiled image is decoded at 32 bits if it is shown at full detail at this zoom or above.
+
+     @param zoom
+     zoom threshold, relative to the image fitted to the view. Defaults to 2.
+     */
+    public void setDecodeConfigZoomThreshold (final float zoom) {
+        decodePolicy.setZoomThreshold (zoom);
+    }
+
+    /**
+     Get the number of bitmaps decoded at 16 bits per pixel by the decode config policy.
+
+     @return reduced depth decode count
+     */
+    public long getReducedDepthDecodeCount () {
+        return decodePolicy.getReducedDecodeCount ();
+    }
+
+    /**
+     Get the number of bytes the decode config policy saved, compared to decoding everything at 32 bits per pixel.
+     Counts every bitmap decoded by this view, including those since released.
+
+     @return bytes saved
+     */
+    public long getDecodeConfigBytesSaved () {
+        return decodePolicy.getBytesSaved ();
+    }
+
+    /**
+     Get the number of parallel decoders used by tiled images.
+
+     @return tile decoder count
+     */
+    public int getTileDecoderCount () {
+        return tileDecoderCount;
+    }
+
+    /**
+     Set the number of parallel decoders used by tiled images. Each decoder has its own thread and its own handle on
+     the image, so more decoders load tiles faster on multi-core devices at the cost of memory. Defaults to the
+     number of cores, up to 4. Takes effect for images set from now on.
+
+     @param count
+     tile decoder count (at least 1)
+     */
+    public void setTileDecoderCount (final int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException ("At least one tile decoder is required");
+        }
+
+        tileDecoderCount = count;
+    }
+
+    /**
+     Get the tile decode throughput of the current tiled image.
+
+     @return tiles decoded per second of decoding, 0 if the current image is not tiled or no tile has been decoded
+     */
+    public float getTileDecodeThroughput () {
+        final Drawable drawable = getDrawable ();
+        return drawable instanceof TiledImageDrawable
+               ? ((TiledImageDrawable) drawable).getDecodeThroughput ()
+               : 0f;
+    }
+
+    /**
+     Get the number of bytes of pixels held by the current image, including decoded content waiting to be shown.
+
+     @return pixel memory usage in bytes
+     */
+    public int getPixelMemoryUsage () {
+        final Drawable drawable = getDrawable ();
+        if (drawable instanceof DecodingDrawable) {
+            return ((DecodingDrawable) drawable).getByteCount ();
+        }
+
+        if (drawable instanceof BitmapDrawable) {
+            final Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap ();
+            return null == bitmap || bitmap.isRecycled ()
+                   ? 0
+                   : Decoding.byteCount (bitmap);
+        }
+
+        return 0;
+    }
+
+    /**
+     Get the pixel memory budget shared by all instances.
+
+     @return the process wide pixel memory budget
+     */
+    public PixelMemoryBudget getPixelMemoryBudget () {
+        return pixelMemoryBudget;
+    }
+
+    /**
+     Drop high resolution content of the current image to save memory. Called by the {@link PixelMemoryBudget}.
+
+     @param level
+     {@link DecodingDrawable#TRIM_OFF_VIEWPORT} or {@link DecodingDrawable#TRIM_TO_BASE}
+     */
+    void trimPixelMemory (final int level) {
+        final Drawable drawable = getDrawable ();
+        if (drawable instanceof DecodingDrawable) {
+            ((DecodingDrawable) drawable).trimMemory (level);
+        }
+    }
+
+    /**
+     Get the maximum number of newly decoded bitmaps (ie, tiles) shown per frame.
+
+     @return bitmaps per frame
+     */
+    public int getFrameUploadBitmaps () {
+        return uploadBudget.getMaxBitmaps ();
+    }
+
+    /**
+     Get the maximum number of bytes of newly decoded bitmaps shown per frame.
+
+     @return bytes per frame
+     */
+    public int getFrameUploadBytes () {
+        return uploadBudget.getMaxBytes ();
+    }
+
+    /**
+     Limit how much newly decoded content becomes visible in a single frame. Every new bitmap has to be uploaded to
+     the renderer the first time it is drawn; showing too many at once makes that frame late and the animation
+     stutter. Content over the budget is shown in later frames, closest to the center of the view first. At least one
+     bitmap is shown per frame regardless of the budget. Defaults to 4 bitmaps and 1MB per frame.
+
+     @param maxBitmaps
+     new bitmaps shown per frame
+     @param maxBytes
+     bytes of new bitmaps shown per frame
+     */
+    public void setFrameUploadBudget (final int maxBitmaps, final int maxBytes) {
+        uploadBudget.set (maxBitmaps, maxBytes);
+    }
+
+    /**
+     Get the number of frames that had newly decoded content to show.
+
+     @return frame count
+     */
+    public long getFrameUploadFrames () {
+        return uploadBudget.getFrames ();
+    }
+
+    /**
+     Get the number of frames in which the upload budget held newly decoded content back for later frames.
+
+     @return frame count
+     */
+    public long getFrameUploadBudgetHits () {
+        return uploadBudget.getLimitedFrames ();
+    }
+
+    /**
+     Display a very large image in tiled mode. Instead of decoding the whole image, only the tiles intersecting the
+     visible region are decoded, at a resolution matching the current zoom level, so memory use depends on the
+     size of the screen rather than the size of the image. Tiles are decoded in the background by
+     {@link #getTileDecoderCount() parallel decoders}, closest to the center of the view first; a low resolution
+     version of the image is shown until they are available.
+
+     @param uri
+     image to display
+
+     @throws IOException
+     if the image cannot be opened or is not in a format supported by region decoding (JPEG, PNG)
+     @throws java.lang.UnsupportedOperationException
+     on platforms without region decoding (before API 10)
+     */
+    public void setTiledImageURI (final Uri uri) throws IOException {
+        setTiledImageSource (ImageSource.fromUri (uri));
+    }
+
+    /**
+     Same as {@link #setTiledImageURI(android.net.Uri)}, reading the image from any source.
+
+     @param source
+     image to display
+
+     @throws IOException
+     if the image cannot be opened or is not in a format supported by region decoding (JPEG, PNG)
+     @throws java.lang.UnsupportedOperationException
+     on platforms without region decoding (before API 10)
+     */
+    @TargetApi (Build.VERSION_CODES.GINGERBREAD_MR1)
+    public void setTiledImageSource (final ImageSource source) throws IOException {
+        if (VERSION.SDK_INT < VERSION_CODES.GINGERBREAD_MR1) {
+            throw new UnsupportedOperationException ("Tiled images require API 10");
+        }
+
+        //
+        // Each decoder gets its own reader: descriptors share their file offset with their duplicates
+        //
+        final ImageSource.Reader first = source.open (context);
+        final ImageSource.Reader[] readers =
+          new ImageSource.Reader[Math.min (tileDecoderCount, first.maxRegionDecoders ())];
+        readers[0] = first;
+        try {
+            for (int i = 1; i < readers.length; i++) {
+                readers[i] = source.open (context);
+            }
+        } catch (IOException e) {
+            for (final ImageSource.Reader reader : readers) {
+                if (null != reader) {
+                    reader.close ();
+                }
+            }
+            throw e;
+        }
+
+        final DisplayMetrics metrics = getResources ().getDisplayMetrics ();
+        final TiledImageDrawable drawable = new TiledImageDrawable (readers,
+                                                                    tileCacheSize,
+                                                                    offHeapTileCacheSize,
+                                                                    uploadBudget,
+                                                                    metrics.widthPixels,
+                                                                    metrics.heightPixels,
+                                                                    diskCache,
+                                                                    diskCacheKey (first),
+                                                                    decodePolicy);
+
+        setImageDrawable (drawable);
+    }
+
+    /**
+     Display an image in multi-resolution mode. Rather than keeping the full resolution bitmap in memory, a version
+     sized to the view is decoded when the image is fitted, and higher resolutions are decoded in the background
+     only once the zoom level needs them (never beyond the image's own resolution). The lower resolution stays on
+     screen until the higher one is ready.
+
+     @param uri
+     image to display
+
+     @throws IOException
+     if the image cannot be opened or decoded
+     */
+    public void setMultiResolutionImageURI (final Uri uri) throws IOException {
+        setMultiResolutionImageSource (ImageSource.fromUri (uri));
+    }
+
+    /**
+     Same as {@link #setMultiResolutionImageURI(android.net.Uri)}, reading the image from any source.
+
+     @param source
+     image to display
+
+     @throws IOException
+     if the image cannot be opened or decoded
+     */
+    public void setMultiResolutionImageSource (final ImageSource source) throws IOException {
+        final ImageSource.Reader reader = source.open (context);
+        final MultiResolutionDrawable drawable;
+
+        try {
+            drawable = MultiResolutionDrawable.create (reader,
+                                                       getImageLoadExecutor (),
+                                                       diskCache,
+                                                       diskCacheKey (reader),
+                                                       decodePolicy);
+        } catch (IOException e) {
+            reader.close ();
+            throw e;
+        }
+
+        setImageDrawable (drawable);
+    }
+
+    /**
+     @return key of an image in the disk cache, or null if there is no disk cache or the image cannot be identified
+     */
+    private String diskCacheKey (final ImageSource.Reader reader) {
+        return null == diskCache
+               ? null
+               : reader.cacheKey ();
+    }
+
+    @Override
+    public void setImageResource (int resId) {
+        releaseImage (null);
+        super.setImageResource (resId);
+        setImageCalled ();
+        savePreviousImageValues ();
+        fitImageToView ();
+    }
+
+    /**
+     Bitmaps larger than what all devices can draw as a single texture are drawn in chunks, copied from the bitmap as
+     they come into view. The bitmap itself is never modified nor recycled.
+     */
+    @Override
+    public void setImageBitmap (Bitmap bm) {
+        if (null != bm && ChunkedBitmapDrawable.needsChunks (bm)) {
+            final int density = getResources ().getDisplayMetrics ().densityDpi;
+            releaseImage (null);
+            super.setImageDrawable (new ChunkedBitmapDrawable (bm,
+                                                               bm.getScaledWidth (density),
+                                                               bm.getScaledHeight (density)));
+            setImageCalled ();
+            savePreviousImageValues ();
+            fitImageToView ();
+            return;
+        }
+
+        releaseImage (null);
+        super.setImageBitmap (bm);
+        setImageCalled ();
+        savePreviousImageValues ();
+        fitImageToView ();
+    }
+
+    @Override
+    public void setImageDrawable (Drawable drawable) {
+        releaseImage (drawable);
+        if (drawable instanceof DecodingDrawable) {
+            ((DecodingDrawable) drawable).setMetrics (metrics);
+        }
+        super.setImageDrawable (drawable);
+        setImageCalled ();
+        savePreviousImageValues ();
+        fitImageToView ();
+    }
+
+    @Override
+    public void setImageURI (Uri uri) {
+        releaseImage (null);
+        super.setImageURI (uri);
+        setImageCalled ();
+        savePreviousImageValues ();
+        fitImageToView ();
+    }
+
+    /**
+     Cancel any asynchronous load and release the decoded content of the current drawable if it is one of ours and
+     is being replaced.
+
+     @param replacement
+     the drawable about to be set
+     */
+    private void releaseImage (final Drawable replacement) {
+        cancelImageLoad ();
+
+        final Drawable drawable = getDrawable ();
+        if (drawable == replacement) {
+            return;
+        }
+
+        if (drawable instanceof DecodingDrawable) {
+            ((DecodingDrawable) drawable).release ();
+        }
+
+        if (null != decodedBitmap) {
+            if (null != bitmapPool) {
+                bitmapPool.put (decodedBitmap);
+            }
+            decodedBitmap = null;
+        }
+    }
+
+    private void setImageCalled () {
+        if (!maintainZoomAfterSetImage) {
+            setImageCalledRecenterImage = true;
+        }
+    }
+
+    /**
+     Save the current transform and view dimensions
+     as the values prior to rotation.
+     */
+    private void savePreviousImageValues () {
+        if (model != null) {
+            model.savePrevious ();
+        }
+    }
+
+    @Override
+    public Parcelable onSaveInstanceState () {
+        Bundle bundle = new Bundle ();
+        bundle.putParcelable (KEY_INSTANCE_STATE, super.onSaveInstanceState ());
+        bundle.putFloat (KEY_NORMALIZED_SCALE, model.normalizedScale);
+        bundle.putFloat (KEY_MATCH_VIEW_HEIGHT, model.matchViewHeight);
+        bundle.putFloat (KEY_MATCH_VIEW_WIDTH, model.matchViewWidth);
+        bundle.putInt (KEY_VIEW_WIDTH, model.viewWidth);
+        bundle.putInt (KEY_VIEW_HEIGHT, model.viewHeight);
+        bundle.putFloatArray (KEY_MATRIX_VALUES, getMatrixValues ());
+        return bundle;
+    }
+
+    @Override
+    public void onRestoreInstanceState (Parcelable state) {
+        if (state instanceof Bundle) {
+            Bundle bundle = (Bundle) state;
+            model.normalizedScale = bundle.getFloat (KEY_NORMALIZED_SCALE);
+            final float[] values = bundle.getFloatArray (KEY_MATRIX_VALUES);
+            model.prevTransX = values[Matrix.MTRANS_X];
+            model.prevTransY = values[Matrix.MTRANS_Y];
+            model.prevMatchViewHeight = bundle.getFloat (KEY_MATCH_VIEW_HEIGHT);
+            model.prevMatchViewWidth = bundle.getFloat (KEY_MATCH_VIEW_WIDTH);
+            model.prevViewHeight = bundle.getInt (KEY_VIEW_HEIGHT);
+            model.prevViewWidth = bundle.getInt (KEY_VIEW_WIDTH);
+            super.onRestoreInstanceState (bundle.getParcelable (KEY_INSTANCE_STATE));
+            return;
+        }
+
+        super.onRestoreInstanceState (state);
+    }
+
+    @Override
+    protected void onAttachedToWindow () {
+        super.onAttachedToWindow ();
+        pixelMemoryBudget.register (this);
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged (final int visibility) {
+        super.onWindowVisibilityChanged (visibility);
+        if (VISIBLE == visibility) {
             //
-            // Rescale Matrix after rotation
+            // content dropped while hidden is loaded again
             //
-            matrixValues[Matrix.MSCALE_X] = matchViewWidth / drawableWidth * normalizedScale;
-            matrixValues[Matrix.MSCALE_Y] = matchViewHeight / drawableHeight * normalizedScale;
+            updateViewport ();
+        }
+    }
+
+    @Override
+    protected void onDraw (final Canvas canvas) {
+        super.onDraw (canvas);
+
+        if (0 != overlays.size () && null != getDrawable ()) {
+            drawOverlays (canvas);
+        }
+
+        final int usage = getPixelMemoryUsage ();
+        if (usage != reportedPixelMemoryUsage) {
+            reportedPixelMemoryUsage = usage;
+            pixelMemoryBudget.requestCheck ();
+        }
+    }
+
+    /**
+     Add a tappable region, or move it to its current bounds if it was already added.
+
+     @param hotspot
+     region to report taps on
+     */
+    public void addHotspot (final Hotspot hotspot) {
+        hotspot.getBounds (indexBounds);
+        hotspots.insert (hotspot, indexBounds.left, indexBounds.top, indexBounds.right, indexBounds.bottom);
+    }
+
+    /**
+     @param hotspot
+     region to stop reporting taps on
+
+     @return true if the region had been added
+     */
+    public boolean removeHotspot (final Hotspot hotspot) {
+        return hotspots.remove (hotspot);
+    }
+
+    /**
+     Remove all hotspots.
+     */
+    public void clearHotspots () {
+        hotspots.clear ();
+    }
+
+    /**
+     @return number of hotspots added
+     */
+    public int getHotspotCount () {
+        return hotspots.size ();
+    }
+
+    /**
+     Find the hotspot at a point of the drawable. When several hotspots contain the point, the one with the smallest
+     bounds (the most specific one) wins. Does not allocate.
+
+     @param x
+     horizontal drawable coordinate
+     @param y
+     vertical drawable coordinate
+
+     @return the hotspot containing the point, or null if there is none
+     */
+    public Hotspot findHotspot (final float x, final float y) {
+        return hotspotSearch.find (hotspots, x, y);
+    }
+
+    /**
+     Register a listener informed of single taps, along with the hotspot they hit if any.
+
+     @param listener
+     listener to register. Provide 'null' to clear current listener.
+     */
+    public void setOnHotspotTapListener (final OnHotspotTapListener listener) {
+        hotspotTapListener = listener;
+    }
+
+    /**
+     Report a confirmed single tap to the hotspot listener.
+
+     @return true if the listener handled the tap
+     */
+    private boolean dispatchHotspotTap (final float viewX, final float viewY) {
+        if (null == hotspotTapListener || null == getDrawable ()) {
+            return false;
+        }
+
+        //
+        // The image matrix applies within the padding, like the overlay query in drawOverlays
+        //
+        final float x = model.touchToDrawableX (viewX - getPaddingLeft (), false);
+        final float y = model.touchToDrawableY (viewY - getPaddingTop (), false);
+        return hotspotTapListener.onHotspotTap (findHotspot (x, y), x, y);
+    }
+
+    /**
+     Draw the markers intersecting the visible part of the image, with the image's transform applied once for all
+     of them.
+     */
+    private void drawOverlays (final Canvas canvas) {
+        final Matrix imageMatrix = getImageMatrix ();
+        imageMatrix.getValues (overlayPass.values);
+        final float scale = overlayPass.values[Matrix.MSCALE_X];
+        if (scale <= 0) {
+            return;
+        }
+
+        //
+        // Same transform as the image: padding offset, then the image matrix
+        //
+        final int save = canvas.save ();
+        canvas.translate (getPaddingLeft (), getPaddingTop ());
+        canvas.concat (imageMatrix);
+
+        final float transX = overlayPass.values[Matrix.MTRANS_X];
+        final float transY = overlayPass.values[Matrix.MTRANS_Y];
+        final float margin = overlayMargin / scale;
+        overlayPass.start (canvas, scale);
+        //
+        // The view's bounds, in the coordinate system of the canvas offset by the padding and image matrix
+        //
+        overlays.query ((-getPaddingLeft () - transX) / scale - margin,
+                        (-getPaddingTop () - transY) / scale - margin,
+                        (getWidth () - getPaddingLeft () - transX) / scale + margin,
+                        (getHeight () - getPaddingTop () - transY) / scale + margin,
+                        overlayPass);
+        canvas.restoreToCount (save);
+    }
+
+    @Override
+    protected void onDetachedFromWindow () {
+        //
+        // Stop asking for frames once there is nothing to draw them into
+        //
+        fling.cancelFling ();
+        if (animator.isRunning (zoomAnimation)) {
+            animator.cancel (zoomAnimation);
+            finishAnimationStats (zoomAnimation.stats, false);
+            setState (State.NONE);
+        }
+        if (animator.isRunning (matrixUpdate)) {
+            animator.cancel (matrixUpdate);
+            applyMatrix ();
+        }
+
+        pixelMemoryBudget.unregister (this);
+        super.onDetachedFromWindow ();
+    }
+
+    /**
+     Get the max zoom multiplier.
+
+     @return max zoom multiplier.
+     */
+    public float getMaxZoom () {
+        return model.getMaxScale ();
+    }
+
+    /**
+     Set the max zoom multiplier.
+
+     @param max
+     max zoom multiplier.
+     */
+    public void setMaxZoom (float max) {
+        model.setMaxScale (max);
+    }
+
+    /**
+     Get the min zoom multiplier.
+
+     @return min zoom multiplier.
+     */
+    public float getMinZoom () {
+        return model.getMinScale ();
+    }
+
+    /**
+     Set the min zoom multiplier.
+
+     @param min
+     min zoom multiplier.
+     */
+    public void setMinZoom (float min) {
+        model.setMinScale (min);
+    }
+
+    /**
+     Whether to maintain the current zoom level when a new image is applied. Defaults to false.
+
+     @param maintainZoom
+     true to maintain the zoom level, false otherwise.
+     */
+    public void maintainZoomAfterSetImage (boolean maintainZoom) {
+        maintainZoomAfterSetImage = maintainZoom;
+    }
+
+    /**
+     Get the current zoom. This is the zoom level relative to the initial (fill view) scale, not the original resource.
+
+     @return current zoom multiplier.
+     */
+    public float getCurrentZoom () {
+        return model.normalizedScale;
+    }
+
+    /**
+     For a given point on the view (ie, a touch event), returns the
+     point relative to the original drawable's coordinate system.
+
+     @param x
+     x-coordinate of touch event
+     @param y
+     y-coordinate of touch event
+
+     @return PointF relative to original drawable's coordinate system.
+     */
+    public PointF getDrawablePointFromTouchPoint (float x, float y) {
+        return transformCoordTouchToBitmap (x, y, true, new PointF ());
+    }
+
+    /**
+     For a given point on the view (ie, a touch event), computes the
+     point relative to the original drawable's coordinate system. Does not allocate.
 
-            //
-            // TransX and TransY from previous matrix
-            //
-            float transX = matrixValues[Matrix.MTRANS_X];
-            float transY = matrixValues[Matrix.MTRANS_Y];
+     @param x
+     x-coordinate of touch event
+     @param y
+     y-coordinate of touch event
+     @param out
+     receives the point relative to original drawable's coordinate system.
 
-            //
-            // Width
-            //
-            float prevActualWidth = prevMatchViewWidth * normalizedScale;
-            float actualWidth = getImageWidth ();
-            translateMatrixAfterRotate (Matrix.MTRANS_X,
-                                        transX,
-                                        prevActualWidth,
-                                        actualWidth,
-                                        prevViewWidth,
-                                        viewWidth,
-                                        drawableWidth);
+     @return out
+     */
+    public PointF getDrawablePointFromTouchPoint (float x, float y, PointF out) {
+        return transformCoordTouchToBitmap (x, y, true, out);
+    }
 
-            //
-            // Height
-            //
-            float prevActualHeight = prevMatchViewHeight * normalizedScale;
-            float actualHeight = getImageHeight ();
-            translateMatrixAfterRotate (Matrix.MTRANS_Y,
-                                        transY,
-                                        prevActualHeight,
-                                        actualHeight,
-                                        prevViewHeight,
-                                        viewHeight,
-                                        drawableHeight);
+    /**
+     For a given point on the view (ie, a touch event), returns the
+     point relative to the original drawable's coordinate system.
 
-            //
-            // Set the matrix to the adjusted scale and translate values.
-            //
-            matrix.setValues (matrixValues);
+     @param p
+     coordinates of touch event
+
+     @return PointF relative to original drawable's coordinate system.
+     */
+    public PointF getDrawablePointFromTouchPoint (PointF p) {
+        return transformCoordTouchToBitmap (p.x, p.y, true, new PointF ());
+    }
+
+    /**
+     For a given point on the view (ie, a touch event), computes the
+     point relative to the original drawable's coordinate system. Does not allocate.
+
+     @param p
+     coordinates of touch event
+     @param out
+     receives the point relative to original drawable's coordinate system. May be the same instance as p.
+
+     @return out
+     */
+    public PointF getDrawablePointFromTouchPoint (PointF p, PointF out) {
+        return transformCoordTouchToBitmap (p.x, p.y, true, out);
+    }
+
+    /**
+     Performs boundary checking and fixes the image translation if it
+     is out of bounds.
+     */
+    private void fixTrans () {
+        final TouchImageMetrics metrics = this.metrics;
+        final long start = null == metrics
+                           ? 0
+                           : metrics.beginTransform (TouchImageMetrics.SECTION_FIX_TRANS);
+        model.fixTrans ();
+        updateViewport ();
+        if (null != metrics) {
+            metrics.endTransform (start);
+        }
+    }
+
+    /**
+     Report the region of the drawable visible in the view to drawables that load content based on it (ie, tiled
+     images).
+     */
+    private void updateViewport () {
+        final Drawable drawable = getDrawable ();
+        if (!(drawable instanceof ViewportListener) || model.viewWidth == 0 || model.viewHeight == 0 ||
+            model.scale <= 0) {
+            return;
+        }
+
+        viewport.set (model.getVisibleLeft (),
+                      model.getVisibleTop (),
+                      model.getVisibleRight (),
+                      model.getVisibleBottom ());
+        ((ViewportListener) drawable).onViewportChanged (viewport, model.scale);
+    }
+
+    /**
+     Tell viewport aware drawables where the viewport is heading so they can load content ahead of time.
+
+     @param transX
+     predicted horizontal translation
+     @param transY
+     predicted vertical translation
+     */
+    private void predictViewport (final float transX, final float transY) {
+        predictedViewport.set (-transX / model.scale,
+                               -transY / model.scale,
+                               (model.viewWidth - transX) / model.scale,
+                               (model.viewHeight - transY) / model.scale);
+
+        final Drawable drawable = getDrawable ();
+        if (drawable instanceof ViewportListener) {
+            viewportPredicted = true;
+            ((ViewportListener) drawable).onViewportPredicted (predictedViewport, model.scale);
+        }
+    }
+
+    /**
+     Tell viewport aware drawables that the last prediction no longer holds.
+     */
+    private void cancelViewportPrediction () {
+        if (!viewportPredicted) {
+            return;
+        }
+
+        viewportPredicted = false;
+        final Drawable drawable = getDrawable ();
+        if (drawable instanceof ViewportListener) {
+            ((ViewportListener) drawable).onPredictionCancelled ();
+        }
+    }
+
+    /**
+     Request unbuffered dispatch of the gesture starting with the given event, if enabled and supported.
+
+     @param event
+     ACTION_DOWN event
+     */
+    private void requestUnbufferedDispatch (final MotionEvent event) {
+        if (!unbufferedTouchDispatch || VERSION.SDK_INT < UNBUFFERED_DISPATCH_API) {
+            return;
+        }
+
+        if (!requestUnbufferedDispatchResolved) {
+            requestUnbufferedDispatchResolved = true;
+            try {
+                requestUnbufferedDispatch = View.class.getMethod ("requestUnbufferedDispatch", MotionEvent.class);
+            } catch (NoSuchMethodException e) {
+                Log.w (LOGTAG, "Unbuffered dispatch not available", e);
+            }
+        }
+
+        if (null == requestUnbufferedDispatch) {
+            return;
+        }
+
+        try {
+            requestUnbufferedDispatch.invoke (this, event);
+        } catch (Exception e) {
+            Log.w (LOGTAG, "Failed to request unbuffered dispatch", e);
+            requestUnbufferedDispatch = null;
+        }
+    }
+
+    /**
+     Apply the model's transform on the next frame. Any number of requests made before that
+     frame result in a single application.
+     */
+    private void requestMatrixUpdate () {
+        if (animator.isRunning (matrixUpdate)) {
+            skippedMatrixUpdates++;
+            return;
         }
+
+        animator.start (matrixUpdate);
+    }
+
+    /**
+     Copy the model's transform into the image matrix and apply it, unless it is the transform
+     already applied. This is the only place the matrix is written.
+     */
+    private void applyMatrix () {
+        if (matrixApplied && appliedScale == model.scale && appliedTransX == model.transX &&
+            appliedTransY == model.transY) {
+            skippedMatrixUpdates++;
+            return;
+        }
+
+        matrixApplied = true;
+        if (null != metrics) {
+            metrics.matrixApplied ();
+        }
+        appliedScale = model.scale;
+        appliedTransX = model.transX;
+        appliedTransY = model.transY;
+        matrix.setValues (getMatrixValues ());
         setImageMatrix (matrix);
     }
 
+    /**
+     Check whether touch events are dispatched to the view unbuffered.
+
+     @return true if touch events are dispatched as soon as they arrive
+     */
+    public boolean isUnbufferedTouchDispatch () {
+        return unbufferedTouchDispatch;
+    }
+
+    /**
+     Ask for touch events to be dispatched as soon as they arrive instead of batched once per frame, so the image
+     follows the finger within the frame the input arrived in. Costs more event deliveries (and CPU) on high rate
+     touch panels. Only has an effect on Android 11 (API 30) and newer. Default value: false.
+
+     @param unbuffered
+     true to request unbuffered dispatch for every gesture
+     */
+    public void setUnbufferedTouchDispatch (final boolean unbuffered) {
+        unbufferedTouchDispatch = unbuffered;
+    }
+
+    /**
+     Get the average time between a touch sample and the frame that displayed its effect on the image.
+
+     @return average input to frame latency in milliseconds, 0 if no touch input has been displayed yet
+     */
+    public float getAverageInputLatency () {
+        return 0 == inputLatencySamples
+               ? 0f
+               : (float) inputLatencyTotal / inputLatencySamples;
+    }
+
+    /**
+     Reset the input to frame latency measurement.
+     */
+    public void resetInputLatency () {
+        inputLatencySamples = 0;
+        inputLatencyTotal = 0;
+    }
+
+    /**
+     Get the number of image matrix applications (and the invalidations they cause) that were
+     skipped, either because the transform had not changed or because several changes were
+     coalesced into a single frame.
+
+     @return number of skipped matrix applications since the view was created
+     */
+    public long getSkippedMatrixUpdates () {
+        return skippedMatrixUpdates;
+    }
+
+    /**
+     Check whether hot path metrics are collected.
+
+     @return true if metrics are collected
+     */
+    public boolean isMetricsEnabled () {
+        return null != metrics;
+    }
+
+    /**
+     Start or stop collecting hot path metrics (counters, frame transform times, decode latencies) and emitting
+     trace sections for them. Disabling drops the values collected so far. Default value: false.
+
+     @param enabled
+     true to collect metrics
+     */
+    public void setMetricsEnabled (final boolean enabled) {
+        if (enabled == (null != metrics)) {
+            return;
+        }
+
+        metrics = enabled
+                  ? new TouchImageMetrics ()
+                  : null;
+
+        final Drawable drawable = getDrawable ();
+        if (drawable instanceof DecodingDrawable) {
+            ((DecodingDrawable) drawable).setMetrics (metrics);
+        }
+    }
+
+    /**
+     Get the metrics collected since they were enabled. Poll them with
+     {@link TouchImageMetrics#getSnapshot(TouchImageMetrics.Snapshot)}.
+
+     @return the metrics, or null if they are not enabled
+     */
+    public TouchImageMetrics getMetrics () {
+        return metrics;
+    }
+
+    /**
+     Add a marker over the image, or move it to its current bounds if it was already added.
+
+     @param marker
+     marker to draw
+     */
+    public void addOverlayMarker (final OverlayMarker marker) {
+        marker.getBounds (indexBounds);
+        overlays.insert (marker, indexBounds.left, indexBounds.top, indexBounds.right, indexBounds.bottom);
+        invalidate ();
+    }
+
+    /**
+     @param marker
+     marker to stop drawing
+
+     @return true if the marker had been added
+     */
+    public boolean removeOverlayMarker (final OverlayMarker marker) {
+        if (!overlays.remove (marker)) {
+            return false;
+        }
+
+        invalidate ();
+        return true;
+    }
+
+    /**
+     Remove all markers.
+     */
+    public void clearOverlayMarkers () {
+        overlays.clear ();
+        invalidate ();
+    }
+
+    /**
+     @return number of markers added
+     */
+    public int getOverlayMarkerCount () {
+        return overlays.size ();
+    }
+
+    /**
+     @return number of markers drawn in the last frame, ie, those in or near the visible part of the image
+     */
+    public int getDrawnOverlayMarkerCount () {
+        return overlayPass.drawn;
+    }
+
+    /**
+     Get the distance around the visible part of the image within which markers are drawn.
+
+     @return margin in view pixels
+     */
+    public float getOverlayMargin () {
+        return overlayMargin;
+    }
+
+    /**
+     Set the distance around the visible part of the image within which markers are drawn, for markers that extend
+     past their bounds by a fixed amount of view pixels (ie, icons whose bounds are their anchor point). Default
+     value: 0.
+
+     @param pixels
+     margin in view pixels
+     */
+    public void setOverlayMargin (final float pixels) {
+        overlayMargin = pixels;
+        invalidate ();
+    }
+
+    /**
+     @return the model's transform as matrix values
+     */
+    private float[] getMatrixValues () {
+        matrixValues[Matrix.MSCALE_X] = model.scale;
+        matrixValues[Matrix.MSKEW_X] = 0;
+        matrixValues[Matrix.MTRANS_X] = model.transX;
+        matrixValues[Matrix.MSKEW_Y] = 0;
+        matrixValues[Matrix.MSCALE_Y] = model.scale;
+        matrixValues[Matrix.MTRANS_Y] = model.transY;
+        matrixValues[Matrix.MPERSP_0] = 0;
+        matrixValues[Matrix.MPERSP_1] = 0;
+        matrixValues[Matrix.MPERSP_2] = 1;
+        return matrixValues;
+    }
+
+    @Override
+    protected void onMeasure (int widthMeasureSpec, int heightMeasureSpec) {
+        Drawable drawable = getDrawable ();
+        if (drawable == null || drawable.getIntrinsicWidth () == 0 || drawable.getIntrinsicHeight () == 0) {
+            setMeasuredDimension (0, 0);
+            return;
+        }
+
+        int drawableWidth = drawable.getIntrinsicWidth ();
+        int drawableHeight = drawable.getIntrinsicHeight ();
+        int widthSize = MeasureSpec.getSize (widthMeasureSpec);
+        int widthMode = MeasureSpec.getMode (widthMeasureSpec);
+        int heightSize = MeasureSpec.getSize (heightMeasureSpec);
+        int heightMode = MeasureSpec.getMode (heightMeasureSpec);
+        model.viewWidth = setViewSize (widthMode, widthSize, drawableWidth);
+        model.viewHeight = setViewSize (heightMode, heightSize, drawableHeight);
+
+        //
+        // Set view dimensions
+        //
+        setMeasuredDimension (model.viewWidth, model.viewHeight);
+
+        //
+        // Fit content within view
+        //
+        fitImageToView ();
+    }
+
+    /**
+     If the normalizedScale is equal to 1, then the image is made to fit the screen. Otherwise,
+     it is made to fit the screen according to the dimensions of the previous image matrix. This
+     allows the image to maintain its zoom after rotation.
+     */
+    private void fitImageToView () {
+        Drawable drawable = getDrawable ();
+        if (drawable == null || drawable.getIntrinsicWidth () == 0 || drawable.getIntrinsicHeight () == 0) {
+            return;
+        }
+        if (matrix == null || model == null) {
+            return;
+        }
+
+        final TouchImageMetrics metrics = this.metrics;
+        final long start = null == metrics
+                           ? 0
+                           : metrics.beginTransform (TouchImageMetrics.SECTION_FIT);
+        model.drawableWidth = drawable.getIntrinsicWidth ();
+        model.drawableHeight = drawable.getIntrinsicHeight ();
+        final float fitScale = model.fit (setImageCalledRecenterImage);
+        setImageCalledRecenterImage = false;
+
+        if (drawable instanceof ViewportListener && fitScale > 0) {
+            ((ViewportListener) drawable).onImageFitted (fitScale);
+        }
+
+        updateViewport ();
+        applyMatrix ();
+        if (null != metrics) {
+            metrics.endTransform (start);
+        }
+    }
+
     /**
      Set view dimensions based on layout params
 
@@ -682,80 +1956,20 @@ public class TouchImageView
         return viewSize;
     }
 
-    /**
-     After rotating, the matrix needs to be translated. This function finds the area of image
-     which was previously centered and adjusts translations so that is again the center, post-rotation.
-
-     @param axis
-     Matrix.MTRANS_X or Matrix.MTRANS_Y
-     @param trans
-     the value of trans in that axis before the rotation
-     @param prevImageSize
-     the width/height of the image before the rotation
-     @param imageSize
-     width/height of the image after rotation
-     @param prevViewSize
-     width/height of view before rotation
-     @param viewSize
-     width/height of view after rotation
-     @param drawableSize
-     width/height of drawable
-     */
-    private void translateMatrixAfterRotate (int axis,
-                                             float trans,
-                                             float prevImageSize,
-                                             float imageSize,
-                                             int prevViewSize,
-                                             int viewSize,
-                                             int drawableSize) {
-        if (imageSize < viewSize) {
-            //
-            // The width/height of image is less than the view's width/height. Center it.
-            //
-            matrixValues[axis] = (viewSize - (drawableSize * matrixValues[Matrix.MSCALE_X])) * 0.5f;
-        } else if (trans > 0) {
-            //
-            // The image is larger than the view, but was not before rotation. Center it.
-            //
-            matrixValues[axis] = -((imageSize - viewSize) * 0.5f);
-        } else {
-            //
-            // Find the area of the image which was previously centered in the view. Determine its distance
-            // from the left/top side of the view as a fraction of the entire image's width/height. Use that percentage
-            // to calculate the trans in the new view width/height.
-            //
-            float percentage = (Math.abs (trans) + (0.5f * prevViewSize)) / prevImageSize;
-            matrixValues[axis] = -((percentage * imageSize) - (viewSize * 0.5f));
-        }
-    }
-
     private void setState (State state) {
         this.state = state;
     }
 
     private void scaleImage (float deltaScale, float focusX, float focusY, boolean stretchImageToSuper) {
-
-        float lowerScale, upperScale;
-        if (stretchImageToSuper) {
-            lowerScale = lowerBounceBackScale;
-            upperScale = upperBounceBackScale;
-        } else {
-            lowerScale = minScale;
-            upperScale = maxScale;
-        }
-
-        float origScale = normalizedScale;
-        normalizedScale *= deltaScale;
-        if (normalizedScale > upperScale) {
-            normalizedScale = upperScale;
-            deltaScale = upperScale / origScale;
-        } else if (normalizedScale < lowerScale) {
-            normalizedScale = lowerScale;
-            deltaScale = lowerScale / origScale;
+        final TouchImageMetrics metrics = this.metrics;
+        final long start = null == metrics
+                           ? 0
+                           : metrics.beginTransform (TouchImageMetrics.SECTION_SCALE);
+        model.scaleImage (deltaScale, focusX, focusY, stretchImageToSuper);
+        updateViewport ();
+        if (null != metrics) {
+            metrics.endTransform (start);
         }
-
-        matrix.postScale (deltaScale, deltaScale, focusX, focusY);
-        fixScaleTrans ();
     }
 
     /**
@@ -769,62 +1983,18 @@ public class TouchImageView
      @param clipToBitmap
      Touch event may occur within view, but outside image content. True, to clip return value
      to the bounds of the bitmap size.
+     @param out
+     receives the result
 
-     @return Coordinates of the point touched, in the coordinate system of the original drawable.
-     */
-    private PointF transformCoordTouchToBitmap (float x, float y, boolean clipToBitmap) {
-        matrix.getValues (matrixValues);
-        float origW = getDrawable ().getIntrinsicWidth ();
-        float origH = getDrawable ().getIntrinsicHeight ();
-        float transX = matrixValues[Matrix.MTRANS_X];
-        float transY = matrixValues[Matrix.MTRANS_Y];
-        float finalX = ((x - transX) * origW) / getImageWidth ();
-        float finalY = ((y - transY) * origH) / getImageHeight ();
-
-        if (clipToBitmap) {
-            finalX = Math.min (Math.max (x, 0), origW);
-            finalY = Math.min (Math.max (y, 0), origH);
-        }
-
-        return new PointF (finalX, finalY);
-    }
-
-    /**
-     Inverse of transformCoordTouchToBitmap. This function will transform the coordinates in the
-     drawable's coordinate system to the view's coordinate system.
-
-     @param bx
-     x-coordinate in original bitmap coordinate system
-     @param by
-     y-coordinate in original bitmap coordinate system
-
-     @return Coordinates of the point in the view's coordinate system.
+     @return out, set to the coordinates of the point touched, in the coordinate system of the original drawable.
      */
-    private PointF transformCoordBitmapToTouch (float bx, float by) {
-        matrix.getValues (matrixValues);
-        float origW = getDrawable ().getIntrinsicWidth ();
-        float origH = getDrawable ().getIntrinsicHeight ();
-        float px = bx / origW;
-        float py = by / origH;
-        float finalX = matrixValues[Matrix.MTRANS_X] + getImageWidth () * px;
-        float finalY = matrixValues[Matrix.MTRANS_Y] + getImageHeight () * py;
-        return new PointF (finalX, finalY);
-    }
-
-    @TargetApi (Build.VERSION_CODES.JELLY_BEAN)
-    private void compatPostOnAnimation (Runnable runnable) {
-        if (VERSION.SDK_INT >= VERSION_CODES.JELLY_BEAN) {
-            postOnAnimation (runnable);
-        } else {
-            postDelayed (runnable, 1000 / 60);
-        }
+    private PointF transformCoordTouchToBitmap (float x, float y, boolean clipToBitmap, PointF out) {
+        out.set (model.touchToDrawableX (x, clipToBitmap), model.touchToDrawableY (y, clipToBitmap));
+        return out;
     }
 
     private void printMatrixInfo () {
-        matrix.getValues (matrixValues);
-        Log.d (LOGTAG,
-               "Scale: " + matrixValues[Matrix.MSCALE_X] + " TransX: " + matrixValues[Matrix.MTRANS_X] + " TransY: " +
-               matrixValues[Matrix.MTRANS_Y]);
+        Log.d (LOGTAG, "Scale: " + model.scale + " TransX: " + model.transX + " TransY: " + model.transY);
     }
 
     private static enum State {
@@ -835,19 +2005,34 @@ public class TouchImageView
         ANIMATE_ZOOM
     }
 
-    public enum FlingBehaviour {
+    public enum FlingBehaviour {
+        /**
+         Scroll (with inertia) on fling
+         */
+        SCROLL,
+        /**
+         Inform a @{link FlingListener} of fling events (if one is registered)
+         */
+        LISTENER,
+        /**
+         Ignore fling events
+         */
+        DISABLE
+    }
+
+    public enum DecodeConfigPolicy {
         /**
-         Scroll (with inertia) on fling
+         Decode everything at 32 bits per pixel
          */
-        SCROLL,
+        QUALITY,
         /**
-         Inform a @{link FlingListener} of fling events (if one is registered)
+         Decode opaque images at 16 bits per pixel below the zoom threshold, and at 32 bits past it
          */
-        LISTENER,
+        ADAPTIVE,
         /**
-         Ignore fling events
+         Always decode opaque images at 16 bits per pixel
          */
-        DISABLE
+        MEMORY
     }
 
     /**
@@ -904,6 +2089,154 @@ public class TouchImageView
         boolean onFlingDown (float distance, float velocity);
     }
 
+    /**
+     Informed of the predicted outcome of scroll flings (fling behaviour 'scroll'), for example to prefetch the
+     content that will be visible once the fling ends. Called on the UI thread.
+     */
+    public interface FlingPredictionListener {
+        /**
+         A fling has started
+
+         @param finalViewport
+         region of the drawable that will be visible when the fling ends, in the drawable's coordinate system.
+         The instance is reused and must not be retained.
+         @param scale
+         drawable to view scale during the fling (view pixels per drawable pixel)
+         */
+        void onFlingStarted (RectF finalViewport, float scale);
+
+        /**
+         The fling has ended: it ran its course, hit the edges of the image or was interrupted
+         */
+        void onFlingFinished ();
+    }
+
+    /**
+     Informed of the frame statistics of animated zooms and scroll flings, ie, to spot devices where animations miss
+     their frames. Called on the UI thread.
+     */
+    public interface AnimationStatsListener {
+        /**
+         An animation has ended: it ran its course or was interrupted
+
+         @param stats
+         frame statistics of the animation. The instance is reused and must not be retained.
+         */
+        void onAnimationFinished (AnimationFrameStats stats);
+    }
+
+    /**
+     Informed of the outcome of {@link #setImageURIAsync(android.net.Uri, OnImageLoadListener)}. Called on the UI
+     thread.
+     */
+    public interface OnImageLoadListener {
+        /**
+         The image has been decoded and is now displayed
+
+         @param uri
+         the image
+         */
+        void onImageLoaded (Uri uri);
+
+        /**
+         The image could not be loaded. The previous image is still displayed.
+
+         @param uri
+         the image
+         @param error
+         cause of the failure
+         */
+        void onImageLoadFailed (Uri uri, Throwable error);
+    }
+
+    /**
+     Informed of single taps on the image, in drawable coordinates, and of the {@link Hotspot} they hit. Called on the
+     UI thread.
+     */
+    public interface OnHotspotTapListener {
+        /**
+         The image was tapped
+
+         @param hotspot
+         the hotspot tapped (see {@link #findHotspot(float, float)}), or null if the tap hit none
+         @param x
+         horizontal drawable coordinate of the tap
+         @param y
+         vertical drawable coordinate of the tap
+
+         @return true if the tap was handled; false to perform the view's click
+         */
+        boolean onHotspotTap (Hotspot hotspot, float x, float y);
+    }
+
+    /**
+     Point query of the hotspot index, keeping the smallest hotspot containing the point. Reused for every tap.
+     */
+    private static final class HotspotSearch
+      implements QuadTree.Visitor<Hotspot> {
+        private float   x;
+        private float   y;
+        private Hotspot found;
+        private float   foundArea;
+
+        Hotspot find (final QuadTree<Hotspot> hotspots, final float x, final float y) {
+            this.x = x;
+            this.y = y;
+            found = null;
+            foundArea = Float.MAX_VALUE;
+            hotspots.query (x, y, x, y, this);
+
+            final Hotspot hotspot = found;
+            found = null;
+            return hotspot;
+        }
+
+        @Override
+        public boolean visit (final Hotspot hotspot,
+                              final float left,
+                              final float top,
+                              final float right,
+                              final float bottom) {
+            final float area = (right - left) * (bottom - top);
+            if (area < foundArea && hotspot.contains (x, y)) {
+                found = hotspot;
+                foundArea = area;
+            }
+            return true;
+        }
+    }
+
+    /**
+     Draws the markers found by a query of the overlay index. Reused for every frame.
+     */
+    private static final class OverlayPass
+      implements QuadTree.Visitor<OverlayMarker> {
+        final float[] values = new float[9];
+
+        private Canvas canvas;
+        private float  scale;
+
+        // markers drawn by the last pass
+        int drawn;
+
+        void start (final Canvas canvas, final float scale) {
+            this.canvas = canvas;
+            this.scale = scale;
+            drawn = 0;
+        }
+
+        @Override
+        public boolean visit (final OverlayMarker marker,
+                              final float left,
+                              final float top,
+                              final float right,
+                              final float bottom) {
+            marker.draw (canvas, scale);
+            drawn++;
+            return true;
+        }
+    }
+
     /**
      Gesture Listener detects a single click or long click and passes that on
      to the view's listener.
@@ -925,7 +2258,7 @@ public class TouchImageView
 
         @Override
         public boolean onSingleTapConfirmed (MotionEvent e) {
-            return performClick ();
+            return dispatchHotspotTap (e.getX (), e.getY ()) || performClick ();
         }
 
         @Override
@@ -983,15 +2316,12 @@ public class TouchImageView
                                        final MotionEvent e2,
                                        final float velocityX,
                                        final float velocityY) {
-            if (fling != null) {
-                //
-                // If a previous fling is still active, it should be cancelled so that two flings
-                // are not run simultaenously.
-                //
-                fling.cancelFling ();
-            }
-            fling = new Fling ((int) velocityX, (int) velocityY);
-            compatPostOnAnimation (fling);
+            //
+            // If a previous fling is still active, it should be cancelled so that two flings
+            // are not run simultaenously.
+            //
+            fling.cancelFling ();
+            fling.start ((int) velocityX, (int) velocityY);
             return true;
         }
 
@@ -1013,9 +2343,8 @@ public class TouchImageView
                 return false;
             }
 
-            float targetZoom = (normalizedScale == minScale) ? maxScale : minScale;
-            DoubleTapZoom doubleTap = new DoubleTapZoom (targetZoom, e.getX (), e.getY (), false);
-            compatPostOnAnimation (doubleTap);
+            float targetZoom = model.getDoubleTapTarget ();
+            zoomAnimation.start (targetZoom, e.getX (), e.getY (), false);
             return true;
         }
     }
@@ -1033,51 +2362,132 @@ public class TouchImageView
         // Remember last point position for dragging
         //
         private PointF last = new PointF ();
+        private long   lastTime;
+
+        //
+        // Drag velocity in pixels per millisecond, and the velocity the current prediction was made for
+        //
+        private float velocityX, velocityY;
+        private float predictedVelocityX, predictedVelocityY;
+
+        // slowest drag worth predicting, in pixels per millisecond
+        private final float minPredictionVelocity =
+          ViewConfiguration.get (context).getScaledMinimumFlingVelocity () / 1000f;
 
         @Override
         public boolean onTouch (View v, MotionEvent event) {
+            if (null != metrics) {
+                metrics.touchEvent ();
+            }
+            final int action = event.getActionMasked ();
+            if (action == MotionEvent.ACTION_DOWN) {
+                requestUnbufferedDispatch (event);
+            }
+
             if (null != mScaleDetector) {
                 mScaleDetector.onTouchEvent (event);
             }
 
             mGestureDetector.onTouchEvent (event);
-            PointF curr = new PointF (event.getX (), event.getY ());
+            final float currX = event.getX ();
+            final float currY = event.getY ();
 
             if (state == State.NONE || state == State.DRAG || state == State.FLING) {
                 switch (event.getAction ()) {
                     case MotionEvent.ACTION_DOWN:
-                        last.set (curr);
-                        if (fling != null) {
-                            fling.cancelFling ();
-                        }
+                        last.set (currX, currY);
+                        lastTime = event.getEventTime ();
+                        velocityX = velocityY = 0;
+                        predictedVelocityX = predictedVelocityY = 0;
+                        fling.cancelFling ();
                         setState (State.DRAG);
                         break;
 
                     case MotionEvent.ACTION_MOVE:
                         if (state == State.DRAG && allowDrag) {
-                            float deltaX = curr.x - last.x;
-                            float deltaY = curr.y - last.y;
-                            float fixTransX = getFixDragTrans (deltaX, viewWidth, getImageWidth ());
-                            float fixTransY = getFixDragTrans (deltaY, viewHeight, getImageHeight ());
-                            matrix.postTranslate (fixTransX, fixTransY);
-                            fixTrans ();
-                            last.set (curr.x, curr.y);
+                            //
+                            // High rate panels batch several samples into each move. Drag through all
+                            // of them so edge clamping sees the same path the finger took, but report
+                            // the viewport and apply the matrix only once. Timed as fixing the translation,
+                            // which is what each drag step does.
+                            //
+                            final TouchImageMetrics metrics = TouchImageView.this.metrics;
+                            final long start = null == metrics
+                                               ? 0
+                                               : metrics.beginTransform (TouchImageMetrics.SECTION_FIX_TRANS);
+                            final int historySize = event.getHistorySize ();
+                            for (int h = 0; h < historySize; h++) {
+                                drag (event.getHistoricalX (h), event.getHistoricalY (h),
+                                      event.getHistoricalEventTime (h));
+                            }
+                            drag (currX, currY, event.getEventTime ());
+                            updateViewport ();
+                            if (null != metrics) {
+                                metrics.endTransform (start);
+                            }
+                            predictDrag ();
                         }
                         break;
 
                     case MotionEvent.ACTION_UP:
                     case MotionEvent.ACTION_POINTER_UP:
+                        if (!animator.isRunning (fling)) {
+                            //
+                            // no fling took over the drag's prediction
+                            //
+                            cancelViewportPrediction ();
+                        }
                         setState (State.NONE);
                         break;
                 }
             }
 
-            setImageMatrix (matrix);
+            if (action == MotionEvent.ACTION_MOVE && 0 == pendingInputTime) {
+                pendingInputTime = event.getHistorySize () > 0
+                                   ? event.getHistoricalEventTime (0)
+                                   : event.getEventTime ();
+            }
+
+            requestMatrixUpdate ();
             //
             // indicate event was handled
             //
             return true;
         }
+
+        private void drag (final float x, final float y, final long time) {
+            final long dt = time - lastTime;
+            if (dt > 0) {
+                //
+                // Smooth the velocity: batched samples are too close together to be used one by one
+                //
+                velocityX = .5f * velocityX + .5f * (x - last.x) / dt;
+                velocityY = .5f * velocityY + .5f * (y - last.y) / dt;
+                lastTime = time;
+            }
+
+            model.drag (x - last.x, y - last.y);
+            last.set (x, y);
+        }
+
+        /**
+         Predict where a fast drag is heading. The prediction is dropped as soon as the drag changes direction.
+         */
+        private void predictDrag () {
+            if (velocityX * predictedVelocityX + velocityY * predictedVelocityY < 0) {
+                cancelViewportPrediction ();
+                predictedVelocityX = predictedVelocityY = 0;
+            }
+
+            if (Math.abs (velocityX) < minPredictionVelocity && Math.abs (velocityY) < minPredictionVelocity) {
+                return;
+            }
+
+            predictedVelocityX = velocityX;
+            predictedVelocityY = velocityY;
+            predictViewport (model.transX + velocityX * DRAG_PREDICTION_TIME,
+                             model.transY + velocityY * DRAG_PREDICTION_TIME);
+        }
     }
 
     /**
@@ -1103,187 +2513,451 @@ public class TouchImageView
         public void onScaleEnd (ScaleGestureDetector detector) {
             super.onScaleEnd (detector);
             setState (State.NONE);
-            boolean animateToZoomBoundary = false;
-            float targetZoom = normalizedScale;
-            if (normalizedScale > maxScale) {
-                targetZoom = maxScale;
-                animateToZoomBoundary = true;
-            } else if (normalizedScale < minScale) {
-                targetZoom = minScale;
-                animateToZoomBoundary = true;
-            }
+            float targetZoom = model.getBounceBackTarget ();
 
-            if (animateToZoomBoundary) {
-                DoubleTapZoom doubleTap = new DoubleTapZoom (targetZoom, viewWidth / 2, viewHeight / 2, true);
-                compatPostOnAnimation (doubleTap);
+            if (targetZoom != model.normalizedScale) {
+                zoomAnimation.start (targetZoom, model.viewWidth / 2, model.viewHeight / 2, true);
             }
         }
     }
 
     /**
-     DoubleTapZoom calls a series of runnables which apply
-     an animated zoom in/out graphic to the image.
+     Single frame animation: the matrix itself is applied once all animations have advanced
+     for the frame.
+     */
+    private static class MatrixUpdate
+      implements FrameAnimator.Animation {
+        @Override
+        public boolean doFrame (final long frameTimeNanos) {
+            return false;
+        }
+    }
+
+    /**
+     DoubleTapZoom applies an animated zoom in/out graphic to the image, one step per frame.
+     Progress is computed from frame timestamps, so the animation takes the same time at any
+     refresh rate. A single instance is reused for every zoom animation so that neither
+     starting nor running one allocates.
 
      @author Ortiz
      */
     private class DoubleTapZoom
-      implements Runnable {
+      implements FrameAnimator.Animation {
 
-        private static final float ZOOM_TIME = 500;
-        private long  startTime;
-        private float startZoom, targetZoom;
-        private float bitmapX, bitmapY;
-        private boolean stretchImageToSuper;
-        private AccelerateDecelerateInterpolator interpolator = new AccelerateDecelerateInterpolator ();
-        private PointF startTouch;
-        private PointF endTouch;
+        private long startTime;
 
-        DoubleTapZoom (float targetZoom, float focusX, float focusY, boolean stretchImageToSuper) {
-            setState (State.ANIMATE_ZOOM);
-            startTime = System.currentTimeMillis ();
-            this.startZoom = normalizedScale;
-            this.targetZoom = targetZoom;
-            this.stretchImageToSuper = stretchImageToSuper;
-            PointF bitmapPoint = transformCoordTouchToBitmap (focusX, focusY, false);
-            this.bitmapX = bitmapPoint.x;
-            this.bitmapY = bitmapPoint.y;
+        private final ZoomPanModel.AnimatedZoom zoom = new ZoomPanModel.AnimatedZoom ();
 
-            //
-            // Used for translating image during scaling
-            //
-            startTouch = transformCoordBitmapToTouch (bitmapX, bitmapY);
-            endTouch = new PointF (viewWidth / 2, viewHeight / 2);
+        final AnimationFrameStats stats = new AnimationFrameStats (AnimationFrameStats.Type.ZOOM);
+
+        void start (float targetZoom, float focusX, float focusY, boolean stretchImageToSuper) {
+            startAnimationStats (stats, zoomDuration * 1000000L);
+            setState (State.ANIMATE_ZOOM);
+            startTime = -1;
+            zoom.start (model, targetZoom, focusX, focusY, stretchImageToSuper);
+            animator.start (this);
         }
 
         @Override
-        public void run () {
-            float t = interpolate ();
-            float deltaScale = calculateDeltaScale (t);
-            scaleImage (deltaScale, bitmapX, bitmapY, stretchImageToSuper);
-            translateImageToCenterTouchPosition (t);
-            fixScaleTrans ();
-            setImageMatrix (matrix);
+        public boolean doFrame (long frameTimeNanos) {
+            if (null != metrics) {
+                metrics.zoomFrame ();
+            }
+            if (stats.isRunning ()) {
+                stats.frame (frameTimeNanos);
+            }
+            if (startTime < 0) {
+                //
+                // The animation starts with the first frame it is part of
+                //
+                startTime = frameTimeNanos;
+            }
+
+            float t = interpolate (frameTimeNanos);
+            final TouchImageMetrics metrics = TouchImageView.this.metrics;
+            final long start = null == metrics
+                               ? 0
+                               : metrics.beginTransform (TouchImageMetrics.SECTION_SCALE);
+            zoom.step (model, t);
+            updateViewport ();
+            if (null != metrics) {
+                metrics.endTransform (start);
+            }
 
             if (t < 1f) {
                 //
                 // We haven't finished zooming
                 //
-                compatPostOnAnimation (this);
-            } else {
-                //
-                // Finished zooming
-                //
-                setState (State.NONE);
+                return true;
             }
-        }
-
-        /**
-         Interpolate between where the image should start and end in order to translate
-         the image so that the point that is touched is what ends up centered at the end
-         of the zoom.
 
-         @param t
-         */
-        private void translateImageToCenterTouchPosition (float t) {
-            float targetX = startTouch.x + t * (endTouch.x - startTouch.x);
-            float targetY = startTouch.y + t * (endTouch.y - startTouch.y);
-            PointF curr = transformCoordBitmapToTouch (bitmapX, bitmapY);
-            matrix.postTranslate (targetX - curr.x, targetY - curr.y);
+            //
+            // Finished zooming
+            //
+            setState (State.NONE);
+            finishAnimationStats (stats, true);
+            return false;
         }
 
         /**
          Use interpolator to get t
 
-         @return
-         */
-        private float interpolate () {
-            long currTime = System.currentTimeMillis ();
-            float elapsed = (currTime - startTime) / ZOOM_TIME;
-            elapsed = Math.min (1f, elapsed);
-            return interpolator.getInterpolation (elapsed);
-        }
-
-        /**
-         Interpolate the current targeted zoom and get the delta
-         from the current zoom.
-
-         @param t
+         @param frameTimeNanos
+         timestamp of the frame being rendered
 
          @return
          */
-        private float calculateDeltaScale (float t) {
-            float zoom = startZoom + t * (targetZoom - startZoom);
-            return zoom / normalizedScale;
+        private float interpolate (long frameTimeNanos) {
+            float elapsed = zoomDuration > 0
+                            ? (frameTimeNanos - startTime) / (zoomDuration * 1000000f)
+                            : 1f;
+            elapsed = Math.min (1f, elapsed);
+            return zoomInterpolator.getInterpolation (elapsed);
         }
     }
 
     /**
-     Fling launches sequential runnables which apply
-     the fling graphic to the image. The values for the translation
-     are interpolated by the Scroller.
+     Fling applies the fling graphic to the image, one step per frame. The values for the
+     translation are interpolated by the OverScroller. A single instance (and OverScroller) is
+     reused for every fling. The fling stops as soon as both axes have either reached their
+     final position or been pinned against an edge of the image.
 
      @author Ortiz
      */
     private class Fling
-      implements Runnable {
+      implements FrameAnimator.Animation {
 
-        Scroller scroller;
-        int      currX, currY;
+        final OverScroller        scroller;
+        final AnimationFrameStats stats;
+        int                       currX, currY;
+
+        Fling () {
+            scroller = new OverScroller (context);
+            scroller.forceFinished (true);
+            stats = new AnimationFrameStats (AnimationFrameStats.Type.FLING);
+        }
 
-        Fling (int velocityX, int velocityY) {
+        void start (int velocityX, int velocityY) {
+            //
+            // How long the fling lasts depends on the scroller's physics and on the edges it hits
+            //
+            startAnimationStats (stats, -1);
             setState (State.FLING);
-            scroller = new Scroller (context);
-            matrix.getValues (matrixValues);
-
-            int startX = (int) matrixValues[Matrix.MTRANS_X];
-            int startY = (int) matrixValues[Matrix.MTRANS_Y];
-            int minX, maxX, minY, maxY;
-
-            if (getImageWidth () > viewWidth) {
-                minX = viewWidth - (int) getImageWidth ();
-                maxX = 0;
-            } else {
-                minX = maxX = startX;
-            }
 
-            if (getImageHeight () > viewHeight) {
-                minY = viewHeight - (int) getImageHeight ();
-                maxY = 0;
-            } else {
-                minY = maxY = startY;
-            }
+            int startX = (int) model.transX;
+            int startY = (int) model.transY;
 
-            scroller.fling (startX, startY, (int) velocityX, (int) velocityY, minX,
-                            maxX, minY, maxY);
+            scroller.fling (startX, startY, velocityX, velocityY, model.getMinFlingX (),
+                            model.getMaxFlingX (), model.getMinFlingY (), model.getMaxFlingY ());
             currX = startX;
             currY = startY;
+            animator.start (this);
+
+            //
+            // Where the image will be once the fling has run its course
+            //
+            predictViewport (scroller.getFinalX (), scroller.getFinalY ());
+            if (null != flingPredictionListener) {
+                flingPredictionListener.onFlingStarted (predictedViewport, model.scale);
+            }
         }
 
         public void cancelFling () {
-            if (scroller != null) {
-                setState (State.NONE);
+            animator.cancel (this);
+            if (!scroller.isFinished ()) {
+                scroller.forceFinished (true);
+                finish (false);
+            }
+        }
+
+        @Override
+        public boolean doFrame (long frameTimeNanos) {
+            if (null != metrics) {
+                metrics.flingFrame ();
+            }
+            if (stats.isRunning ()) {
+                stats.frame (frameTimeNanos);
+            }
+            if (scroller.isFinished () || !scroller.computeScrollOffset ()) {
+                finish (true);
+                return false;
+            }
+
+            int newX = scroller.getCurrX ();
+            int newY = scroller.getCurrY ();
+            int transX = newX - currX;
+            int transY = newY - currY;
+            currX = newX;
+            currY = newY;
+
+            final float prevX = model.transX;
+            final float prevY = model.transY;
+            model.translate (transX, transY);
+            fixTrans ();
+
+            //
+            // An axis is done once it has reached its final position, or when it moved but
+            // fixTrans held the image in place against an edge
+            //
+            final boolean pinnedX = newX == scroller.getFinalX () || (0 != transX && prevX == model.transX);
+            final boolean pinnedY = newY == scroller.getFinalY () || (0 != transY && prevY == model.transY);
+            if (pinnedX && pinnedY) {
                 scroller.forceFinished (true);
+                finish (true);
+                return false;
+            }
+
+            return true;
+        }
+
+        /**
+         @param completed
+         true if the fling ran its course, false if it was interrupted
+         */
+        private void finish (final boolean completed) {
+            if (state == State.FLING) {
+                setState (State.NONE);
+            }
+
+            finishAnimationStats (stats, completed);
+
+            cancelViewportPrediction ();
+            if (null != flingPredictionListener) {
+                flingPredictionListener.onFlingFinished ();
+            }
+        }
+    }
+
+    /**
+     Displays what a progressive load delivers. Callbacks stop as soon as the load is cancelled, ie, because another
+     image is set or the drawable is released.
+     */
+    private class ProgressiveLoad
+      implements ProgressiveImageLoader.Callback {
+
+        private final OnImageLoadListener      listener;
+        private       ProgressiveImageLoader   loader;
+        private       ProgressiveImageDrawable drawable;
+
+        ProgressiveLoad (final OnImageLoadListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void onBoundsDecoded (final int width, final int height, final boolean opaque) {
+            //
+            // From now on the drawable owns the load: replacing it cancels the load
+            //
+            progressiveLoad = null;
+            drawable = new ProgressiveImageDrawable (width,
+                                                     height,
+                                                     getImageLoadExecutor (),
+                                                     decodePolicy,
+                                                     opaque,
+                                                     loader);
+            setImageDrawable (drawable);
+        }
+
+        @Override
+        public void onPreviewDecoded (final Bitmap preview) {
+            drawable.setImage (preview, false);
+        }
+
+        @Override
+        public void onImageDecoded (final Bitmap image) {
+            drawable.setImage (image, true);
+            if (null != listener) {
+                listener.onImageLoaded (null);
+            }
+        }
+
+        @Override
+        public void onImageFailed (final Throwable error) {
+            if (progressiveLoad == loader) {
+                progressiveLoad = null;
+            }
+
+            if (null != listener) {
+                listener.onImageLoadFailed (null, error);
             }
         }
+    }
+
+    /**
+     Decodes an image off the UI thread and displays it, unless cancelled or superseded in the meantime.
+     */
+    private class ImageLoadTask
+      implements Runnable {
+
+        private final Uri                   uri;
+        private final ImageSource.Reader    reader;
+        private final OnImageLoadListener   listener;
+        private final BitmapFactory.Options options;
+        private final BitmapPool            pool;
+        private final float                 zoom;
+        private final TouchImageMetrics     metrics;
+        private volatile boolean            cancelled;
+
+        ImageLoadTask (final Uri uri, final ImageSource.Reader reader, final OnImageLoadListener listener) {
+            this.uri = uri;
+            this.reader = reader;
+            this.listener = listener;
+            options = new BitmapFactory.Options ();
+            pool = VERSION.SDK_INT >= VERSION_CODES.HONEYCOMB
+                   ? bitmapPool
+                   : null;
+            zoom = maintainZoomAfterSetImage
+                   ? getCurrentZoom ()
+                   : 1f;
+            metrics = TouchImageView.this.metrics;
+        }
+
+        /**
+         Stop the decode as soon as possible and discard its result.
+         */
+        void cancel () {
+            cancelled = true;
+            options.requestCancelDecode ();
+        }
 
         @Override
         public void run () {
-            if (scroller.isFinished ()) {
-                scroller = null;
+            if (cancelled) {
+                reader.close ();
+                return;
+            }
+
+            Bitmap bitmap = null;
+            Throwable error = null;
+
+            try {
+                bitmap = decode ();
+                if (null == bitmap && !cancelled) {
+                    error = new IOException ("Unable to decode image");
+                } else if (null != bitmap) {
+                    decodePolicy.record (bitmap);
+                }
+            } catch (IOException e) {
+                error = e;
+            } catch (OutOfMemoryError e) {
+                error = e;
+            } finally {
+                reader.close ();
+            }
+
+            final Bitmap result = bitmap;
+            final Throwable failure = error;
+            post (new Runnable () {
+                @Override
+                public void run () {
+                    onImageLoadComplete (result, failure);
+                }
+            });
+        }
+
+        /**
+         Decode the image, into a pooled bitmap if there is a suitable one.
+
+         @return the image, or null if it cannot be decoded or the load was cancelled
+         */
+        private Bitmap decode () throws IOException {
+            if (null == pool && DecodeConfigPolicy.QUALITY == decodePolicy.getPolicy ()) {
+                return decode (null);
+            }
+
+            //
+            // Read the dimensions and format first to pick the config and find a pooled bitmap of the right size
+            //
+            options.inJustDecodeBounds = true;
+            decode (null);
+            options.inJustDecodeBounds = false;
+            if (cancelled || options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+
+            options.inPreferredConfig = decodePolicy.configFor (Decoding.isOpaque (options.outMimeType), zoom);
+            if (null == pool) {
+                return decode (null);
+            }
+
+            final Bitmap reusable = pool.get (options.outWidth, options.outHeight, options.inPreferredConfig);
+            if (null != reusable) {
+                try {
+                    final Bitmap bitmap = decode (reusable);
+                    if (null != bitmap) {
+                        pool.reused (bitmap);
+                        return bitmap;
+                    }
+                } catch (IllegalArgumentException e) {
+                    //
+                    // The decoder cannot decode this image into an existing bitmap (ie, not a JPEG or PNG before
+                    // KitKat): fall back to a new one
+                    //
+                    Log.d (LOGTAG, "Unable to reuse a pooled bitmap", e);
+                }
+
+                pool.put (reusable);
+                if (cancelled) {
+                    return null;
+                }
+            }
+
+            pool.missed ();
+            return decode (null);
+        }
+
+        private Bitmap decode (final Bitmap reusable) throws IOException {
+            if (null != pool) {
+                setDecodeTarget (reusable);
+            }
+
+            final long start = null == metrics
+                               ? 0
+                               : metrics.beginDecode (TouchImageMetrics.SECTION_DECODE);
+            try {
+                return reader.decode (options);
+            } finally {
+                if (null != metrics) {
+                    metrics.endDecode (start);
+                }
+            }
+        }
+
+        @TargetApi (Build.VERSION_CODES.HONEYCOMB)
+        private void setDecodeTarget (final Bitmap reusable) {
+            //
+            // Pooled images must be mutable to be decoded into again later
+            //
+            options.inMutable = true;
+            options.inBitmap = reusable;
+        }
+
+        private void onImageLoadComplete (final Bitmap bitmap, final Throwable error) {
+            if (cancelled || imageLoad != this) {
+                if (null != bitmap) {
+                    if (null != pool) {
+                        pool.put (bitmap);
+                    } else {
+                        bitmap.recycle ();
+                    }
+                }
+                return;
+            }
+
+            imageLoad = null;
+
+            if (null == bitmap) {
+                if (null != listener) {
+                    listener.onImageLoadFailed (uri, error);
+                }
                 return;
             }
 
-            if (scroller.computeScrollOffset ()) {
-                int newX = scroller.getCurrX ();
-                int newY = scroller.getCurrY ();
-                int transX = newX - currX;
-                int transY = newY - currY;
-                currX = newX;
-                currY = newY;
-                matrix.postTranslate (transX, transY);
-                fixTrans ();
-                setImageMatrix (matrix);
-                compatPostOnAnimation (this);
+            setImageBitmap (bitmap);
+            decodedBitmap = bitmap;
+
+            if (null != listener) {
+                listener.onImageLoaded (uri);
             }
         }
     }
@@ -0,0 +1,105 @@
+package ca.mahram.android;
+
+/**
+ Limits how many freshly decoded bitmaps (and how many bytes of them) become visible in a single frame. Each new
+ bitmap has to be uploaded to the renderer the first time it is drawn; too many at once make that frame miss its
+ deadline. At least one bitmap is always allowed per frame so content keeps arriving whatever the budget.
+ Must only be used from the UI thread.
+ */
+final class UploadBudget {
+
+    private int maxBitmaps;
+    private int maxBytes;
+
+    // spent in the current frame
+    private int bitmaps;
+    private int bytes;
+
+    // frames that had bitmaps to show, and frames in which some had to wait
+    private long frames;
+    private long limitedFrames;
+
+    UploadBudget (final int maxBitmaps, final int maxBytes) {
+        set (maxBitmaps, maxBytes);
+    }
+
+    /**
+     Change the budget.
+
+     @param maxBitmaps
+     new bitmaps allowed per frame
+     @param maxBytes
+     bytes of new bitmaps allowed per frame
+     */
+    void set (final int maxBitmaps, final int maxBytes) {
+        this.maxBitmaps = maxBitmaps;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     @return new bitmaps allowed per frame
+     */
+    int getMaxBitmaps () {
+        return maxBitmaps;
+    }
+
+    /**
+     @return bytes of new bitmaps allowed per frame
+     */
+    int getMaxBytes () {
+        return maxBytes;
+    }
+
+    /**
+     Start spending the budget of a new frame.
+     */
+    void beginFrame () {
+        bitmaps = 0;
+        bytes = 0;
+    }
+
+    /**
+     Spend part of the current frame's budget, if there is enough left.
+
+     @param byteCount
+     size of the bitmap about to become visible
+
+     @return true if the bitmap may be shown this frame
+     */
+    boolean spend (final int byteCount) {
+        if (bitmaps > 0 && (bitmaps >= maxBitmaps || bytes + byteCount > maxBytes)) {
+            return false;
+        }
+
+        bitmaps++;
+        bytes += byteCount;
+        return true;
+    }
+
+    /**
+     Done spending the current frame's budget.
+
+     @param deferred
+     number of bitmaps left for later frames
+     */
+    void endFrame (final int deferred) {
+        frames++;
+        if (deferred > 0) {
+            limitedFrames++;
+        }
+    }
+
+    /**
+     @return number of frames that had new bitmaps to show
+     */
+    long getFrames () {
+        return frames;
+    }
+
+    /**
+     @return number of frames in which the budget held new bitmaps back
+     */
+    long getLimitedFrames () {
+        return limitedFrames;
+    }
+}
@@ -0,0 +1,46 @@
+package ca.mahram.android;
+
+import android.graphics.RectF;
+
+/**
+ Implemented by drawables that only render (or only keep in memory) the part of the image that is currently visible.
+ {@link TouchImageView} reports the visible region every time its matrix moves the viewport.
+ */
+interface ViewportListener {
+    /**
+     The image has been fitted to the view.
+
+     @param fitScale
+     drawable to view scale at which the whole image fits the view (zoom level 1)
+     */
+    void onImageFitted (float fitScale);
+
+    /**
+     The visible region of the drawable has changed.
+
+     @param visibleRect
+     region of the drawable visible in the view, in the drawable's coordinate system. May extend past the
+     drawable's bounds. The instance is reused by the caller and must not be retained.
+     @param scale
+     current drawable to view scale (view pixels per drawable pixel)
+     */
+    void onViewportChanged (RectF visibleRect, float scale);
+
+    /**
+     The visible region is expected to move to the given one shortly, for example because of a fling. Content for it
+     (and for the way there) may be loaded ahead of time. Replaces any previous prediction.
+
+     @param predictedRect
+     region of the drawable expected to become visible, in the drawable's coordinate system. The instance is reused
+     by the caller and must not be retained.
+     @param scale
+     drawable to view scale once there
+     */
+    void onViewportPredicted (RectF predictedRect, float scale);
+
+    /**
+     The last prediction no longer holds: the gesture ended or changed direction. Content requested only because of
+     it can be dropped.
+     */
+    void onPredictionCancelled ();
+}
@@ -0,0 +1,563 @@
+package ca.mahram.android;
+
+/**
+ <p>
+ Zoom and pan state of a {@link TouchImageView}, kept in primitive fields. The transform it describes is a uniform
+ scale followed by a translation, which is all the view ever applies to its image matrix.
+ </p>
+ <p>
+ All the transform math (bounds checking, scaling around a focus point, refitting after rotation and coordinate
+ conversions) lives here and has no Android dependencies, so it runs on a plain JVM. The view copies the result into
+ its <code>android.graphics.Matrix</code> once per frame.
+ </p>
+ */
+final class ZoomPanModel {
+
+    // Current transform: drawable to view scale and translation, in view pixels
+    float scale;
+    float transX;
+    float transY;
+
+    // Transform saved prior to the screen rotating (or a new image being set)
+    float prevTransX;
+    float prevTransY;
+
+    // Scale of image ranges from minScale to maxScale, where minScale == 1
+    // when the image is stretched to fit view.
+    float normalizedScale;
+
+    // Size of view and previous view size (ie before rotation)
+    int viewWidth;
+    int viewHeight;
+    int prevViewWidth;
+    int prevViewHeight;
+
+    // Size of image when it is stretched to fit view. Before and After rotation.
+    float matchViewWidth;
+    float matchViewHeight;
+    float prevMatchViewWidth;
+    float prevMatchViewHeight;
+
+    // Intrinsic size of the drawable
+    int drawableWidth;
+    int drawableHeight;
+
+    // Zoom boundaries and the bounce back boundaries derived from them
+    private final float minScaleBounceBackMultiplier;
+    private final float maxScaleBounceBackMultiplier;
+    private       float minScale;
+    private       float maxScale;
+    private       float lowerBounceBackScale;
+    private       float upperBounceBackScale;
+
+    /**
+     @param minScale
+     minimum zoom multiplier
+     @param maxScale
+     maximum zoom multiplier
+     @param minScaleBounceBackMultiplier
+     multiplied by minScale to get how far the image can be pinched below it before bouncing back
+     @param maxScaleBounceBackMultiplier
+     multiplied by maxScale to get how far the image can be pinched above it before bouncing back
+     */
+    ZoomPanModel (final float minScale,
+                  final float maxScale,
+                  final float minScaleBounceBackMultiplier,
+                  final float maxScaleBounceBackMultiplier) {
+        this.minScaleBounceBackMultiplier = minScaleBounceBackMultiplier;
+        this.maxScaleBounceBackMultiplier = maxScaleBounceBackMultiplier;
+        setMinScale (minScale);
+        setMaxScale (maxScale);
+        normalizedScale = 1;
+        scale = 1;
+    }
+
+    float getMinScale () {
+        return minScale;
+    }
+
+    void setMinScale (final float min) {
+        minScale = min;
+        lowerBounceBackScale = minScaleBounceBackMultiplier * minScale;
+    }
+
+    float getMaxScale () {
+        return maxScale;
+    }
+
+    void setMaxScale (final float max) {
+        maxScale = max;
+        upperBounceBackScale = maxScaleBounceBackMultiplier * maxScale;
+    }
+
+    float getImageWidth () {
+        return matchViewWidth * normalizedScale;
+    }
+
+    float getImageHeight () {
+        return matchViewHeight * normalizedScale;
+    }
+
+    /**
+     @return true if the drawable has a size, so that the transform is meaningful
+     */
+    boolean hasDrawable () {
+        return drawableWidth > 0 && drawableHeight > 0;
+    }
+
+    /**
+     Save the current transform and view dimensions as the state prior to rotation.
+     */
+    void savePrevious () {
+        prevTransX = transX;
+        prevTransY = transY;
+        prevMatchViewHeight = matchViewHeight;
+        prevMatchViewWidth = matchViewWidth;
+        prevViewHeight = viewHeight;
+        prevViewWidth = viewWidth;
+    }
+
+    /**
+     If the normalizedScale is equal to 1 (or recenter is requested), then the image is made to fit the view.
+     Otherwise, it is made to fit the view according to the dimensions of the previous transform. This
+     allows the image to maintain its zoom after rotation.
+
+     @param recenter
+     true to reset the zoom and center the image regardless of the current zoom
+
+     @return the scale at which the whole image fits the view (zoom level 1), or 0 if there is no drawable
+     */
+    float fit (final boolean recenter) {
+        if (!hasDrawable ()) {
+            return 0;
+        }
+
+        //
+        // Scale image for view
+        //
+        final float scaleX = (float) viewWidth / drawableWidth;
+        final float scaleY = (float) viewHeight / drawableHeight;
+        final float fitScale = Math.min (scaleX, scaleY);
+
+        //
+        // Center the image
+        //
+        final float redundantYSpace = viewHeight - (fitScale * drawableHeight);
+        final float redundantXSpace = viewWidth - (fitScale * drawableWidth);
+        matchViewWidth = viewWidth - redundantXSpace;
+        matchViewHeight = viewHeight - redundantYSpace;
+
+        if (normalizedScale == 1 || recenter) {
+            //
+            // Stretch and center image to fit view
+            //
+            normalizedScale = 1;
+            scale = fitScale;
+            transX = redundantXSpace / 2;
+            transY = redundantYSpace / 2;
+        } else {
+            //
+            // Rescale after rotation
+            //
+            scale = matchViewWidth / drawableWidth * normalizedScale;
+
+            //
+            // Width
+            //
+            transX = translateAfterRotate (prevTransX,
+                                           prevMatchViewWidth * normalizedScale,
+                                           getImageWidth (),
+                                           prevViewWidth,
+                                           viewWidth,
+                                           drawableWidth);
+
+            //
+            // Height
+            //
+            transY = translateAfterRotate (prevTransY,
+                                           prevMatchViewHeight * normalizedScale,
+                                           getImageHeight (),
+                                           prevViewHeight,
+                                           viewHeight,
+                                           drawableHeight);
+        }
+
+        return fitScale;
+    }
+
+    /**
+     After rotating, the transform needs to be translated. This function finds the area of image
+     which was previously centered and adjusts translations so that is again the center, post-rotation.
+
+     @param trans
+     the value of trans in that axis before the rotation
+     @param prevImageSize
+     the width/height of the image before the rotation
+     @param imageSize
+     width/height of the image after rotation
+     @param prevViewSize
+     width/height of view before rotation
+     @param viewSize
+     width/height of view after rotation
+     @param drawableSize
+     width/height of drawable
+
+     @return the translation in that axis after the rotation
+     */
+    private float translateAfterRotate (final float trans,
+                                        final float prevImageSize,
+                                        final float imageSize,
+                                        final int prevViewSize,
+                                        final int viewSize,
+                                        final int drawableSize) {
+        if (imageSize < viewSize) {
+            //
+            // The width/height of image is less than the view's width/height. Center it.
+            //
+            return (viewSize - (drawableSize * scale)) * 0.5f;
+        } else if (trans > 0) {
+            //
+            // The image is larger than the view, but was not before rotation. Center it.
+            //
+            return -((imageSize - viewSize) * 0.5f);
+        } else {
+            //
+            // Find the area of the image which was previously centered in the view. Determine its distance
+            // from the left/top side of the view as a fraction of the entire image's width/height. Use that percentage
+            // to calculate the trans in the new view width/height.
+            //
+            final float percentage = (Math.abs (trans) + (0.5f * prevViewSize)) / prevImageSize;
+            return -((percentage * imageSize) - (viewSize * 0.5f));
+        }
+    }
+
+    /**
+     Translate the image.
+
+     @param dx
+     horizontal translation in view pixels
+     @param dy
+     vertical translation in view pixels
+     */
+    void translate (final float dx, final float dy) {
+        transX += dx;
+        transY += dy;
+    }
+
+    /**
+     Translate the image by a drag gesture's movement, ignoring movement along axes in which the image fits the
+     view, then perform boundary checking.
+
+     @param deltaX
+     horizontal drag distance
+     @param deltaY
+     vertical drag distance
+     */
+    void drag (final float deltaX, final float deltaY) {
+        translate (getFixDragTrans (deltaX, viewWidth, getImageWidth ()),
+                   getFixDragTrans (deltaY, viewHeight, getImageHeight ()));
+        fixTrans ();
+    }
+
+    /**
+     Performs boundary checking and fixes the translation if the image is out of bounds.
+     */
+    void fixTrans () {
+        transX += getFixTrans (transX, viewWidth, getImageWidth ());
+        transY += getFixTrans (transY, viewHeight, getImageHeight ());
+    }
+
+    /**
+     When transitioning from zooming from focus to zoom from center (or vice versa)
+     the image can become unaligned within the view. This is apparent when zooming
+     quickly. When the content size is less than the view size, the content will often
+     be centered incorrectly within the view. fixScaleTrans first calls fixTrans() and
+     then makes sure the image is centered correctly within the view.
+     */
+    void fixScaleTrans () {
+        fixTrans ();
+        if (getImageWidth () < viewWidth) {
+            transX = (viewWidth - getImageWidth ()) / 2;
+        }
+
+        if (getImageHeight () < viewHeight) {
+            transY = (viewHeight - getImageHeight ()) / 2;
+        }
+    }
+
+    static float getFixTrans (final float trans, final float viewSize, final float contentSize) {
+        final float minTrans, maxTrans;
+
+        if (contentSize <= viewSize) {
+            minTrans = 0;
+            maxTrans = viewSize - contentSize;
+        } else {
+            minTrans = viewSize - contentSize;
+            maxTrans = 0;
+        }
+
+        if (trans < minTrans) {
+            return -trans + minTrans;
+        }
+        if (trans > maxTrans) {
+            return -trans + maxTrans;
+        }
+        return 0;
+    }
+
+    static float getFixDragTrans (final float delta, final float viewSize, final float contentSize) {
+        if (contentSize <= viewSize) {
+            return 0;
+        }
+        return delta;
+    }
+
+    /**
+     Scale the image around a focus point, clamped to the zoom boundaries, then fix the translation.
+
+     @param deltaScale
+     scale multiplier
+     @param focusX
+     x-coordinate of the focus point, in view pixels
+     @param focusY
+     y-coordinate of the focus point, in view pixels
+     @param stretchImageToSuper
+     true to clamp to the bounce back boundaries rather than the zoom boundaries
+     */
+    void scaleImage (float deltaScale, final float focusX, final float focusY, final boolean stretchImageToSuper) {
+        final float lowerScale, upperScale;
+        if (stretchImageToSuper) {
+            lowerScale = lowerBounceBackScale;
+            upperScale = upperBounceBackScale;
+        } else {
+            lowerScale = minScale;
+            upperScale = maxScale;
+        }
+
+        final float origScale = normalizedScale;
+        normalizedScale *= deltaScale;
+        if (normalizedScale > upperScale) {
+            normalizedScale = upperScale;
+            deltaScale = upperScale / origScale;
+        } else if (normalizedScale < lowerScale) {
+            normalizedScale = lowerScale;
+            deltaScale = lowerScale / origScale;
+        }
+
+        scale *= deltaScale;
+        transX = focusX + (transX - focusX) * deltaScale;
+        transY = focusY + (transY - focusY) * deltaScale;
+        fixScaleTrans ();
+    }
+
+    /**
+     Get the zoom level an animated zoom should head for once a pinch has ended.
+
+     @return the nearest zoom boundary if the zoom is past one, the current zoom otherwise
+     */
+    float getBounceBackTarget () {
+        if (normalizedScale > maxScale) {
+            return maxScale;
+        } else if (normalizedScale < minScale) {
+            return minScale;
+        }
+        return normalizedScale;
+    }
+
+    /**
+     Get the zoom level a double tap toggles to.
+
+     @return maxScale when at minScale, minScale otherwise
+     */
+    float getDoubleTapTarget () {
+        return (normalizedScale == minScale)
+               ? maxScale
+               : minScale;
+    }
+
+    /**
+     Transform a horizontal view coordinate into the drawable's coordinate system.
+
+     @param x
+     x-coordinate in the view
+     @param clipToDrawable
+     true to clip the result to the bounds of the drawable
+
+     @return x-coordinate in the drawable
+     */
+    float touchToDrawableX (final float x, final boolean clipToDrawable) {
+        final float drawableX = ((x - transX) * drawableWidth) / getImageWidth ();
+        return clipToDrawable
+               ? Math.min (Math.max (drawableX, 0), drawableWidth)
+               : drawableX;
+    }
+
+    /**
+     Transform a vertical view coordinate into the drawable's coordinate system.
+
+     @param y
+     y-coordinate in the view
+     @param clipToDrawable
+     true to clip the result to the bounds of the drawable
+
+     @return y-coordinate in the drawable
+     */
+    float touchToDrawableY (final float y, final boolean clipToDrawable) {
+        final float drawableY = ((y - transY) * drawableHeight) / getImageHeight ();
+        return clipToDrawable
+               ? Math.min (Math.max (drawableY, 0), drawableHeight)
+               : drawableY;
+    }
+
+    /**
+     Inverse of {@link #touchToDrawableX(float, boolean)}.
+
+     @param x
+     x-coordinate in the drawable
+
+     @return x-coordinate in the view
+     */
+    float drawableToTouchX (final float x) {
+        return transX + getImageWidth () * (x / drawableWidth);
+    }
+
+    /**
+     Inverse of {@link #touchToDrawableY(float, boolean)}.
+
+     @param y
+     y-coordinate in the drawable
+
+     @return y-coordinate in the view
+     */
+    float drawableToTouchY (final float y) {
+        return transY + getImageHeight () * (y / drawableHeight);
+    }
+
+    /**
+     @return left edge of the region of the drawable visible in the view
+     */
+    float getVisibleLeft () {
+        return -transX / scale;
+    }
+
+    /**
+     @return top edge of the region of the drawable visible in the view
+     */
+    float getVisibleTop () {
+        return -transY / scale;
+    }
+
+    /**
+     @return right edge of the region of the drawable visible in the view
+     */
+    float getVisibleRight () {
+        return (viewWidth - transX) / scale;
+    }
+
+    /**
+     @return bottom edge of the region of the drawable visible in the view
+     */
+    float getVisibleBottom () {
+        return (viewHeight - transY) / scale;
+    }
+
+    /**
+     @return the smallest horizontal translation a fling may reach
+     */
+    int getMinFlingX () {
+        return getImageWidth () > viewWidth
+               ? viewWidth - (int) getImageWidth ()
+               : (int) transX;
+    }
+
+    /**
+     @return the largest horizontal translation a fling may reach
+     */
+    int getMaxFlingX () {
+        return getImageWidth () > viewWidth
+               ? 0
+               : (int) transX;
+    }
+
+    /**
+     @return the smallest vertical translation a fling may reach
+     */
+    int getMinFlingY () {
+        return getImageHeight () > viewHeight
+               ? viewHeight - (int) getImageHeight ()
+               : (int) transY;
+    }
+
+    /**
+     @return the largest vertical translation a fling may reach
+     */
+    int getMaxFlingY () {
+        return getImageHeight () > viewHeight
+               ? 0
+               : (int) transY;
+    }
+
+    /**
+     An animated zoom towards a target zoom level, advanced one frame at a time by {@link #step(ZoomPanModel, float)}.
+     The point of the drawable under the focus moves towards the center of the view as the zoom progresses. A single
+     instance can be reused for every animation.
+     */
+    static final class AnimatedZoom {
+        private float   startZoom;
+        private float   targetZoom;
+        private boolean stretchImageToSuper;
+
+        // drawable point the zoom is anchored on, and where it starts and ends in the view
+        private float drawableX;
+        private float drawableY;
+        private float startX;
+        private float startY;
+        private float endX;
+        private float endY;
+
+        /**
+         @param model
+         model about to be animated
+         @param targetZoom
+         zoom level to reach
+         @param focusX
+         x-coordinate of the focus point, in view pixels
+         @param focusY
+         y-coordinate of the focus point, in view pixels
+         @param stretchImageToSuper
+         true to clamp to the bounce back boundaries rather than the zoom boundaries
+         */
+        void start (final ZoomPanModel model,
+                    final float targetZoom,
+                    final float focusX,
+                    final float focusY,
+                    final boolean stretchImageToSuper) {
+            startZoom = model.normalizedScale;
+            this.targetZoom = targetZoom;
+            this.stretchImageToSuper = stretchImageToSuper;
+            drawableX = model.touchToDrawableX (focusX, false);
+            drawableY = model.touchToDrawableY (focusY, false);
+            startX = model.drawableToTouchX (drawableX);
+            startY = model.drawableToTouchY (drawableY);
+            endX = model.viewWidth / 2;
+            endY = model.viewHeight / 2;
+        }
+
+        /**
+         Move the model to a point of the animation: scale to the interpolated zoom level, translate the anchor point
+         to its interpolated position, then fix the translation.
+
+         @param model
+         the animated model
+         @param t
+         interpolated progress of the animation, from 0 to 1
+         */
+        void step (final ZoomPanModel model, final float t) {
+            final float zoom = startZoom + t * (targetZoom - startZoom);
+            model.scaleImage (zoom / model.normalizedScale, drawableX, drawableY, stretchImageToSuper);
+            model.translate (startX + t * (endX - startX) - model.drawableToTouchX (drawableX),
+                             startY + t * (endY - startY) - model.drawableToTouchY (drawableY));
+            model.fixScaleTrans ();
+        }
+    }
+}